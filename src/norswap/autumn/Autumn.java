@@ -1,11 +1,27 @@
 package norswap.autumn;
 
+import norswap.autumn.memo.Memoizer;
+import norswap.utils.IO;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
 
 import static java.util.Objects.requireNonNull;
 
 /**
  * This class holds the {@code run} methods, which are the entry points to start a parse.
+ *
+ * <p>A parser graph can be shared by concurrent parses on multiple threads: all per-parse state is
+ * held by the {@link Parse} object, and the caches held by parsers are thread-safe. The parser
+ * graph must however be fully constructed (including any compilation pass such as {@link
+ * norswap.autumn.visitors.ChoiceDispatchCompiler}) before being handed to other threads, and must
+ * not be modified afterwards.
  */
 public final class Autumn
 {
@@ -23,7 +39,7 @@ public final class Autumn
 
     // ---------------------------------------------------------------------------------------------
 
-    private static class PotentiallyMalformedGrammarError extends Error
+    static class PotentiallyMalformedGrammarError extends Error
     {
         PotentiallyMalformedGrammarError (StackOverflowError e) {
             // no stack trace for this error
@@ -96,4 +112,128 @@ public final class Autumn
     }
 
     // ---------------------------------------------------------------------------------------------
-}
\ No newline at end of file
+
+    /**
+     * Parses every string in {@code inputs} with {@code parser} and the given parse options, in
+     * parallel on the {@link ForkJoinPool#commonPool() common fork-join pool}.
+     *
+     * <p>See {@link #parse_all(Parser, List, ParseOptions, Executor)} for details.
+     */
+    public static List<ParseResult> parse_all
+            (Parser parser, List<String> inputs, ParseOptions options)
+    {
+        return parse_all(parser, inputs, options, ForkJoinPool.commonPool());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses every string in {@code inputs} with {@code parser} and the given parse options, in
+     * parallel on the given executor, and returns the results in the same order as the inputs.
+     *
+     * <p>The well-formedness check ({@link ParseOptions#well_formedness_check}) is performed once
+     * on the calling thread, before dispatching the parses. The parses are run by a pool of {@link
+     * ParseSession}s owned by this call (one per concurrently running parse), reusing their
+     * allocated storage. The pool is released when this method returns. If {@link
+     * ParseOptions#trace} is set, {@link ParseOptions#metrics} is called once per session.
+     *
+     * <p>Since a session clears and reuses its memoizers on its next parse, memoizers are removed
+     * from the {@link ParseResult#parse_states} of the returned results. Other parse state data is
+     * kept.
+     *
+     * <p>If a parse throws, this method waits for all parses to complete, then rethrows the
+     * exception for the first failing input.
+     *
+     * <p>The parser graph must not be modified while the parses are ongoing (cf. {@link Autumn}).
+     */
+    public static List<ParseResult> parse_all
+            (Parser parser, List<String> inputs, ParseOptions options, Executor executor)
+    {
+        requireNonNull(inputs, "Input list cannot be null.");
+        return run_all(parser, inputs, options, executor, input -> input);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses the content of every file in {@code paths} with {@code parser} and the given parse
+     * options, in parallel on the {@link ForkJoinPool#commonPool() common fork-join pool}.
+     *
+     * <p>See {@link #parse_all_files(Parser, List, ParseOptions, Executor)} for details.
+     */
+    public static List<ParseResult> parse_all_files
+            (Parser parser, List<Path> paths, ParseOptions options)
+    {
+        return parse_all_files(parser, paths, options, ForkJoinPool.commonPool());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses the content of every file in {@code paths} with {@code parser} and the given parse
+     * options, in parallel on the given executor, and returns the results in the same order as the
+     * paths. Files are read by the executor threads, right before being parsed.
+     *
+     * <p>Otherwise, this behaves like {@link #parse_all(Parser, List, ParseOptions, Executor)}.
+     */
+    public static List<ParseResult> parse_all_files
+            (Parser parser, List<Path> paths, ParseOptions options, Executor executor)
+    {
+        requireNonNull(paths, "Path list cannot be null.");
+        return run_all(parser, paths, options, executor, path -> IO.slurp(path.toString()));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static <T> List<ParseResult> run_all (
+            Parser parser, List<T> inputs, ParseOptions options, Executor executor,
+            Function<T, String> read)
+    {
+        requireNonNull(parser,   "Parser cannot be null.");
+        requireNonNull(options,  "Parse options cannot be null.");
+        requireNonNull(executor, "Executor cannot be null.");
+
+        if (options.well_formedness_check)
+            Parse.check_well_formedness(parser);
+
+        // idle sessions, reused by the parses of this call only
+        ConcurrentLinkedQueue<ParseSession> sessions = new ConcurrentLinkedQueue<>();
+
+        ArrayList<CompletableFuture<ParseResult>> futures = new ArrayList<>(inputs.size());
+        for (T input: inputs)
+            futures.add(CompletableFuture.supplyAsync(() ->
+            {
+                ParseSession session = sessions.poll();
+                if (session == null)
+                    session = new ParseSession(parser, options, false);
+                try {
+                    ParseResult result = session.parse(read.apply(input));
+                    // the memoizers are cleared by the next parse of the session
+                    result.parse_states.values().removeIf(data -> data instanceof Memoizer);
+                    return result;
+                }
+                finally {
+                    sessions.offer(session);
+                }
+            },
+            executor));
+
+        ArrayList<ParseResult> results = new ArrayList<>(inputs.size());
+        Throwable thrown = null;
+
+        for (CompletableFuture<ParseResult> future: futures) {
+            try {
+                results.add(future.join());
+            } catch (CompletionException e) {
+                if (thrown == null) thrown = e.getCause();
+            }
+        }
+
+        if (thrown instanceof RuntimeException) throw (RuntimeException) thrown;
+        if (thrown instanceof Error) throw (Error) thrown;
+        if (thrown != null) throw new CompletionException(thrown);
+        return results;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -53,11 +53,15 @@ public class DSL
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Creates a new instance using the default memoization strategy for tokens (currently: an
-     * 8-slot cache).
+     * Creates a new instance using the default memoization strategy for tokens (currently: a
+     * {@link norswap.autumn.parsers.TokenCache}, indexed by input position).
+     *
+     * <p>The default used to be an 8-slot {@link MemoCache}, whose memory use is constant, while a
+     * token cache grows with the input. To keep the old behaviour, use {@code super(() -> new
+     * MemoCache(8, false))}.
      */
     public DSL () {
-        this.tokens = new Tokens(() -> new MemoCache(8, false));
+        this.tokens = new Tokens();
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -301,6 +305,22 @@ public class DSL
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * A {@link Cut} parser: always succeeds, but prevents the innermost enclosing choice from
+     * trying its remaining alternatives.
+     */
+    public rule cut = new rule(new Cut());
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A {@link Commit} parser: always succeeds, but prevents the parse from backtracking before the
+     * current position, releasing the memory held for backtracking.
+     */
+    public rule commit = new rule(new Commit());
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * A {@link CharPredicate} parser that matches any character.
      */
@@ -400,6 +420,46 @@ public class DSL
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Returns a {@link StringChoice} parser matching the first of the given strings that matches,
+     * equivalent to a {@link #choice} of {@link #str} parsers.
+     */
+    public rule str_choice (String... strings) {
+        return new rule(new StringChoice(false, null, strings));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a {@link StringChoice} parser matching the first of the given strings that matches,
+     * equivalent to a {@link #choice} of {@link #word} parsers.
+     */
+    public rule word_choice (String... strings) {
+        return new rule(new StringChoice(false, ws(), strings));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a {@link StringChoice} parser matching the longest of the given strings that matches,
+     * equivalent to a {@link #longest} choice of {@link #str} parsers.
+     */
+    public rule longest_str_choice (String... strings) {
+        return new rule(new StringChoice(true, null, strings));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a {@link StringChoice} parser matching the longest of the given strings that matches,
+     * equivalent to a {@link #longest} choice of {@link #word} parsers.
+     */
+    public rule longest_word_choice (String... strings) {
+        return new rule(new StringChoice(true, ws(), strings));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * A {@link CharPredicate} that matches a single character.
      */
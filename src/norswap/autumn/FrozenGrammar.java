@@ -0,0 +1,109 @@
+package norswap.autumn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * The set of parsers reachable from one or more root parsers, each of which has been assigned a
+ * dense integer id ({@link Parser#id()}) and a frozen array of children ({@link
+ * Parser#child_array()}).
+ *
+ * <p>Build with {@link #freeze(Parser...)}, after the grammar has been fully constructed and before
+ * parsing with it. The grammar must not be modified afterwards. A parser can only belong to a
+ * single frozen grammar: if some parsers are shared between multiple grammars, freeze them
+ * together, by passing all the roots to {@link #freeze(Parser...)}.
+ *
+ * <p>Ids range from 0 to {@link #size()} (exclusive), which lets per-parser data be stored in
+ * arrays instead of hash maps: this is done by {@link ParserWalker}, {@link ParseMetrics} and
+ * {@link norswap.autumn.memo.Memoizer#hash}. Parsers that haven't been frozen have id -1 and are
+ * handled through hash maps, as usual.
+ */
+public final class FrozenGrammar
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Indexed by id. */
+    private final Parser[] parsers;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private FrozenGrammar (Parser[] parsers) {
+        this.parsers = parsers;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Assigns ids and frozen children arrays to all the parsers reachable from the given roots,
+     * and returns the resulting grammar.
+     *
+     * <p>Throws an error if one of these parsers already belongs to a frozen grammar.
+     */
+    public static FrozenGrammar freeze (Parser... roots)
+    {
+        ArrayList<Parser> parsers = new ArrayList<>();
+        ArrayList<Parser[]> children = new ArrayList<>();
+        Set<Parser> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        ArrayList<Parser> work = new ArrayList<>();
+
+        for (int i = roots.length - 1; i >= 0; --i)
+            work.add(roots[i]);
+
+        // Ids are assigned in depth-first pre-order, which gives related parsers close ids.
+        // Nothing is modified before we know that no parser is already frozen.
+
+        while (!work.isEmpty())
+        {
+            Parser parser = work.remove(work.size() - 1);
+            if (!seen.add(parser))
+                continue;
+            if (parser.grammar() != null)
+                throw new Error("parser already frozen in another grammar");
+
+            Parser[] array = parser.child_array();
+            parsers.add(parser);
+            children.add(array);
+
+            for (int i = array.length - 1; i >= 0; --i)
+                work.add(array[i]);
+        }
+
+        FrozenGrammar grammar = new FrozenGrammar(parsers.toArray(new Parser[0]));
+        for (int i = 0; i < parsers.size(); ++i)
+            parsers.get(i).freeze(grammar, i, children.get(i));
+
+        return grammar;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of parsers in the grammar.
+     */
+    public int size() {
+        return parsers.length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the parser with the given id.
+     */
+    public Parser parser (int id) {
+        return parsers[id];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns all the parsers of the grammar, indexed by id.
+     */
+    public Parser[] parsers() {
+        return Arrays.copyOf(parsers, parsers.length);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -1,10 +1,11 @@
 package norswap.autumn;
 
-import norswap.autumn.util.ArrayStack;
-import norswap.utils.Vanilla;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.RandomAccess;
 
 /**
  * The list of side-effects that have been applied during this parse. New side-effects
@@ -13,21 +14,147 @@ import java.util.List;
  * <p>Usually, this is only modified through the {@link #apply} methods. Parsers automatically
  * undo side-effects on failure through {@link #rollback}. A list of recently applied
  * side-effects can be acquired through {@link #delta}.
+ *
+ * <p>The log is implemented as a journal of tagged entries, stored in parallel arrays. Entries for
+ * user-defined side effects hold a {@link SideEffect.Applied}, while operations on a {@link
+ * SideEffectingArrayStack} (the most frequent side effects by far) are recorded directly, without
+ * allocating any object.
+ *
+ * <p>The lists returned by {@link #delta} are {@link Delta} snapshots: a copy of a slice of the
+ * journal, which {@link #apply(List)} replays without allocating or re-running any closure for
+ * stack operations.
+ *
+ * <p>When the parse is committed ({@link Parse#commit()}), the entries of the log are discarded
+ * and the log can't be rolled back past the commit point anymore. The journal only holds the
+ * entries applied since the last commit, so its storage stays bounded by the largest number of
+ * entries between two commits. Log indices (as returned by {@link #size()} and accepted by {@link
+ * #rollback} and {@link #delta}) are not affected: the size of the log is unchanged by a commit,
+ * and the journal index of an entry is its log index minus the number of discarded entries.
+ *
+ * <p>The log used to be an {@code ArrayStack<SideEffect.Applied>}. It is not a list anymore, but
+ * {@link #size()} and {@link #get(int)} still give read access to the applied side effects. The
+ * list-mutating methods are gone: modify the log through {@link #apply} and {@link #rollback}.
  */
-public final class Log extends ArrayStack<SideEffect.Applied>
+public final class Log
 {
     // ---------------------------------------------------------------------------------------------
 
+    /** Entry kind for user-defined side effects: the payload is a {@link SideEffect.Applied}. */
+    static final byte EFFECT = 0;
+
+    /** Entry kind for a stack push: the payload is the pushed item. */
+    static final byte PUSH = 1;
+
+    /** Entry kind for a stack pop: the payload is the popped item. */
+    static final byte POP = 2;
+
+    /** Entry kind for a multi-item stack pop: the payload is the array of popped items. */
+    static final byte POP_N = 3;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Kind of each entry. */
+    private byte[] kinds = new byte[64];
+
+    /** Target stack of each entry, null for {@link #EFFECT} entries. */
+    private SideEffectingArrayStack[] stacks = new SideEffectingArrayStack[64];
+
+    /** Payload of each entry, whose meaning depends on the entry kind. */
+    private Object[] payloads = new Object[64];
+
+    /** Number of entries in the journal. */
+    private int count = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Size of the log at the last commit: entries below this index have been discarded. This is
+     * the log index of the first journal entry.
+     */
+    private int base = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
     Log () {}
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Returns the number of side effects in the log.
+     */
+    public int size() {
+        return base + count;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of entries the journal can hold before its storage needs to grow.
+     */
+    public int capacity() {
+        return kinds.length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void record (byte kind, SideEffectingArrayStack stack, Object payload)
+    {
+        if (count == kinds.length) {
+            int len = count * 2;
+            kinds = Arrays.copyOf(kinds, len);
+            stacks = Arrays.copyOf(stacks, len);
+            payloads = Arrays.copyOf(payloads, len);
+        }
+
+        kinds[count] = kind;
+        stacks[count] = stack;
+        payloads[count] = payload;
+        ++count;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Records a push of {@code item} on {@code stack}, which must already have been performed. */
+    void record_push (SideEffectingArrayStack stack, Object item) {
+        record(PUSH, stack, item);
+    }
+
+    /** Records a pop of {@code item} from {@code stack}, which must already have been performed. */
+    void record_pop (SideEffectingArrayStack stack, Object item) {
+        record(POP, stack, item);
+    }
+
+    /**
+     * Records a pop of {@code items} from {@code stack}, which must already have been performed.
+     */
+    void record_pop (SideEffectingArrayStack stack, Object[] items) {
+        record(POP_N, stack, items);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Applies the given side-effect and adds it to the log of applied side effects.
      */
     public void apply (SideEffect effect)
     {
-        add(effect.apply());
+        if (effect instanceof StackEffect)
+        {
+            StackEffect e = (StackEffect) effect;
+            switch (e.kind) {
+                case PUSH:
+                    e.stack.raw_push(e.payload);
+                    record(PUSH, e.stack, e.payload);
+                    break;
+                case POP:
+                    record(POP, e.stack, e.stack.raw_pop());
+                    break;
+                default:
+                    record(POP_N, e.stack, e.stack.raw_pop((Integer) e.payload));
+            }
+        }
+        else
+            record(EFFECT, null, effect.apply());
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -38,7 +165,62 @@ public final class Log extends ArrayStack<SideEffect.Applied>
      */
     public void apply (List<SideEffect> delta)
     {
-        delta.forEach(this::apply);
+        if (delta instanceof Delta) {
+            apply((Delta) delta);
+            return;
+        }
+
+        //noinspection ForLoopReplaceableByForEach
+        for (int i = 0; i < delta.size(); ++i)
+            apply(delta.get(i));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void apply (Delta delta)
+    {
+        for (int i = 0; i < delta.kinds.length; ++i)
+        {
+            SideEffectingArrayStack stack = delta.stacks[i];
+            Object payload = delta.payloads[i];
+
+            switch (delta.kinds[i]) {
+                case EFFECT:
+                    record(EFFECT, null, ((SideEffect) payload).apply());
+                    break;
+                case PUSH:
+                    stack.raw_push(payload);
+                    record(PUSH, stack, payload);
+                    break;
+                case POP:
+                    record(POP, stack, stack.raw_pop());
+                    break;
+                default:
+                    record(POP_N, stack, stack.raw_pop(((Object[]) payload).length));
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Undoes the entry at journal index {@code i}.
+     */
+    private void undo (int i)
+    {
+        switch (kinds[i]) {
+            case EFFECT:
+                ((SideEffect.Applied) payloads[i]).undo.run();
+                break;
+            case PUSH:
+                stacks[i].raw_pop();
+                break;
+            case POP:
+                stacks[i].raw_push(payloads[i]);
+                break;
+            default:
+                stacks[i].raw_push((Object[]) payloads[i]);
+        }
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -49,22 +231,55 @@ public final class Log extends ArrayStack<SideEffect.Applied>
      */
     public void rollback (int log_target_size)
     {
-        for (int i = size(); i > log_target_size; --i)
-            pop().undo.run();
+        if (log_target_size < base)
+            throw Parse.CommitViolation.INSTANCE;
+
+        int target = log_target_size - base;
+        while (count > target) {
+            undo(--count);
+            stacks[count] = null;
+            payloads[count] = null;
+        }
     }
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Returns a side effect corresponding to a journal entry.
+     */
+    private static SideEffect effect (byte kind, SideEffectingArrayStack stack, Object payload)
+    {
+        switch (kind) {
+            case EFFECT:
+                return payload instanceof SideEffect.Applied
+                    ? ((SideEffect.Applied) payload).effect
+                    : (SideEffect) payload;
+            case PUSH:
+                return new StackEffect(PUSH, stack, payload);
+            case POP:
+                return new StackEffect(POP, stack, null);
+            default:
+                return new StackEffect(POP_N, stack, ((Object[]) payload).length);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
 
     /**
      * Returns a list of side effects (without undo functions!) whose index {@code i} are such that
      * {@code log_start_index <= i < log.size()}, in increasing index order.
+     *
+     * <p>The returned list is an immutable {@link Delta} snapshot, unless it is empty.
      */
     public List<SideEffect> delta (int log_start_index)
     {
-        return log_start_index == size()
-            ? Collections.emptyList()
-            : Vanilla.map(from(log_start_index), it -> it.effect);
+        // committed side effects can't be replayed, as they can't be backtracked over
+        int start = Math.max(log_start_index - base, 0);
+
+        if (start >= count)
+            return Collections.emptyList();
+
+        return new Delta(this, start);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -75,7 +290,113 @@ public final class Log extends ArrayStack<SideEffect.Applied>
      */
     public List<SideEffect.Applied> delta_applied (int log_start_index)
     {
-        return new ArrayList<>(from(log_start_index));
+        ArrayList<SideEffect.Applied> delta = new ArrayList<>();
+        for (int i = Math.max(log_start_index - base, 0); i < count; ++i)
+            delta.add(applied(i));
+        return delta;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the applied side effect (with undo function) at index {@code index} of the log, or
+     * null if it has been discarded by a commit ({@link Parse#commit()}).
+     *
+     * <p>For stack operations, this allocates a new {@link SideEffect.Applied} on each call.
+     *
+     * @throws IndexOutOfBoundsException if {@code index} is negative or not smaller than {@link
+     * #size()}.
+     */
+    public SideEffect.Applied get (int index)
+    {
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        return index < base ? null : applied(index - base);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the applied side effect for the entry at journal index {@code i}.
+     */
+    private SideEffect.Applied applied (int i)
+    {
+        if (kinds[i] == EFFECT)
+            return (SideEffect.Applied) payloads[i];
+
+        int index = base + i; // the journal may be compacted by a commit in the meantime
+        return new SideEffect.Applied(effect(kinds[i], stacks[i], payloads[i]), () -> {
+            if (index < base) throw Parse.CommitViolation.INSTANCE;
+            undo(index - base);
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Empties the log without undoing its side effects, retaining its allocated storage.
+     */
+    void reset()
+    {
+        Arrays.fill(stacks, 0, count, null);
+        Arrays.fill(payloads, 0, count, null);
+        count = 0;
+        base = 0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Discards the entries of the log, which may not be rolled back anymore, emptying the journal.
+     */
+    void commit()
+    {
+        Arrays.fill(stacks, 0, count, null);
+        Arrays.fill(payloads, 0, count, null);
+        base += count;
+        count = 0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * An immutable list of side effects, obtained by copying a slice of the log's journal.
+     *
+     * <p>Capturing a delta only copies three arrays, and replaying it through {@link
+     * Log#apply(List)} performs stack operations directly — only user-defined side effects need to
+     * be re-applied. Materializing the list elements (e.g. via {@link #get}) allocates a {@link
+     * StackEffect} for each stack operation.
+     */
+    public static final class Delta extends AbstractList<SideEffect> implements RandomAccess
+    {
+        private final byte[] kinds;
+        private final SideEffectingArrayStack[] stacks;
+
+        /**
+         * Same as {@link Log#payloads}, except that {@link #EFFECT} entries hold the {@link
+         * SideEffect} itself (the undo function isn't retained).
+         */
+        private final Object[] payloads;
+
+        /** {@code start} is a journal index. */
+        private Delta (Log log, int start)
+        {
+            this.kinds = Arrays.copyOfRange(log.kinds, start, log.count);
+            this.stacks = Arrays.copyOfRange(log.stacks, start, log.count);
+            this.payloads = Arrays.copyOfRange(log.payloads, start, log.count);
+
+            for (int i = 0; i < kinds.length; ++i)
+                if (kinds[i] == EFFECT)
+                    payloads[i] = ((SideEffect.Applied) payloads[i]).effect;
+        }
+
+        @Override public SideEffect get (int index) {
+            return effect(kinds[index], stacks[index], payloads[index]);
+        }
+
+        @Override public int size() {
+            return kinds.length;
+        }
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -1,7 +1,14 @@
 package norswap.autumn;
 
+import norswap.autumn.memo.Memoizer;
+import norswap.autumn.memo.WindowMemoTable;
 import norswap.autumn.parsers.Bounded;
+import norswap.autumn.parsers.Choice;
+import norswap.autumn.parsers.Commit;
+import norswap.autumn.parsers.Cut;
+import norswap.autumn.parsers.Memo;
 import norswap.autumn.parsers.Not;
+import norswap.autumn.util.ArrayStack;
 import norswap.autumn.visitors.WellFormednessChecker;
 import norswap.utils.ArrayListLong;
 import java.util.ArrayList;
@@ -14,8 +21,9 @@ import java.util.Map;
  * some input — either a String ({@link #string}) or a list ({@link #list}).
  *
  * <p>Instances of this class cannot be created by the user, instead they are generated by one of
- * the {@link Autumn} {@code .run} methods. However, custom {@link Parser} implementations
- * can (and should) access this class.
+ * the {@link Autumn} {@code .run} methods, or owned by a {@link ParseSession} (in which case the
+ * instance is reset and reused for every parse in the session). However, custom {@link Parser}
+ * implementations can (and should) access this class.
  *
  * <p>Most fields of this class are public in order to enable advanced parser implementations, but
  * it is often not necessary to touch them at all. See the relevant part of the Autumn manual for
@@ -63,15 +71,21 @@ public final class Parse
 
     /**
      * One of the two forms of input the parse may have.
+     *
+     * <p>Must not be modified by parsers (this is only non-final so that {@link ParseSession} may
+     * reuse parse objects).
      */
-    public final String string;
+    public String string;
 
     // ---------------------------------------------------------------------------------------------
 
     /**
      * One of the two forms of input the parse may have.
+     *
+     * <p>Must not be modified by parsers (this is only non-final so that {@link ParseSession} may
+     * reuse parse objects).
      */
-    public final List<?> list;
+    public List<?> list;
 
     // ---------------------------------------------------------------------------------------------
 
@@ -138,6 +152,38 @@ public final class Parse
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Set by {@link Cut} to indicate that the innermost enclosing {@link Choice} must not try its
+     * remaining alternatives. Choices and other alternations save and clear this flag before
+     * trying their alternatives, and restore it afterwards. {@link Memo} parsers also clear it
+     * before running their child, but keep it set if the child set it.
+     */
+    public boolean cut = false;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The position up to which the parse has been committed (cf. {@link #commit()}).
+     */
+    int committed = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Thrown when a parser tries to backtrack past the committed position, causing the parse to
+     * fail. Preallocated, as this is a control-flow exception.
+     */
+    static final class CommitViolation extends RuntimeException
+    {
+        static final CommitViolation INSTANCE = new CommitViolation();
+
+        private CommitViolation () {
+            super("backtracking past a committed position", null, false, false);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * A stack used to record the execution time of completed parser invocations in tracing mode
      * ({@link ParseOptions#trace}).
@@ -171,35 +217,107 @@ public final class Parse
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Resets this parse so that it can be used to parse a new input, retaining allocated storage
+     * where possible. Memoizers (cf. {@link Memoizer#clear()}) are cleared and kept, while other
+     * parse state data is discarded.
+     */
+    void reset (String string, List<?> list)
+    {
+        assert string != null && list == null || string == null && list != null;
+
+        this.string = string;
+        this.list = list;
+        this.end_of_input = string != null ? string.length() : list.size();
+        pos = 0;
+        error = -1;
+        error_message = null;
+        cut = false;
+        committed = 0;
+        log.reset();
+        stack.clear();
+        error_call_stack = null;
+        if (call_stack != null) call_stack.clear();
+        if (trace_timings != null) trace_timings.clear();
+
+        state_data.values().removeIf(data ->
+            !(data instanceof Memoizer && ((Memoizer) data).clear()));
+        parse_states.removeIf(state -> !state_data.containsKey(state.key));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * @see Autumn#parse
      */
     static ParseResult run (Parser parser, String string, List<?> list, ParseOptions options)
     {
         if (options.well_formedness_check)
-        {
-            WellFormednessChecker checker = new WellFormednessChecker();
+            check_well_formedness(parser);
+
+        return new Parse(string, list, options).execute(parser, false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
 
-            if (!checker.well_formed(parser))
-            {
-                StringBuilder b = new StringBuilder();
+    /**
+     * Throws a {@link MalformedGrammarError} if the grammar rooted at {@code parser} is not
+     * well-formed.
+     *
+     * <p>Success is cached in the root parser ({@link Parser#well_formed}), so the grammar must not
+     * be modified after it has been checked.
+     */
+    static void check_well_formedness (Parser parser)
+    {
+        if (parser.well_formed)
+            return;
 
-                for (Parser p: checker.left_recursives)
-                    b   .append("\n- Left-recursive parser cycle detected, passing through parser: ")
-                        .append(p);
+        WellFormednessChecker checker = new WellFormednessChecker();
 
-                for (Parser p: checker.nullable_repetitions)
-                    b   .append("\n- Nullable repetition detected: ")
-                        .append(p);
+        if (!checker.well_formed(parser))
+        {
+            StringBuilder b = new StringBuilder();
 
-                throw new MalformedGrammarError(b.toString(), checker);
-            }
+            for (Parser p: checker.left_recursives)
+                b   .append("\n- Left-recursive parser cycle detected, passing through parser: ")
+                    .append(p);
+
+            for (Parser p: checker.nullable_repetitions)
+                b   .append("\n- Nullable repetition detected: ")
+                    .append(p);
+
+            throw new MalformedGrammarError(b.toString(), checker);
         }
 
-        Parse parse = new Parse(string, list, options);
+        parser.well_formed = true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Constructs a new parse, to be reset and used by a {@link ParseSession}. Its input is
+     * initially empty.
+     */
+    static Parse for_session (ParseOptions options) {
+        return new Parse("", null, options);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the given parser on this parse and returns the result.
+     *
+     * <p>If {@code detach} is true, the value stack, the state data map and the call stack are
+     * copied into the result, so that the result remains valid when the parse is reset.
+     */
+    ParseResult execute (Parser parser, boolean detach)
+    {
+        Parse parse = this;
         Throwable thrown = null;
         boolean success = false;
+        boolean violation = false;
         try { success = parser.parse(parse); }
+        catch (CommitViolation e) { violation = true; }
         catch (StackOverflowError e) { throw e; } // (1)
         catch (Throwable t) { thrown = t; }
         finally {
@@ -229,9 +347,17 @@ public final class Parse
                     ? thrown.getMessage()
                     : parse.error_message;
 
+        // the stack was left as it was when the violation occurred, possibly half-built
+        ArrayStack<Object> stack
+            = violation
+                ? new ArrayStack<>()
+                : detach
+                    ? new ArrayStack<>(parse.stack.toArray())
+                    : parse.stack;
+
         ParserCallStack error_call_stack
             = thrown != null
-                ? parse.call_stack
+                ? detach && parse.call_stack != null ? parse.call_stack.clone() : parse.call_stack
                 : full_match
                     ? null
                     : parse.error_call_stack;
@@ -240,13 +366,14 @@ public final class Parse
             success,
             full_match,
             match_size,
+            violation,
             thrown,
             parser,
-            options,
+            parse.options,
             error_position,
             error_message,
-            parse.stack,
-            parse.state_data,
+            stack,
+            detach ? new HashMap<>(parse.state_data) : parse.state_data,
             error_call_stack,
             parse.parse_metrics);
     }
@@ -280,6 +407,57 @@ public final class Parse
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Commits the parse to the current input position: the parse will never backtrack before this
+     * position. If a parser that started before this position fails, or if side effects applied
+     * before the commit are rolled back, the whole parse fails.
+     *
+     * <p>This discards the side effects currently in the {@link #log} (along with their undo
+     * information), and notifies all memoizers registered as parse states (cf. {@link
+     * Memoizer#commit(int)}). Only {@link WindowMemoTable} memoizers evict the results that start
+     * before the current position: the memory used by other memoizers is not reclaimed.
+     *
+     * <p>Usually invoked through a {@link Commit} parser.
+     */
+    public void commit()
+    {
+        committed = pos;
+        log.commit();
+
+        for (ParseState<?> state: parse_states) {
+            Object data = state_data.get(state.key);
+            if (data instanceof Memoizer)
+                ((Memoizer) data).commit(pos);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the position up to which the parse has been committed (cf. {@link #commit()}), or 0
+     * if the parse was never committed.
+     */
+    public int committed() {
+        return committed;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Makes the parse fail (by throwing a control-flow exception) if {@code pos0} lies before the
+     * committed position (cf. {@link #commit()}).
+     *
+     * <p>Only for parser implementations that replicate the bookkeeping of {@link Parser#parse}
+     * (e.g. compiled parsers), to be called when a parser that started at {@code pos0} fails.
+     */
+    public void check_backtrack (int pos0)
+    {
+        if (pos0 < committed)
+            throw CommitViolation.INSTANCE;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * A generic method returning the size of the input that abstracts over whether this parse
      * is over a string or a list. Not affected by {@link #end_of_input}.
@@ -7,7 +7,9 @@ import java.util.Map;
  * A set of per-parser performance metrics ({@link ParserMetrics}), which are collected
  * when a parse is running in tracing mode ({@link ParseOptions#TRACE}).
  *
- * <p>Currently just a wrapper around a {@code Map[Parser, ParserMetrics]}.
+ * <p>Essentially a wrapper around a {@code Map[Parser, ParserMetrics]}. The metrics of parsers
+ * belonging to a {@link FrozenGrammar} are also indexed by parser id, so that they can be
+ * retrieved without hashing.
  */
 public final class ParseMetrics
 {
@@ -16,4 +18,36 @@ public final class ParseMetrics
     public final Map<Parser, ParserMetrics> metrics = new HashMap<>();
 
     // ---------------------------------------------------------------------------------------------
+
+    /** The grammar of the first frozen parser whose metrics were requested, if any. */
+    private FrozenGrammar grammar;
+
+    /** Metrics indexed by parser id, for the parsers of {@link #grammar}. */
+    private ParserMetrics[] by_id;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the metrics for the given parser, creating them if required.
+     */
+    public ParserMetrics get (Parser parser)
+    {
+        if (grammar == null && parser.grammar() != null) {
+            grammar = parser.grammar();
+            by_id = new ParserMetrics[grammar.size()];
+        }
+
+        if (grammar == null || parser.grammar() != grammar)
+            return metrics.computeIfAbsent(parser, ParserMetrics::new);
+
+        ParserMetrics result = by_id[parser.id()];
+        if (result == null) {
+            result = new ParserMetrics(parser);
+            by_id[parser.id()] = result;
+            metrics.put(parser, result);
+        }
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
 }
@@ -23,8 +23,8 @@ import static norswap.utils.Util.cast;
  * <p>The canonical documentation for an option is the field through which it is accessible in
  * {@link ParseOptions}.
  *
- * <p>It is advised to disable {@link #well_formedness_check} in production to avoid its overhead.
- * This is a static check intended to catch problems while constructing a grammar.
+ * <p>{@link #well_formedness_check} is a static check intended to catch problems while constructing
+ * a grammar. Its result is cached per root parser, so it only walks a given grammar once.
  *
  * <hr>
  *
@@ -72,6 +72,9 @@ public final class ParseOptions
      * Indicates if Autumn should check that the grammar is well-formed (i.e. does not exhibit
      * unprotected left-recursion nor repetition over nullable parsers) before starting the parse.
      *
+     * <p>Successful checks are cached in the root parser (without locking), so that a grammar is
+     * only checked on its first parse. Hence, the grammar must not be modified after that parse.
+     *
      * <p>True by default.
      */
     public final boolean well_formedness_check;
@@ -39,6 +39,14 @@ public final class ParseResult
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Whether the parse failed because a parser tried to backtrack past the committed position
+     * (cf. {@link Parse#commit()}). The furthest error is still reported as usual.
+     */
+    public final boolean commit_violated;
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Exception (really, Throwable) that caused the parse to terminate, or null othwerwise.
      */
@@ -70,9 +78,9 @@ public final class ParseResult
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * If the parse ended with an exception, the message for the exception; otherwise
-     * the message associated with the furthest error (cf. {@link #error_position}, if any.
-     * May be null if no message was defined or the parse is a full match.
+     * If the parse ended with an exception, the message for the exception; otherwise the message
+     * associated with the furthest error (cf. {@link #error_position}, if any. May be null if no
+     * message was defined or the parse is a full match.
      */
     public final String error_message;
 
@@ -80,6 +88,8 @@ public final class ParseResult
 
     /**
      * The final state of the parse value stack if the parse was successful, null otherwise.
+     * Empty if the parse failed by backtracking past the committed position ({@link
+     * #commit_violated}).
      */
     public final ArrayStack<?> value_stack;
 
@@ -133,6 +143,7 @@ public final class ParseResult
         boolean success,
         boolean full_match,
         int match_size,
+        boolean commit_violated,
         Throwable thrown,
         Parser parser,
         ParseOptions options,
@@ -146,6 +157,7 @@ public final class ParseResult
         this.success = success;
         this.full_match = full_match;
         this.match_size = match_size;
+        this.commit_violated = commit_violated;
         this.thrown = thrown;
         this.parser = parser;
         this.options = options;
@@ -220,6 +232,8 @@ public final class ParseResult
             b   .append("Parse succeeded, consuming up to ")
                 .append(LineMap.string(map, match_size))
                 .append(".\n");
+        else if (commit_violated)
+            b   .append("Parse failed, backtracking past a committed position.\n");
         else
             b   .append("Parse failed.\n");
 
@@ -0,0 +1,113 @@
+package norswap.autumn;
+
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A parse session runs a given parser with given parse options on successive inputs, reusing the
+ * same {@link Parse} object for every parse in order to amortize its allocation.
+ *
+ * <p>Before every parse, the parse object is reset: its log, value stack, call stack and trace
+ * buffers are emptied but keep their allocated storage. Parse state data that are {@link
+ * norswap.autumn.memo.Memoizer memoizers} supporting {@link norswap.autumn.memo.Memoizer#clear()}
+ * (all built-in memoizers do) are cleared and reused, while other parse state data is discarded and
+ * re-initialized on demand.
+ *
+ * <p>The returned {@link ParseResult} objects remain valid after subsequent parses, with one
+ * exception: the memoizers included in {@link ParseResult#parse_states} are cleared by the next
+ * parse. If tracing is enabled, {@link ParseOptions#metrics} is only called once per session, and
+ * metrics accumulate across the parses of the session.
+ *
+ * <p>The well-formedness check ({@link ParseOptions#well_formedness_check}) is performed once,
+ * when creating the session.
+ *
+ * <p>Sessions are not thread-safe: use one session per thread (multiple sessions can share the
+ * same parser, cf. {@link Autumn}).
+ */
+public final class ParseSession
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The parser run by this session.
+     */
+    public final Parser parser;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The options used by the parses of this session.
+     */
+    public final ParseOptions options;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final Parse parse;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a new session, performing the well-formedness check on {@code parser} if required
+     * by the options.
+     *
+     * <p>Use {@code ParseOptions.get()} to get a default set of options.
+     */
+    public ParseSession (Parser parser, ParseOptions options) {
+        this(parser, options, requireNonNull(options, "Parse options cannot be null.")
+            .well_formedness_check);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a new session, performing the well-formedness check on {@code parser} iff
+     * {@code check} is true.
+     */
+    ParseSession (Parser parser, ParseOptions options, boolean check)
+    {
+        requireNonNull(parser,  "Parser cannot be null.");
+        requireNonNull(options, "Parse options cannot be null.");
+        if (check) Parse.check_well_formedness(parser);
+        this.parser = parser;
+        this.options = options;
+        this.parse = Parse.for_session(options);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses {@code string} with this session's parser and options.
+     */
+    public ParseResult parse (String string)
+    {
+        requireNonNull(string, "Input string cannot be null.");
+        parse.reset(string, null);
+        return execute();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses {@code list} with this session's parser and options.
+     */
+    public ParseResult parse (List<?> list)
+    {
+        requireNonNull(list, "Input list cannot be null.");
+        parse.reset(null, list);
+        return execute();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ParseResult execute()
+    {
+        try {
+            return parse.execute(parser, true);
+        } catch (StackOverflowError e) {
+            throw new Autumn.PotentiallyMalformedGrammarError(e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
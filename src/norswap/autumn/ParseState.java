@@ -1,5 +1,6 @@
 package norswap.autumn;
 
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 
 import static norswap.utils.Util.cast;
@@ -32,13 +33,13 @@ import static norswap.utils.Util.cast;
  * in the {@link Parse} object is necessary because parsers are not tied to a particular parse and
  * can be reused.
  *
- * <p>This class caches a (parse, thread) pair. It's possible for multiple parse on different
- * threads to use this kind of parse state (with different instances of {@link Data} and {@link
- * Parse}!), but this class will cache the state of a single thread, while the other thread will
- * fall back on querying {@link Parse#state_data} on access. The cached thread is selected
+ * <p>This class caches the data of a single parse. It is safe for multiple parses on different
+ * threads to use this kind of parse state concurrently (with different instances of {@link Data}
+ * and {@link Parse}!): the cache is owned by a single parse at any time, while the other parses
+ * fall back on querying {@link Parse#state_data} on access. The owning parse is selected
  * non-deterministically (it's a race). After the parse that owns the cache completes, the cache is
- * evicted, enabling other threads, or another parse on the same thread, to take ownership of the
- * cache.
+ * evicted, enabling another parse (on any thread) to take ownership of the cache. Taking and
+ * releasing ownership is done via compare-and-swap, without locking.
  *
  * <p>If for performance reasons you really require parse state caching for every thread, give each
  * thread his own copy of the parser.
@@ -60,7 +61,7 @@ public class ParseState<Data>
 
     // ---------------------------------------------------------------------------------------------
 
-    private Cached cached;
+    private final AtomicReference<Cached> cached = new AtomicReference<>();
 
     // ---------------------------------------------------------------------------------------------
 
@@ -109,13 +110,15 @@ public class ParseState<Data>
      */
     public Data data (Parse parse)
     {
-        // There are race conditions on cached, but ultimately a single cache entry will
-        // prevail, with other threads forced to the slow path. The semantics of the function
-        // is preserved during races.
+        Cached c = cached.get();
+
+        if (c == null) {
+            // If another parse wins the race, the data is still valid for our own parse.
+            c = new Cached(parse);
+            cached.compareAndSet(null, c);
+            return c.data;
+        }
 
-        Cached c = cached;
-        if (c == null)
-            cached = c = new Cached(parse);
         return c.parse == parse
             ? c.data
             : get_or_init_data(parse); // slow path
@@ -124,13 +127,14 @@ public class ParseState<Data>
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Discard the cached parse state data. Automatically called after a parse in order to enable
-     * another thread to cache his data.
+     * Discard the cached parse state data if owned by the given parse. Automatically called after a
+     * parse in order to enable another parse to cache its data.
      */
     void discard_cache (Parse parse)
     {
-        if (cached != null && cached.parse == parse)
-            cached = null;
+        Cached c = cached.get();
+        if (c != null && c.parse == parse)
+            cached.compareAndSet(c, null);
     }
 
     // ---------------------------------------------------------------------------------------------
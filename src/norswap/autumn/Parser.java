@@ -1,5 +1,15 @@
 package norswap.autumn;
 
+import norswap.autumn.memo.MemoEntry;
+import norswap.autumn.memo.MemoPlan;
+import norswap.autumn.memo.Memoizer;
+import norswap.autumn.parsers.AbstractChoice;
+import norswap.autumn.parsers.Memo;
+import norswap.autumn.visitors.GuardCompiler;
+import norswap.autumn.visitors.VisitorFirstChars;
+import java.util.ArrayList;
+import java.util.BitSet;
+
 /**
  * The parent class for all parsers.
  *
@@ -49,6 +59,85 @@ public abstract class Parser
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * The characters on which this parser may succeed, as two ASCII bitmaps and a flag for all
+     * non-ASCII characters (cf. {@link VisitorFirstChars#admissible(Parser)}). Only meaningful if
+     * {@link #guarded} is set.
+     */
+    private long guard_low, guard_high;
+    private boolean guard_non_ascii;
+    private boolean guarded;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private FrozenGrammar grammar;
+    private int id = -1;
+    private Parser[] child_array;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Set once the grammar rooted at this parser has passed the well-formedness check (cf. {@link
+     * ParseOptions#well_formedness_check}), so that it is only checked once. Volatile, so that
+     * concurrent parses read it without locking.
+     */
+    volatile boolean well_formed;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** See {@link #set_memoizer(ParseState)}. */
+    private ParseState<Memoizer> memoizer;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the frozen grammar this parser belongs to, or null if it hasn't been frozen (cf.
+     * {@link FrozenGrammar#freeze(Parser...)}).
+     */
+    public final FrozenGrammar grammar() {
+        return grammar;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the id of this parser within its {@link #grammar()}, or -1 if it hasn't been frozen.
+     */
+    public final int id() {
+        return id;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the children of this parser (cf. {@link #children()}) as an array. The array is
+     * computed once when the parser is frozen, and must not be modified. Otherwise, a new array is
+     * returned on each call.
+     */
+    public final Parser[] child_array()
+    {
+        if (child_array != null)
+            return child_array;
+
+        ArrayList<Parser> list = new ArrayList<>();
+        children().forEach(list::add);
+        return list.toArray(new Parser[0]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Called by {@link FrozenGrammar#freeze(Parser...)}.
+     */
+    void freeze (FrozenGrammar grammar, int id, Parser[] children)
+    {
+        this.grammar = grammar;
+        this.id = id;
+        this.child_array = children;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * The name of the rule this parser is assigned to, if any, or null.
      */
@@ -105,6 +194,25 @@ public abstract class Parser
             return tracing_parse(parse);
 
         int pos0 = parse.pos;
+
+        // the call stack would differ if the parser was skipped
+        if (guarded && parse.string != null && !parse.options.record_call_stack
+                && !admits(parse.char_at(pos0)))
+            return reject(parse, pos0);
+
+        return memoizer == null
+            ? plain_parse(parse, pos0)
+            : memo_parse(parse, pos0);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Implementation of {@link #parse(Parse)}, once the guard has been checked, for parsers
+     * without a memoizer.
+     */
+    private boolean plain_parse (Parse parse, int pos0)
+    {
         int log0 = parse.log.size();
         int err0 = parse.error;
         String errmsg0 = parse.error_message;
@@ -113,8 +221,15 @@ public abstract class Parser
         if (parse.options.record_call_stack)
             parse.call_stack.push(this, pos0);
 
+        // a cut doesn't escape an alternation (Choice and Longest handle this in doparse)
+        boolean alternation = this instanceof AbstractChoice;
+        boolean cut0 = parse.cut;
+        if (alternation) parse.cut = false;
+
         boolean result = doparse(parse);
 
+        if (alternation) parse.cut = cut0;
+
         if (exclude_errors) {
             parse.error = err0;
             parse.error_message = errmsg0;
@@ -136,6 +251,9 @@ public abstract class Parser
                 parse.error_call_stack = parse.call_stack.clone();
         }
 
+        if (pos0 < parse.committed)
+            throw Parse.CommitViolation.INSTANCE;
+
         if (parse.options.record_call_stack)
             parse.call_stack.pop();
 
@@ -149,6 +267,142 @@ public abstract class Parser
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Implementation of {@link #parse(Parse)}, once the guard has been checked, for parsers with a
+     * memoizer. Behaves like a {@link Memo} parser wrapping this parser.
+     */
+    private boolean memo_parse (Parse parse, int pos0)
+    {
+        Memoizer memo = memoizer.data(parse);
+        MemoEntry entry = memo.get(this, pos0, null);
+
+        if (entry != null)
+        {
+            if (!entry.succeeded())
+                return reject(parse, pos0);
+
+            parse.pos = entry.end_position;
+            parse.log.apply(entry.delta);
+            return true;
+        }
+
+        int log0 = parse.log.size();
+        boolean cut0 = parse.cut;
+        parse.cut = false;
+        boolean success = plain_parse(parse, pos0);
+
+        // entries don't record cuts, so results that cut the enclosing choice can't be replayed
+        if (!parse.cut)
+            memo.memoize(new MemoEntry(
+                success, this, pos0, parse.pos, success ? parse.log.delta(log0) : null, null));
+
+        parse.cut |= cut0;
+        return success;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Memoizes the results of this parser in the memoizer designated by {@code memoizer}, as
+     * though the parser was wrapped in a {@link Memo} parser, but without having to modify the
+     * parsers that refer to it. Pass null to disable memoization.
+     *
+     * <p>Memoized results are not context-sensitive: only use this if the results of the parser do
+     * not depend on the parse state. Memoization is bypassed in tracing mode ({@link
+     * ParseOptions#trace}), so that the metrics reflect the grammar as written.
+     *
+     * <p>This modifies the parser in place, affecting every grammar that shares it, and must not
+     * be called while it is in use by a parse. The memoizer is kept by copies of the parser (cf.
+     * {@link norswap.autumn.visitors.CopyVisitor}) and by the compiled parsers of the {@link
+     * norswap.autumn.compiler} package.
+     *
+     * <p>Usually installed by a {@link MemoPlan}.
+     */
+    public void set_memoizer (ParseState<Memoizer> memoizer) {
+        this.memoizer = memoizer;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the memoizer installed by {@link #set_memoizer(ParseState)}, or null.
+     */
+    public ParseState<Memoizer> memoizer() {
+        return memoizer;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private boolean admits (char c)
+    {
+        return c < 64  ? (guard_low  & 1L << c) != 0
+             : c < 128 ? (guard_high & 1L << c) != 0
+             : guard_non_ascii;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Fails the parse in the same way as {@link #parse(Parse)} would for a parser that fails
+     * without consuming input nor recording errors past its initial position.
+     */
+    private boolean reject (Parse parse, int pos0)
+    {
+        if (!exclude_errors && parse.error <= pos0) {
+            parse.error = pos0;
+            parse.error_message = null;
+        }
+
+        if (pos0 < parse.committed)
+            throw Parse.CommitViolation.INSTANCE;
+
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Compiles a first-character guard for this parser, using the given visitor to determine the
+     * characters on which it may succeed. Returns false (and doesn't install a guard) if the parser
+     * may succeed on any character, e.g. because it is nullable.
+     *
+     * <p>When invoked on a string input, a guarded parser fails immediately if the character at the
+     * current input position is outside its admissible set, with the same result (including {@link
+     * Parse#error}) as if {@link #doparse(Parse)} had been called. The guard is not used when
+     * recording call stacks.
+     *
+     * <p>The grammar must not be modified after the guard is compiled. Also see {@link
+     * GuardCompiler}.
+     */
+    public boolean compile_guard (VisitorFirstChars visitor)
+    {
+        BitSet admissible = visitor.admissible(this);
+        guarded = admissible.cardinality() < VisitorFirstChars.SIZE;
+        if (!guarded)
+            return false;
+
+        guard_low = guard_high = 0;
+        for (int c = admissible.nextSetBit(0); c >= 0; c = admissible.nextSetBit(c + 1))
+            if (c < 64)
+                guard_low |= 1L << c;
+            else if (c < VisitorFirstChars.NON_ASCII)
+                guard_high |= 1L << c;
+
+        guard_non_ascii = admissible.get(VisitorFirstChars.NON_ASCII);
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether a guard was installed by {@link #compile_guard(VisitorFirstChars)}.
+     */
+    public boolean guarded() {
+        return guarded;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Implementation of {@link #parse(Parse)} for the tracing case. See {@link ParseOptions#trace}
      * for more info.
@@ -158,9 +412,8 @@ public abstract class Parser
         long time0 = System.nanoTime();
 
         int trace0 = parse.trace_timings.size();
-        ParserMetrics metrics
-            = parse.parse_metrics.metrics.computeIfAbsent(this, k -> new ParserMetrics(this));
-        ++ metrics.invocations;
+        ParserMetrics metrics = parse.parse_metrics.get(this);
+        metrics.record_invocation(parse.pos);
         ++ metrics.recursive_invocations;
 
         long time1 = System.nanoTime();
@@ -173,8 +426,14 @@ public abstract class Parser
         if (parse.options.record_call_stack)
             parse.call_stack.push(this, pos0);
 
+        boolean alternation = this instanceof AbstractChoice;
+        boolean cut0 = parse.cut;
+        if (alternation) parse.cut = false;
+
         boolean result = doparse(parse);
 
+        if (alternation) parse.cut = cut0;
+
         if (exclude_errors) {
             parse.error = err0;
             parse.error_call_stack = stk0;
@@ -191,6 +450,9 @@ public abstract class Parser
                     parse.error_call_stack = parse.call_stack.clone();
             }
 
+            if (pos0 < parse.committed)
+                throw Parse.CommitViolation.INSTANCE;
+
             if (parse.options.record_call_stack)
                 parse.call_stack.pop();
 
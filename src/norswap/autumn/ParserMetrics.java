@@ -1,6 +1,7 @@
 package norswap.autumn;
 
 import java.time.Duration;
+import java.util.BitSet;
 
 /**
  * A set of performance metrics linked to a parser, produced in tracing mode ({@link
@@ -52,18 +53,95 @@ public final class ParserMetrics
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Number of invocations of the parser at an input position where it had already been invoked
+     * during the parse. These are the invocations that memoization could save.
+     */
+    public int reinvocations = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The number of recent positions tracked in order to compute {@link #reinvocations_by_recency}.
+     */
+    public static final int RECENT = 32;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Histogram of the {@link #reinvocations}: the i-th entry counts the reinvocations at the
+     * (i+1)-th most recent distinct position at which the parser was invoked. Reinvocations at less
+     * recent positions are not counted.
+     *
+     * <p>This approximates the number of reinvocations that would be served by a {@link
+     * norswap.autumn.memo.MemoCache} of a given size.
+     */
+    public final int[] reinvocations_by_recency = new int[RECENT];
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** The positions at which the parser was invoked. */
+    private final BitSet positions = new BitSet();
+
+    /** The {@link #RECENT} most recent distinct positions, most recent first. */
+    private final int[] recent = new int[RECENT];
+
+    private int recent_size = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
     public ParserMetrics (Parser parser) {
         this.parser = parser;
     }
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Records an invocation of the parser at the given position, updating {@link #invocations},
+     * {@link #reinvocations} and {@link #reinvocations_by_recency}.
+     */
+    void record_invocation (int pos)
+    {
+        ++ invocations;
+
+        if (!positions.get(pos)) {
+            positions.set(pos);
+            bump(recent_size < RECENT ? recent_size++ : RECENT - 1, pos);
+            return;
+        }
+
+        ++ reinvocations;
+
+        for (int i = 0; i < recent_size; ++i)
+            if (recent[i] == pos) {
+                ++ reinvocations_by_recency[i];
+                bump(i, pos);
+                return;
+            }
+
+        bump(recent_size - 1, pos);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Moves {@code pos} to the front of {@link #recent}, overwriting the entry at index {@code i}.
+     */
+    private void bump (int i, int pos)
+    {
+        System.arraycopy(recent, 0, recent, 1, i);
+        recent[0] = pos;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     @Override public String toString () {
         return "ParserMetrics{" +
             "parser: " + parser +
             ", self: "  + Duration.ofNanos(self_time) +
             ", total: " + Duration.ofNanos(total_time) +
             ", invocs:" + String.format("%,d", invocations) +
+            ", reinvocs:" + String.format("%,d", reinvocations) +
             '}';
     }
 
@@ -2,7 +2,7 @@ package norswap.autumn;
 
 import norswap.autumn.parsers.*;
 import norswap.autumn.visitors.WellFormednessChecker;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
 
 /**
@@ -185,8 +185,8 @@ public interface ParserVisitor
      */
     final class HashOverloads extends Overloads
     {
-        private final HashMap<Class<? extends Parser>, BiConsumer<Parser, ParserVisitor>> map
-            = new HashMap<>();
+        private final ConcurrentHashMap<Class<? extends Parser>, BiConsumer<Parser, ParserVisitor>>
+            map = new ConcurrentHashMap<>();
 
         /** See {@link Overloads#Overloads(Class)} */
         public HashOverloads (Class<? extends ParserVisitor> vclass) {
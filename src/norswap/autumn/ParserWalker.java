@@ -1,5 +1,6 @@
 package norswap.autumn;
 
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 
@@ -19,6 +20,9 @@ import java.util.LinkedHashSet;
  *
  * <p>If you need to specialize what the work method does to specific kind of parsers, consider
  * using a {@link ParserVisitor}.
+ *
+ * <p>Walks over a {@link FrozenGrammar} use the frozen children arrays, and track visited parsers
+ * by id rather than in a hash set.
  */
 public abstract class ParserWalker
 {
@@ -40,6 +44,18 @@ public abstract class ParserWalker
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * The frozen grammar of the first frozen parser encountered, if any. Parsers from this grammar
+     * are tracked in {@link #visited_ids} instead of {@link #visited}.
+     */
+    private FrozenGrammar grammar;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private BitSet visited_ids;
+
+    // ---------------------------------------------------------------------------------------------
+
     private LinkedHashSet<Parser> stack = new LinkedHashSet<>();
 
     // ---------------------------------------------------------------------------------------------
@@ -54,15 +70,20 @@ public abstract class ParserWalker
             return;
         }
 
-        if (!visited.add(parser)) {
+        if (!mark_visited(parser)) {
             work(parser, State.VISITED);
+            stack.remove(parser);
             return;
         }
 
         work(parser, State.BEFORE);
 
-        for (Parser child: parser.children())
-            walk(child);
+        if (parser.grammar() != null)
+            for (Parser child: parser.child_array())
+                walk(child);
+        else
+            for (Parser child: parser.children())
+                walk(child);
 
         work(parser, State.AFTER);
         stack.remove(parser);
@@ -73,8 +94,33 @@ public abstract class ParserWalker
     /**
      * Whether the indicated parser has been visited yet.
      */
-    public boolean visited (Parser parser) {
-        return visited.contains(parser);
+    public boolean visited (Parser parser)
+    {
+        return grammar != null && parser.grammar() == grammar
+            ? visited_ids.get(parser.id())
+            : visited.contains(parser);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Marks the parser as visited, and returns true if it wasn't visited before.
+     */
+    private boolean mark_visited (Parser parser)
+    {
+        if (grammar == null && parser.grammar() != null) {
+            grammar = parser.grammar();
+            visited_ids = new BitSet(grammar.size());
+        }
+
+        if (grammar == null || parser.grammar() != grammar)
+            return visited.add(parser);
+
+        int id = parser.id();
+        if (visited_ids.get(id))
+            return false;
+        visited_ids.set(id);
+        return true;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -55,7 +55,7 @@ public interface SideEffect
         public final SideEffect effect;
         public final Runnable undo;
 
-        private Applied (SideEffect effect, Runnable undo) {
+        Applied (SideEffect effect, Runnable undo) {
             this.effect = effect;
             this.undo = undo;
         }
@@ -1,7 +1,6 @@
 package norswap.autumn;
 
 import norswap.autumn.util.ArrayStack;
-import norswap.utils.Slot;
 import java.util.ArrayList;
 import java.util.function.IntFunction;
 
@@ -19,9 +18,10 @@ import java.util.function.IntFunction;
  * <p>The stack should only be mutated through these operations, or it won't be safe
  * to use during a parser!
  *
- * <p>A <i>side-effecting</i> operation is one where a {@link SideEffect.Applied} is pushed onto {@link
- * Parse#log} to represent a state mutation, enabling it to be undone in case of parser
- * backtracking.
+ * <p>A <i>side-effecting</i> operation is one that is recorded in {@link Parse#log} to represent a
+ * state mutation, enabling it to be undone in case of parser backtracking. These operations are
+ * recorded directly in the log's journal: they do not allocate any {@link SideEffect} or undo
+ * function. They still appear as regular side effects in {@link Log#delta}.
  *
  * <p>Norswap's note: in the long run it would be good if we overrode every single mutating method
  * of {@link ArrayStack} and {@link ArrayList} and made them side-effecting. For now, it will have
@@ -46,10 +46,8 @@ public final class SideEffectingArrayStack extends ArrayStack<Object>
      */
     @Override public void push (Object item)
     {
-        log.apply(() -> {
-            super.push(item);
-            return super::pop;
-        });
+        super.push(item);
+        log.record_push(this, item);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -59,11 +57,8 @@ public final class SideEffectingArrayStack extends ArrayStack<Object>
      */
     @Override public Object pop()
     {
-        Object out = super.peek();
-        log.apply(() -> {
-            Object x = super.pop();
-            return () -> super.push(x);
-        });
+        Object out = super.pop();
+        log.record_pop(this, out);
         return out;
     }
 
@@ -74,13 +69,9 @@ public final class SideEffectingArrayStack extends ArrayStack<Object>
      */
     public Object[] pop (int amount)
     {
-        Slot<Object[]> slot = new Slot<>();
-        log.apply(() -> {
-            Object[] x = super.pop(amount, Object[]::new);
-            slot.x = x; // useless after first application
-            return () -> super.push(x);
-        });
-        return slot.x;
+        Object[] out = super.pop(amount, Object[]::new);
+        log.record_pop(this, out);
+        return out;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -97,4 +88,41 @@ public final class SideEffectingArrayStack extends ArrayStack<Object>
     }
 
     // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Non-side-effecting push, used by {@link Log} to apply and undo operations.
+     */
+    void raw_push (Object item) {
+        super.push(item);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Non-side-effecting push of all items, in order, used by {@link Log} to apply and undo
+     * operations.
+     */
+    void raw_push (Object[] items) {
+        super.push(items);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Non-side-effecting pop, used by {@link Log} to apply and undo operations.
+     */
+    Object raw_pop() {
+        return super.pop();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Non-side-effecting multi-item pop, used by {@link Log} to apply and undo operations.
+     */
+    Object[] raw_pop (int amount) {
+        return super.pop(amount, Object[]::new);
+    }
+
+    // ---------------------------------------------------------------------------------------------
 }
@@ -0,0 +1,65 @@
+package norswap.autumn;
+
+/**
+ * A {@link SideEffect} representing an operation on a {@link SideEffectingArrayStack}.
+ *
+ * <p>Instances of this class are only created when a side effect object is required (e.g. by
+ * {@link Log#delta}). When a stack operation is performed, or when an instance of this class is
+ * applied via {@link Log#apply(SideEffect)}, the log records it directly in its journal, without
+ * allocating any object.
+ */
+final class StackEffect implements SideEffect
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** One of {@link Log#PUSH}, {@link Log#POP} or {@link Log#POP_N}. */
+    final byte kind;
+
+    /** The stack the operation applies to. */
+    final SideEffectingArrayStack stack;
+
+    /**
+     * The pushed item for {@link Log#PUSH}, or the number of items to pop (as an {@link Integer})
+     * for {@link Log#POP_N}. Unused for {@link Log#POP}.
+     */
+    final Object payload;
+
+    // ---------------------------------------------------------------------------------------------
+
+    StackEffect (byte kind, SideEffectingArrayStack stack, Object payload)
+    {
+        this.kind = kind;
+        this.stack = stack;
+        this.payload = payload;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public Runnable __apply()
+    {
+        switch (kind) {
+            case Log.PUSH:
+                stack.raw_push(payload);
+                return stack::raw_pop;
+            case Log.POP:
+                Object x = stack.raw_pop();
+                return () -> stack.raw_push(x);
+            default:
+                Object[] xs = stack.raw_pop((Integer) payload);
+                return () -> stack.raw_push(xs);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString()
+    {
+        switch (kind) {
+            case Log.PUSH:  return "push(" + payload + ")";
+            case Log.POP:   return "pop";
+            default:        return "pop(" + payload + ")";
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
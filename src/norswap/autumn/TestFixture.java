@@ -19,6 +19,9 @@ import java.util.List;
  *
  * <p>You can specify the options for these parses by setting {@link #options}.
  *
+ * <p>To check that two parsers behave identically (e.g. a parser and its compiled or optimized
+ * version), use {@link #assert_same_results(Parser, Parser, String...)}.
+ *
  * <p>Also see the fields' documentation for more options, and the documentation of the parent class
  * {@link norswap.autumn.util.TestFixture}.
  *
@@ -384,4 +387,61 @@ public class TestFixture extends norswap.autumn.util.TestFixture
     }
 
     // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a single-line summary of the outcome of a parse: success, full match, match size,
+     * commit violation, error position and message, value stack and thrown exception.
+     */
+    private static String outcome (ParseResult r)
+    {
+        return "success: " + r.success + ", full match: " + r.full_match
+            + ", match size: " + r.match_size + ", commit violated: " + r.commit_violated
+            + ", error position: " + r.error_position
+            + ", error message: " + r.error_message + ", value stack: " + r.value_stack
+            + (r.thrown == null ? "" : ", thrown: " + r.thrown);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Asserts that two parses of the given input have the same outcome: same success, match size,
+     * commit violation, error position and message, value stack, and thrown exception (if any).
+     */
+    public void assert_same_result
+        (String input, ParseResult expected, ParseResult actual, int peel)
+    {
+        assert_equals(outcome(actual), outcome(expected), peel + 1,
+            () -> "Parses of \"" + input + "\" have different outcomes.");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Asserts that the parsers {@code a} and {@code b} have the same outcome (cf. {@link
+     * #assert_same_result}) on each of the given inputs, when run with the given options ({@link
+     * ParseOptions#get()} if null).
+     *
+     * <p>Use this to check that a transformation of a parser (compilation, optimization, ...)
+     * preserves its behaviour.
+     */
+    public void assert_same_results
+        (Parser a, Parser b, ParseOptions options, int peel, String... inputs)
+    {
+        ParseOptions opts = options != null ? options : ParseOptions.get();
+        for (String input: inputs)
+            assert_same_result(input,
+                Autumn.parse(a, input, opts), Autumn.parse(b, input, opts), peel + 1);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Asserts that the parsers {@code a} and {@code b} have the same outcome (cf. {@link
+     * #assert_same_result}) on each of the given inputs, when run with {@link ParseOptions#get()}.
+     */
+    public void assert_same_results (Parser a, Parser b, String... inputs) {
+        assert_same_results(a, b, null, 1, inputs);
+    }
+
+    // ---------------------------------------------------------------------------------------------
 }
@@ -1,8 +1,7 @@
 package norswap.autumn;
 
 import norswap.autumn.ParserVisitor.Overloads;
-import norswap.utils.Pair;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
 
 import static norswap.utils.Util.cast;
@@ -17,11 +16,9 @@ final class VisitorExtensions
 
     // Types are under-specified, but this is all private.
 
-    /** Maps visitor classes to overloads. */
-    HashMap<Class<? extends ParserVisitor>, Overloads> store = new HashMap<>();
-
-    /** Caches the last retrieved set of overloads. */
-    Pair<Class<? extends ParserVisitor>, Overloads> cached = new Pair<>(null, null);
+    /** Maps visitor classes to overloads. Written under lock, read without locking. */
+    final ConcurrentHashMap<Class<? extends ParserVisitor>, Overloads> store
+        = new ConcurrentHashMap<>();
 
     // ---------------------------------------------------------------------------------------------
 
@@ -43,20 +40,10 @@ final class VisitorExtensions
      */
     Overloads overloads (Class<? extends ParserVisitor> vclass)
     {
-        // NOTE: The caching logic is thread-safe: no matter which cache entry ends up written, the
-        // state never ends up inconsistent.
-
-        Pair<Class<? extends ParserVisitor>, Overloads> cached = this.cached;
-
-        if (cached.a == vclass)
-            return cached.b;
-
-        Overloads ov = store.get(vclass);
-
-        if (this.cached == null)
-            this.cached = new Pair<>(vclass, ov);
+        // NOTE: No single-entry cache here: it could serve stale overloads if they are replaced
+        // concurrently, and lookups in a concurrent map are lock-free and cheap enough.
 
-        return ov;
+        return store.get(vclass);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -0,0 +1,43 @@
+package norswap.autumn.compiler;
+
+import norswap.autumn.Parse;
+import norswap.autumn.Parser;
+import norswap.autumn.parsers.AbstractWrapper;
+import java.util.function.Predicate;
+
+/**
+ * A parser that runs a compiled version of its child (cf. {@link ParserCompiler}), and returns the
+ * same results.
+ *
+ * <p>When tracing ({@link norswap.autumn.ParseOptions#trace}) or recording call stacks ({@link
+ * norswap.autumn.ParseOptions#record_call_stack}), the child is interpreted instead. Note that
+ * recorded call stacks then include an extra frame for this parser.
+ */
+public final class CompiledParser extends AbstractWrapper
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The compiled code, equivalent to {@code child::parse}.
+     */
+    public final Predicate<Parse> compiled;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public CompiledParser (Parser child, Predicate<Parse> compiled)
+    {
+        super("compiled", child);
+        this.compiled = compiled;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override protected boolean doparse (Parse parse)
+    {
+        return parse.options.trace || parse.options.record_call_stack
+            ? child.parse(parse)
+            : compiled.test(parse);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
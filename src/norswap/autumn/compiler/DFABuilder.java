@@ -0,0 +1,822 @@
+package norswap.autumn.compiler;
+
+import norswap.autumn.Parser;
+import norswap.autumn.parsers.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+/**
+ * Builds the tables of a {@link DFAParser} from a regular parser graph (cf. {@link
+ * #regular(Parser, Map)}).
+ *
+ * <p>A state of the automaton is a <i>continuation</i>: the list of items that remain to be matched
+ * after the input consumed so far. For each state and each character class, the builder simulates
+ * the PEG semantics of the continuation on a representative character of the class, until the
+ * character is consumed (yielding the next state), the continuation is empty (the parse succeeds
+ * before the character) or all alternatives fail.
+ *
+ * <p>Alternatives (choices, optionals and repetitions) are only supported when they can be decided
+ * with the current character: if an alternative consumes the character, but could still fail
+ * afterwards, then the alternative that PEG would try next must not consume the character. Such
+ * pending alternatives are tracked at run time as a stack of positions where the parse may succeed
+ * if all later alternatives fail (or -1, if none).
+ *
+ * <p>Negations of multi-character literals are supported by emitting <i>test nodes</i>, which
+ * branch on a match of the literal at the current position before looking at the character. Test
+ * nodes are also emitted to decide between alternatives that start with multi-character literals
+ * sharing their first character with other alternatives (e.g. {@code "//"} and {@code "/*"}, or a
+ * keyword and an identifier).
+ *
+ * <p>Error positions are computed alongside: each transition records the furthest position at
+ * which a sub-parser failed during the simulation, as an offset back from the current position.
+ */
+final class DFABuilder
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Maximum number of states of an automaton. */
+    static final int MAX_STATES = 512;
+
+    /** Maximum number of simulation steps for a single transition. */
+    private static final int MAX_STEPS = 4096;
+
+    /** Transition target: the parse succeeds at the current position. */
+    static final int EXIT = -1;
+
+    /** Transition target: the parse fails, unless a pending alternative succeeded. */
+    static final int DEAD = -2;
+
+    /** Temporary transition target, before states are assigned. */
+    private static final int CONSUME = -3;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Signals that the graph cannot be compiled. */
+    static final class Unsupported extends RuntimeException
+    {
+        Unsupported (String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Signals that the simulation needs the outcome of a test. */
+    private static final class NeedTest extends RuntimeException
+    {
+        final String string;
+
+        NeedTest (String string) {
+            super(null, null, false, false);
+            this.string = string;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final int NODE = 0, LIT = 1, STAR = 2, ALTS = 3, POP = 4;
+
+    /**
+     * An item of a continuation: a parser to match (NODE), the remainder of a literal from index
+     * {@code index} (LIT), the optional iterations of a repetition (STAR), the alternatives of a
+     * choice from index {@code index} (ALTS) or the end of an alternative (POP).
+     */
+    private static final class Item
+    {
+        final int kind;
+        final Parser parser;
+        final int index;
+        /** Whether the item is nested within a parser that excludes its errors. */
+        final boolean excluded;
+
+        Item (int kind, Parser parser, int index, boolean excluded) {
+            this.kind = kind;
+            this.parser = parser;
+            this.index = index;
+            this.excluded = excluded;
+        }
+
+        @Override public boolean equals (Object o)
+        {
+            if (!(o instanceof Item)) return false;
+            Item that = (Item) o;
+            return kind == that.kind && parser == that.parser
+                && index == that.index && excluded == that.excluded;
+        }
+
+        @Override public int hashCode() {
+            return ((kind * 31 + System.identityHashCode(parser)) * 31 + index) * 2
+                + (excluded ? 1 : 0);
+        }
+    }
+
+    private static final Item POP_ITEM = new Item(POP, null, 0, false);
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** An immutable list of items, null being the empty continuation. */
+    private static final class Cont
+    {
+        final Item head;
+        final Cont tail;
+        final int hash;
+
+        Cont (Item head, Cont tail) {
+            this.head = head;
+            this.tail = tail;
+            this.hash = head.hashCode() * 31 + (tail == null ? 0 : tail.hash);
+        }
+
+        @Override public boolean equals (Object o)
+        {
+            if (!(o instanceof Cont)) return false;
+            Cont a = this, b = (Cont) o;
+            while (a != null && b != null) {
+                if (a == b) return true;
+                if (a.hash != b.hash || !a.head.equals(b.head)) return false;
+                a = a.tail;
+                b = b.tail;
+            }
+            return a == b;
+        }
+
+        @Override public int hashCode() {
+            return hash;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** The result of the simulation of a state on a character. */
+    private static final class Transition
+    {
+        int target;
+        /** Offset back from the current position of the furthest failure, or -1. */
+        int fail = -1;
+        /** Number of popped pending alternatives. */
+        int pops;
+        /** Number of pushed pending alternatives. */
+        int pushes;
+        /** Bit i set if the i-th pushed alternative succeeds at the current position. */
+        int accepts;
+        /** Next continuation, if the target is {@link #CONSUME}. */
+        Cont next;
+        /** Multi-character literal whose first character was consumed, if its test is unknown. */
+        String literal;
+
+        @Override public boolean equals (Object o)
+        {
+            if (!(o instanceof Transition)) return false;
+            Transition that = (Transition) o;
+            return target == that.target && fail == that.fail && pops == that.pops
+                && pushes == that.pushes && accepts == that.accepts;
+        }
+
+        @Override public int hashCode() {
+            return (((target * 31 + fail) * 31 + pops) * 31 + pushes) * 31 + accepts;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final Parser root;
+    private final Map<Parser, Boolean> infallible = new IdentityHashMap<>();
+
+    private final ArrayList<Cont> states = new ArrayList<>();
+    private final HashMap<Cont, Integer> state_ids = new HashMap<>();
+
+    private final ArrayList<Transition> transitions = new ArrayList<>();
+    private final HashMap<Transition, Integer> transition_ids = new HashMap<>();
+
+    private final ArrayList<String> strings = new ArrayList<>();
+
+    /** Representative character of each class. */
+    private char[] representatives;
+
+    // Outputs (cf. DFAParser).
+
+    int classes;
+    int[] ascii_classes;
+    char[] range_starts;
+    int[] range_classes;
+
+    int start;
+    int max_depth;
+    int[] node_tests;
+    int[] node_rows;
+    int[] on_match;
+    int[] on_mismatch;
+    int[] table;
+    int[] targets;
+    int[] fails;
+    int[] pops;
+    int[] pushes;
+    int[] accepts;
+    String[] test_strings;
+
+    // Nodes, while building.
+
+    private final ArrayList<int[]> nodes = new ArrayList<>();
+    private final ArrayList<int[]> rows = new ArrayList<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Builds the automaton for the given parser, which must be regular.
+     *
+     * @throws Unsupported if the parser cannot be compiled.
+     */
+    DFABuilder (Parser root)
+    {
+        this.root = root;
+        partition();
+
+        int start_state = state(new Cont(new Item(NODE, root, 0, false), null));
+        assert start_state == 0;
+
+        int[] state_nodes = new int[MAX_STATES];
+        for (int s = 0; s < states.size(); ++s) {
+            state_nodes[s] = build(states.get(s), Collections.emptyMap());
+            max_depth = Math.max(max_depth, depth(states.get(s)));
+        }
+
+        start = state_nodes[0];
+
+        int n = nodes.size();
+        node_tests  = new int[n];
+        node_rows   = new int[n];
+        on_match    = new int[n];
+        on_mismatch = new int[n];
+        table       = new int[rows.size() * classes];
+
+        for (int i = 0; i < n; ++i) {
+            int[] node = nodes.get(i);
+            node_tests[i]  = node[0];
+            node_rows[i]   = node[1] * classes;
+            on_match[i]    = node[2];
+            on_mismatch[i] = node[3];
+        }
+
+        for (int i = 0; i < rows.size(); ++i)
+            System.arraycopy(rows.get(i), 0, table, i * classes, classes);
+
+        int m = transitions.size();
+        targets = new int[m];
+        fails   = new int[m];
+        pops    = new int[m];
+        pushes  = new int[m];
+        accepts = new int[m];
+
+        for (int i = 0; i < m; ++i) {
+            Transition t = transitions.get(i);
+            targets[i] = t.target >= 0 ? state_nodes[t.target] : t.target;
+            fails[i]   = t.fail;
+            pops[i]    = t.pops;
+            pushes[i]  = t.pushes;
+            accepts[i] = t.accepts;
+        }
+
+        test_strings = strings.toArray(new String[0]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the graph rooted at {@code parser} is regular, i.e. acyclic and only made of the
+     * following parsers: {@link Sequence}, {@link Choice}, {@link Repeat}, {@link Optional}, {@link
+     * Empty}, {@link Fail}, {@link LazyParser}, {@link AbstractForwarding}, {@link StringMatch}
+     * (including its whitespace parser), {@link CharPredicate}, as well as {@link Not} over a
+     * character predicate or a literal without whitespace.
+     *
+     * <p>Character predicates must reject the null character (which stands for the end of the
+     * input), literals may not contain it, and parsers that exclude their errors may not fail.
+     *
+     * <p>Results are memoized in {@code memo}, which may be shared between calls.
+     */
+    static boolean regular (Parser parser, Map<Parser, Boolean> memo)
+    {
+        Boolean memoized = memo.get(parser);
+        if (memoized != null)
+            return memoized;
+
+        // cycles are not regular
+        memo.put(parser, false);
+
+        boolean result;
+
+        if (parser instanceof CharPredicate)
+            result = !((CharPredicate) parser).test(0);
+        else if (parser instanceof StringMatch) {
+            StringMatch match = (StringMatch) parser;
+            result = match.string.indexOf('\0') < 0
+                && (match.whitespace == null || regular(match.whitespace, memo));
+        }
+        else if (parser instanceof Empty || parser instanceof Fail)
+            result = true;
+        else if (parser instanceof Not) {
+            Parser child = ((Not) parser).child;
+            result = (child instanceof CharPredicate
+                || child instanceof StringMatch && ((StringMatch) child).whitespace == null)
+                && regular(child, memo);
+        }
+        else if (parser instanceof Sequence || parser instanceof Choice
+                || parser instanceof Repeat || parser instanceof Optional
+                || parser instanceof LazyParser || parser instanceof AbstractForwarding) {
+            result = true;
+            for (Parser child: parser.children())
+                if (!regular(child, memo)) {
+                    result = false;
+                    break;
+                }
+        }
+        else
+            result = false;
+
+        if (result && parser.exclude_errors && !infallible(parser, new IdentityHashMap<>()))
+            result = false;
+
+        memo.put(parser, result);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the given regular parser always succeeds (conservatively).
+     */
+    private static boolean infallible (Parser parser, Map<Parser, Boolean> memo)
+    {
+        Boolean memoized = memo.get(parser);
+        if (memoized != null)
+            return memoized;
+
+        boolean result;
+
+        if (parser instanceof Empty || parser instanceof Optional)
+            result = true;
+        else if (parser instanceof Repeat)
+            result = ((Repeat) parser).min == 0 || infallible(((Repeat) parser).child, memo);
+        else if (parser instanceof Sequence) {
+            result = true;
+            for (Parser child: parser.children())
+                result &= infallible(child, memo);
+        }
+        else if (parser instanceof Choice) {
+            result = false;
+            for (Parser child: parser.children())
+                result |= infallible(child, memo);
+        }
+        else if (parser instanceof StringMatch) {
+            StringMatch match = (StringMatch) parser;
+            result = match.string.isEmpty()
+                && (match.whitespace == null || infallible(match.whitespace, memo));
+        }
+        else if (parser instanceof LazyParser)
+            result = infallible(((LazyParser) parser).child(), memo);
+        else if (parser instanceof AbstractForwarding)
+            result = infallible(((AbstractForwarding) parser).forwardee, memo);
+        else
+            result = false;
+
+        memo.put(parser, result);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Partitions the characters in classes that are treated identically by all character
+     * predicates and literals of the graph.
+     */
+    private void partition()
+    {
+        ArrayList<IntPredicate> predicates = new ArrayList<>();
+        BitSet chars = new BitSet();
+        collect(root, Collections.newSetFromMap(new IdentityHashMap<>()), predicates, chars);
+
+        int[] classes = new int[65536];
+        int n = 1;
+
+        for (IntPredicate predicate: predicates) {
+            int[] remap = new int[2 * n];
+            Arrays.fill(remap, -1);
+            int m = 0;
+            for (int c = 0; c < 65536; ++c) {
+                int key = classes[c] * 2 + (predicate.test(c) ? 1 : 0);
+                if (remap[key] < 0) remap[key] = m++;
+                classes[c] = remap[key];
+            }
+            n = m;
+        }
+
+        for (int c = chars.nextSetBit(0); c >= 0; c = chars.nextSetBit(c + 1))
+            classes[c] = n++;
+
+        // renumber classes by first occurrence, dropping the ones left empty
+        int[] remap = new int[n];
+        Arrays.fill(remap, -1);
+        char[] representatives = new char[n];
+        int m = 0;
+        for (int c = 0; c < 65536; ++c) {
+            int k = classes[c];
+            if (remap[k] < 0) {
+                representatives[m] = (char) c;
+                remap[k] = m++;
+            }
+            classes[c] = remap[k];
+        }
+
+        this.classes = m;
+        this.representatives = Arrays.copyOf(representatives, m);
+        this.ascii_classes = Arrays.copyOf(classes, 128);
+
+        int runs = 0;
+        for (int c = 128; c < 65536; ++c)
+            if (c == 128 || classes[c] != classes[c - 1])
+                ++ runs;
+
+        range_starts  = new char[runs];
+        range_classes = new int[runs];
+        for (int c = 128, i = 0; c < 65536; ++c)
+            if (c == 128 || classes[c] != classes[c - 1]) {
+                range_starts[i] = (char) c;
+                range_classes[i++] = classes[c];
+            }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void collect (
+            Parser parser, Set<Parser> seen, List<IntPredicate> predicates, BitSet chars)
+    {
+        if (!seen.add(parser))
+            return;
+
+        if (parser instanceof CharPredicate)
+            predicates.add((CharPredicate) parser);
+        else if (parser instanceof StringMatch) {
+            StringMatch match = (StringMatch) parser;
+            for (int i = 0; i < match.string.length(); ++i)
+                chars.set(match.string.charAt(i));
+            if (match.whitespace != null)
+                collect(match.whitespace, seen, predicates, chars);
+        }
+        else
+            for (Parser child: parser.children())
+                collect(child, seen, predicates, chars);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int state (Cont cont)
+    {
+        Integer id = state_ids.get(cont);
+        if (id != null)
+            return id;
+        if (states.size() == MAX_STATES)
+            throw new Unsupported("too many states");
+        states.add(cont);
+        state_ids.put(cont, states.size() - 1);
+        return states.size() - 1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the number of pending alternatives in the given state. */
+    private static int depth (Cont cont)
+    {
+        int depth = 0;
+        for (; cont != null; cont = cont.tail)
+            if (cont.head.kind == POP)
+                ++ depth;
+        return depth;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Builds the node for the given state, assuming the given outcomes for tests, and returns its
+     * index.
+     */
+    private int build (Cont cont, Map<String, Boolean> tests)
+    {
+        int[] row = new int[classes];
+        for (int k = 0; k < classes; ++k)
+        {
+            Transition t;
+            try {
+                t = simulate(cont, representatives[k], tests, new ArrayList<>(), true);
+            }
+            catch (NeedTest e) {
+                HashMap<String, Boolean> matched = new HashMap<>(tests);
+                HashMap<String, Boolean> mismatched = new HashMap<>(tests);
+                matched.put(e.string, true);
+                mismatched.put(e.string, false);
+                int if_match = build(cont, matched);
+                int if_mismatch = build(cont, mismatched);
+                int test = strings.indexOf(e.string);
+                if (test < 0) {
+                    strings.add(e.string);
+                    test = strings.size() - 1;
+                }
+                nodes.add(new int[] { test, 0, if_match, if_mismatch });
+                return nodes.size() - 1;
+            }
+
+            if (t.target == CONSUME)
+                t.target = state(t.next);
+            t.next = null;
+            row[k] = transition_ids.computeIfAbsent(t, x -> {
+                transitions.add(x);
+                return transitions.size() - 1;
+            });
+        }
+
+        rows.add(row);
+        nodes.add(new int[] { -1, rows.size() - 1, -1, -1 });
+        return nodes.size() - 1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Cont expand (Parser parser, boolean excluded, Cont cont) {
+        return new Cont(new Item(NODE, parser, 0, excluded || parser.exclude_errors), cont);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Simulates the continuation on character {@code c}, with the given pending alternatives
+     * started at the current position. If {@code check} is true, verifies that the alternatives
+     * are decided by the character and computes the accept mask of the consuming transition.
+     */
+    private Transition simulate (
+            Cont cont, char c, Map<String, Boolean> tests, ArrayList<Cont> same, boolean check)
+    {
+        Transition t = new Transition();
+
+        for (int steps = 0; ; ++steps)
+        {
+            if (steps == MAX_STEPS)
+                throw new Unsupported("non-terminating simulation");
+
+            if (cont == null) {
+                t.target = EXIT;
+                return t;
+            }
+
+            Item item = cont.head;
+            Cont next = cont.tail;
+            Parser parser = item.parser;
+            boolean ex = item.excluded;
+            int failure = -1;
+
+            switch (item.kind)
+            {
+                case POP:
+                    if (same.isEmpty())
+                        ++ t.pops;
+                    else
+                        same.remove(same.size() - 1);
+                    break;
+
+                case STAR:
+                    same.add(next);
+                    next = expand(((Repeat) parser).child, ex,
+                        new Cont(POP_ITEM, new Cont(item, next)));
+                    break;
+
+                case ALTS: {
+                    List<Parser> alts = ((Choice) parser).children();
+                    Parser alt = alts.get(item.index);
+                    if (item.index < alts.size() - 1) {
+                        same.add(new Cont(new Item(ALTS, parser, item.index + 1, ex), next));
+                        next = expand(alt, ex, new Cont(POP_ITEM, next));
+                    }
+                    else
+                        next = expand(alt, ex, next);
+                    break;
+                }
+
+                case LIT: {
+                    String string = ((StringMatch) parser).string;
+                    boolean multi = item.index == 0 && string.length() > 1;
+                    if (string.charAt(item.index) != c)
+                        failure = item.index;
+                    else if (multi && outcome(tests, string) == Boolean.FALSE)
+                        failure = 0;
+                    else
+                        return consume(t, item.index + 1 < string.length()
+                            ? new Cont(new Item(LIT, parser, item.index + 1, ex), next)
+                            : next,
+                            c, tests, same, check, multi ? string : null);
+                    break;
+                }
+
+                default: // NODE
+                    if (parser instanceof Sequence) {
+                        List<Parser> children = ((Sequence) parser).children();
+                        for (int i = children.size() - 1; i >= 0; --i)
+                            next = expand(children.get(i), ex, next);
+                    }
+                    else if (parser instanceof Choice) {
+                        if (((Choice) parser).children().isEmpty())
+                            failure = 0;
+                        else
+                            next = new Cont(new Item(ALTS, parser, 0, ex), next);
+                    }
+                    else if (parser instanceof Optional) {
+                        same.add(next);
+                        next = expand(((Optional) parser).child, ex, new Cont(POP_ITEM, next));
+                    }
+                    else if (parser instanceof Repeat) {
+                        Repeat repeat = (Repeat) parser;
+                        if (!repeat.exact)
+                            next = new Cont(new Item(STAR, parser, 0, ex), next);
+                        for (int i = 0; i < repeat.min; ++i)
+                            next = expand(repeat.child, ex, next);
+                    }
+                    else if (parser instanceof CharPredicate) {
+                        if (((CharPredicate) parser).test(c))
+                            return consume(t, next, c, tests, same, check, null);
+                        failure = 0;
+                    }
+                    else if (parser instanceof StringMatch) {
+                        StringMatch match = (StringMatch) parser;
+                        if (match.whitespace != null)
+                            next = expand(match.whitespace, ex, next);
+                        if (!match.string.isEmpty())
+                            next = new Cont(new Item(LIT, parser, 0, ex), next);
+                    }
+                    else if (parser instanceof Not) {
+                        if (matches(((Not) parser).child, c, tests))
+                            failure = 0;
+                    }
+                    else if (parser instanceof Fail)
+                        failure = 0;
+                    else if (parser instanceof LazyParser)
+                        next = expand(((LazyParser) parser).child(), ex, next);
+                    else if (parser instanceof AbstractForwarding)
+                        next = expand(((AbstractForwarding) parser).forwardee, ex, next);
+                    else if (!(parser instanceof Empty))
+                        throw new Unsupported("unsupported parser: " + parser.getClass());
+            }
+
+            if (failure >= 0)
+            {
+                if (!ex && (t.fail < 0 || failure < t.fail))
+                    t.fail = failure;
+
+                if (same.isEmpty()) {
+                    t.target = DEAD;
+                    return t;
+                }
+
+                next = same.remove(same.size() - 1);
+            }
+
+            cont = next;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Whether the child of a {@link Not} parser matches at a position holding {@code c}. */
+    private static boolean matches (Parser parser, char c, Map<String, Boolean> tests)
+    {
+        if (parser instanceof CharPredicate)
+            return ((CharPredicate) parser).test(c);
+
+        String string = ((StringMatch) parser).string;
+        if (string.isEmpty())
+            return true;
+        if (string.charAt(0) != c)
+            return false;
+        if (string.length() == 1)
+            return true;
+
+        Boolean outcome = outcome(tests, string);
+        if (outcome == null)
+            throw new NeedTest(string);
+        return outcome;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns whether {@code string} matches at the current position, as implied by the given test
+     * outcomes, or null if unknown.
+     */
+    private static Boolean outcome (Map<String, Boolean> tests, String string)
+    {
+        Boolean outcome = tests.get(string);
+        if (outcome != null)
+            return outcome;
+
+        for (Map.Entry<String, Boolean> entry: tests.entrySet())
+        {
+            String test = entry.getKey();
+            if (entry.getValue()) {
+                if (test.startsWith(string))
+                    return true;
+                if (!string.startsWith(test))
+                    return false;
+            }
+            else if (string.startsWith(test))
+                return false;
+        }
+
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Transition consume (
+            Transition t, Cont next, char c, Map<String, Boolean> tests, ArrayList<Cont> same,
+            boolean check, String literal)
+    {
+        boolean matched = literal != null && outcome(tests, literal) == Boolean.TRUE;
+        t.target = CONSUME;
+        t.next = next;
+        t.pushes = same.size();
+        t.literal = literal != null && !matched ? literal : null;
+
+        if (!check)
+            return t;
+
+        if (same.size() > 31)
+            throw new Unsupported("too many pending alternatives");
+
+        for (int i = 0; i < same.size(); ++i)
+        {
+            // The alternative is resumed if the remainder of the branch that consumed the
+            // character fails. That branch ends at the (n - i)-th pop.
+            if (!fallible(next, same.size() - i, matched))
+                continue;
+
+            Transition resumed = simulate(same.get(i), c, tests,
+                new ArrayList<>(same.subList(0, i)), false);
+
+            if (resumed.target == CONSUME) {
+                // try to decide with the literals starting at this position
+                if (t.literal != null)
+                    throw new NeedTest(t.literal);
+                if (resumed.literal != null)
+                    throw new NeedTest(resumed.literal);
+                throw new Unsupported("alternatives not decided by a single character");
+            }
+            if (resumed.target == EXIT)
+                t.accepts |= 1 << i;
+        }
+
+        return t;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the items of the continuation before the {@code n}-th pop may fail. If {@code
+     * matched} is true, the continuation starts with the remainder of a literal known to match.
+     */
+    private boolean fallible (Cont cont, int n, boolean matched)
+    {
+        if (matched)
+            cont = cont.tail;
+
+        for (; cont != null; cont = cont.tail)
+        {
+            Item item = cont.head;
+            switch (item.kind) {
+                case POP:
+                    if (--n == 0) return false;
+                    break;
+                case LIT:
+                    return true;
+                case STAR:
+                    break;
+                case ALTS: {
+                    List<Parser> alts = ((Choice) item.parser).children();
+                    boolean infallible = false;
+                    for (int i = item.index; i < alts.size(); ++i)
+                        infallible |= infallible(alts.get(i), this.infallible);
+                    if (!infallible) return true;
+                    break;
+                }
+                default:
+                    if (!infallible(item.parser, this.infallible))
+                        return true;
+            }
+        }
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
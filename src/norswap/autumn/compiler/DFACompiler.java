@@ -0,0 +1,134 @@
+package norswap.autumn.compiler;
+
+import norswap.autumn.Parser;
+import norswap.autumn.parsers.*;
+import norswap.autumn.visitors.CopyVisitor;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Copies a parser graph, replacing its maximal regular sub-graphs (typically lexical rules:
+ * identifiers, numbers, comments, whitespace...) by {@link DFAParser} automata.
+ *
+ * <p>A sub-graph is regular if it is acyclic and made of literals, character predicates,
+ * sequences, choices, repetitions, optionals and negations of single characters or literals (see
+ * {@link DFABuilder#regular} for the details). Regular sub-graphs that are not deterministic
+ * enough to be compiled (see {@link DFABuilder}) are left as is, but their own regular sub-graphs
+ * are considered for compilation. Parsers without children (save for literals followed by
+ * whitespace) are never replaced, as the automaton would not save anything.
+ *
+ * <p>Invoke instances of this class through their {@link #compile(Parser)} method, after the
+ * grammar has been fully constructed. The original grammar is not modified, and the copy is made
+ * with a {@link CopyVisitor}, subject to the caveats listed in its documentation. Unlike a plain
+ * copy, the copies of {@link LazyParser} refer to the copies of their children, and copies keep
+ * the {@link Parser#exclude_errors} flag and the rule name of their original.
+ *
+ * <p>Automata and copies also keep the memoizer of their original ({@link Parser#set_memoizer}),
+ * but the memoizers of the parsers inside a compiled sub-graph are dropped along with them.
+ */
+public final class DFACompiler
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The number of sub-graphs compiled to automata so far.
+     */
+    public int compiled = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final CopyVisitor copier = new CopyVisitor();
+    private final Map<Parser, Boolean> regular = new IdentityHashMap<>();
+    private final Set<Parser> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a copy of the graph rooted at {@code parser}, where regular sub-graphs have been
+     * replaced by automata. Parsers shared with graphs previously passed to this compiler share
+     * their copy.
+     */
+    public Parser compile (Parser parser)
+    {
+        scan(parser);
+        Parser copy = copier.get_copy(parser);
+
+        for (Map.Entry<Parser, Parser> entry: copier.copies.entrySet()) {
+            Parser original = entry.getKey();
+            Parser replica  = entry.getValue();
+            if (replica == original || replica instanceof DFAParser)
+                continue;
+            replica.exclude_errors = original.exclude_errors;
+            if (original.rule() != null && replica.rule() == null)
+                replica.set_rule(original.rule());
+        }
+
+        return copy;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void scan (Parser parser)
+    {
+        if (!seen.add(parser))
+            return;
+
+        boolean composite = parser.children().iterator().hasNext()
+            || parser instanceof StringMatch && ((StringMatch) parser).whitespace != null;
+
+        if (composite && DFABuilder.regular(parser, regular))
+        {
+            DFAParser dfa = DFAParser.compile(parser);
+            if (dfa != null) {
+                if (parser.rule() != null)
+                    dfa.set_rule(parser.rule());
+                dfa.set_memoizer(parser.memoizer());
+                copier.substitute(parser, dfa);
+                ++ compiled;
+                return;
+            }
+        }
+
+        if (parser instanceof LazyParser) {
+            LazyParser lazy = new LazyParser(lazy_copy(((LazyParser) parser).child()));
+            lazy.set_memoizer(parser.memoizer());
+            copier.substitute(parser, lazy);
+        }
+
+        for (Parser child: parser.children())
+            scan(child);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a supplier for the copy of {@code original}, to be called after the copy is complete.
+     */
+    private Supplier<Parser> lazy_copy (Parser original)
+    {
+        return new Supplier<Parser>()
+        {
+            // Avoid holding on to the copies map and the original graph once resolved.
+
+            private Map<Parser, Parser> copies = copier.copies;
+            private Parser original_parser = original;
+            private Parser copy = null;
+
+            @Override public Parser get ()
+            {
+                if (copy != null)
+                    return copy;
+
+                copy = copies.get(original_parser);
+                copies = null;
+                original_parser = null;
+                return copy;
+            }
+        };
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,206 @@
+package norswap.autumn.compiler;
+
+import norswap.autumn.Parse;
+import norswap.autumn.ParseState;
+import norswap.autumn.Parser;
+import norswap.autumn.parsers.AbstractWrapper;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * A parser that returns the same results as its child — a regular sub-graph, typically a lexical
+ * rule such as identifiers, numbers, comments or whitespace — but runs it as a deterministic finite
+ * automaton whose states and transitions are stored in flat arrays (cf. {@link DFABuilder}).
+ *
+ * <p>Build with {@link #compile(Parser)}, or use {@link DFACompiler} to replace all the regular
+ * sub-graphs of a grammar.
+ *
+ * <p>The automaton reads each character of the input once, without backtracking nor calls to
+ * sub-parsers. It computes the same furthest error position ({@link Parse#error}) as the child.
+ *
+ * <p>The child is interpreted instead when parsing a list of objects, when {@link
+ * Parse#end_of_input} does not coincide with the end of the string, when tracing ({@link
+ * norswap.autumn.ParseOptions#trace}) or when recording call stacks ({@link
+ * norswap.autumn.ParseOptions#record_call_stack}).
+ *
+ * <p>The graph must not be modified after the automaton is built. The tables are immutable, so
+ * automata can be shared between concurrent parses.
+ */
+public final class DFAParser extends AbstractWrapper
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private final int[] ascii_classes;
+    private final char[] range_starts;
+    private final int[] range_classes;
+
+    private final int start;
+
+    /** Per node: index of the tested string (-1 for character nodes). */
+    private final int[] node_tests;
+    /** Per node: offset of the node's row in {@link #table}. */
+    private final int[] node_rows;
+    private final int[] on_match;
+    private final int[] on_mismatch;
+
+    /** Transition index for each character node and character class. */
+    private final int[] table;
+
+    /** Per transition: next node, {@link DFABuilder#EXIT} or {@link DFABuilder#DEAD}. */
+    private final int[] targets;
+    /** Per transition: offset back from the position of the furthest failure, or -1. */
+    private final int[] fails;
+    private final int[] pops;
+    private final int[] pushes;
+    private final int[] accepts;
+
+    private final String[] test_strings;
+    private final int max_depth;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Positions where the parse succeeds if later alternatives fail, shared within a parse. */
+    private static final class Pending
+    {
+        int[] positions = new int[16];
+    }
+
+    private static final ParseState<Pending> pendings
+        = new ParseState<>(Pending.class, Pending::new);
+
+    // ---------------------------------------------------------------------------------------------
+
+    private DFAParser (Parser child, DFABuilder builder)
+    {
+        super("dfa", child);
+        exclude_errors = child.exclude_errors;
+        ascii_classes = builder.ascii_classes;
+        range_starts  = builder.range_starts;
+        range_classes = builder.range_classes;
+        start         = builder.start;
+        node_tests    = builder.node_tests;
+        node_rows     = builder.node_rows;
+        on_match      = builder.on_match;
+        on_mismatch   = builder.on_mismatch;
+        table         = builder.table;
+        targets       = builder.targets;
+        fails         = builder.fails;
+        pops          = builder.pops;
+        pushes        = builder.pushes;
+        accepts       = builder.accepts;
+        test_strings  = builder.test_strings;
+        max_depth     = builder.max_depth;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Compiles the graph rooted at {@code parser} to an automaton, or returns null if the graph
+     * isn't regular (cf. {@link DFABuilder#regular}), or if its alternatives can't be decided by
+     * looking at a single character.
+     */
+    public static DFAParser compile (Parser parser)
+    {
+        if (!DFABuilder.regular(parser, new IdentityHashMap<>()))
+            return null;
+        try {
+            return new DFAParser(parser, new DFABuilder(parser));
+        }
+        catch (DFABuilder.Unsupported e) {
+            return null;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of nodes of the automaton (states, and tests on literals).
+     */
+    public int size() {
+        return node_tests.length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int char_class (char c)
+    {
+        if (c < 128)
+            return ascii_classes[c];
+        int i = Arrays.binarySearch(range_starts, c);
+        return range_classes[i >= 0 ? i : -i - 2];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override protected boolean doparse (Parse parse)
+    {
+        if (parse.string == null || parse.end_of_input != parse.string.length()
+                || parse.options.trace || parse.options.record_call_stack)
+            return child.parse(parse);
+
+        String string = parse.string;
+        int end = parse.end_of_input;
+        int pos = parse.pos;
+        int node = start;
+        int furthest = -1;
+        int depth = 0;
+        int result;
+
+        int[] pending = null;
+        if (max_depth > 0) {
+            Pending p = pendings.data(parse);
+            if (p.positions.length < max_depth)
+                p.positions = new int[Math.max(max_depth, p.positions.length * 2)];
+            pending = p.positions;
+        }
+
+        while (true)
+        {
+            int test;
+            while ((test = node_tests[node]) >= 0)
+                node = parse.match(pos, test_strings[test]) ? on_match[node] : on_mismatch[node];
+
+            char c = pos < end ? string.charAt(pos) : 0;
+            int t = table[node_rows[node] + char_class(c)];
+
+            int fail = fails[t];
+            if (fail >= 0 && pos - fail > furthest)
+                furthest = pos - fail;
+
+            int target = targets[t];
+
+            if (target == DFABuilder.EXIT) {
+                result = pos;
+                break;
+            }
+
+            if (target == DFABuilder.DEAD) {
+                result = -1;
+                while (depth > 0 && result < 0)
+                    result = pending[--depth];
+                break;
+            }
+
+            depth -= pops[t];
+            for (int i = 0, n = pushes[t], mask = accepts[t]; i < n; ++i)
+                pending[depth++] = (mask & (1 << i)) != 0 ? pos : -1;
+
+            node = target;
+            ++ pos;
+        }
+
+        if (furthest >= 0 && parse.error <= furthest) {
+            parse.error = furthest;
+            if (parse.error_message() != null)
+                parse.set_error_message(null);
+        }
+
+        if (result < 0)
+            return false;
+
+        parse.pos = result;
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
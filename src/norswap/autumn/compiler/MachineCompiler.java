@@ -0,0 +1,345 @@
+package norswap.autumn.compiler;
+
+import norswap.autumn.Parser;
+import norswap.autumn.parsers.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import static norswap.autumn.compiler.MachineParser.*;
+
+/**
+ * Compiles a parser graph to the instructions run by {@link MachineParser}.
+ *
+ * <p>The program starts with an invocation of the root, followed by {@link MachineParser#HALT}.
+ * Then, for each parser whose type is supported and which isn't a primitive (same types as {@link
+ * ParserSourceEmitter#compilable(Parser)} and {@link ParserSourceEmitter#primitive(Parser)}), it
+ * contains a block implementing the parser's {@link Parser#doparse} logic, ending with {@link
+ * MachineParser#RETURN}. Such parsers are invoked with {@link MachineParser#CALL}, while primitives
+ * are inlined at their invocation sites, and other parsers are invoked through {@link
+ * MachineParser#PARSER}.
+ *
+ * <p>Each supported parser with a memoizer ({@link Parser#set_memoizer}) also gets a block that
+ * looks up and stores its results in the memoizer around an invocation of the parser, and that
+ * block is called instead of the parser.
+ *
+ * <p>{@link Repeat} parsers are compiled by unrolling their minimum number of repetitions.
+ */
+final class MachineCompiler
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Parsers referenced by the instructions, indexed by their operands. */
+    final List<Parser> parsers = new ArrayList<>();
+
+    /** Strings referenced by the instructions, indexed by their operands. */
+    final List<String> strings = new ArrayList<>();
+
+    private final IdentityHashMap<Parser, Integer> constants = new IdentityHashMap<>();
+
+    /** Address of the block of each called parser. */
+    private final IdentityHashMap<Parser, Integer> blocks = new IdentityHashMap<>();
+
+    /** Address of the memoizing block of each parser with a memoizer. */
+    private final IdentityHashMap<Parser, Integer> memo_blocks = new IdentityHashMap<>();
+
+    /**
+     * Positions of the address operands of call instructions, the called parsers, and whether
+     * their memoizing block is called.
+     */
+    private final ArrayList<Integer> fixups = new ArrayList<>();
+    private final ArrayList<Parser> fixup_targets = new ArrayList<>();
+    private final ArrayList<Boolean> fixup_memo = new ArrayList<>();
+
+    private int[] code = new int[256];
+    private int size = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    MachineCompiler (Parser root)
+    {
+        invoke(root);
+        emit(HALT);
+
+        for (Parser parser: ParserSourceEmitter.nodes(root)) {
+            if (!ParserSourceEmitter.compilable(parser))
+                continue;
+            if (!ParserSourceEmitter.primitive(parser)) {
+                blocks.put(parser, size);
+                emit_block(parser);
+            }
+            if (parser.memoizer() != null) {
+                memo_blocks.put(parser, size);
+                emit_memo(constant(parser), parser, false);
+                emit(RETURN);
+            }
+        }
+
+        for (int i = 0; i < fixups.size(); ++i)
+            code[fixups.get(i)] = (fixup_memo.get(i) ? memo_blocks : blocks)
+                .get(fixup_targets.get(i));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the compiled program.
+     */
+    int[] code() {
+        return Arrays.copyOf(code, size);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void emit (int... words)
+    {
+        if (size + words.length > code.length)
+            code = Arrays.copyOf(code, Math.max(code.length * 2, size + words.length));
+        for (int word: words)
+            code[size++] = word;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Sets the address operand at {@code index} to the current address. */
+    private void patch (int index) {
+        code[index] = size;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int constant (Parser parser)
+    {
+        return constants.computeIfAbsent(parser, k -> {
+            parsers.add(k);
+            return parsers.size() - 1;
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int string (String string)
+    {
+        int index = strings.indexOf(string);
+        if (index >= 0) return index;
+        strings.add(string);
+        return strings.size() - 1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits the instructions that invoke the given parser.
+     */
+    private void invoke (Parser parser) {
+        invoke(parser, true);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits the instructions that invoke the given parser, going through its memoizing block if
+     * it has a memoizer ({@link Parser#set_memoizer}) and {@code memoize} is set.
+     */
+    private void invoke (Parser parser, boolean memoize)
+    {
+        int exclude = parser.exclude_errors ? 1 : 0;
+
+        if (!ParserSourceEmitter.compilable(parser))
+            emit(PARSER, constant(parser));
+        else if (memoize && parser.memoizer() != null) {
+            emit(CALL, -1, (parser.exclude_errors ? F_EXCLUDE : 0) | F_CUT | F_KEEP_CUT);
+            fixups.add(size - 2);
+            fixup_targets.add(parser);
+            fixup_memo.add(true);
+        }
+        else if (parser instanceof CharPredicate)
+            emit(CHAR, constant(parser), exclude);
+        else if (parser instanceof StringMatch && ((StringMatch) parser).whitespace == null)
+            emit(STRING, string(((StringMatch) parser).string), exclude);
+        else if (parser instanceof Empty)
+            return;
+        else if (parser instanceof Fail)
+            emit(FAIL, exclude);
+        else {
+            int flags = (parser.exclude_errors ? F_EXCLUDE : 0)
+                | (parser instanceof Choice ? F_CUT : 0)
+                | (parser instanceof Memo ? F_CUT | F_KEEP_CUT : 0);
+            emit(CALL, -1, flags);
+            fixups.add(size - 2);
+            fixup_targets.add(parser);
+            fixup_memo.add(false);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits the block implementing the logic of the given parser.
+     */
+    private void emit_block (Parser parser)
+    {
+        if (parser instanceof Sequence)
+        {
+            for (Parser child: ((Sequence) parser).children())
+                invoke(child);
+        }
+        else if (parser instanceof Choice)
+        {
+            List<Parser> children = ((Choice) parser).children();
+            if (children.isEmpty())
+                emit(FAIL, 1);
+
+            ArrayList<Integer> commits = new ArrayList<>();
+            for (int i = 0; i < children.size() - 1; ++i) {
+                emit(BRANCH, -1, 0);
+                int branch = size - 2;
+                invoke(children.get(i));
+                emit(COMMIT, -1);
+                commits.add(size - 1);
+                patch(branch);
+                emit(FAIL_IF_CUT);
+            }
+            if (!children.isEmpty())
+                invoke(children.get(children.size() - 1));
+            for (int commit: commits)
+                patch(commit);
+        }
+        else if (parser instanceof Repeat)
+        {
+            Repeat repeat = (Repeat) parser;
+            for (int i = 0; i < repeat.min; ++i)
+                invoke(repeat.child);
+            if (!repeat.exact) {
+                int loop = size;
+                emit(BRANCH, -1, 0);
+                invoke(repeat.child);
+                emit(COMMIT, loop);
+                patch(loop + 1);
+            }
+        }
+        else if (parser instanceof Optional)
+        {
+            emit(BRANCH, -1, 0);
+            int branch = size - 2;
+            invoke(((Optional) parser).child);
+            emit(COMMIT, -1);
+            patch(size - 1);
+            patch(branch);
+        }
+        else if (parser instanceof Lookahead)
+        {
+            invoke(((Lookahead) parser).child);
+            emit(RESET_POS);
+        }
+        else if (parser instanceof Not)
+        {
+            emit(BRANCH, -1, F_NOT);
+            int branch = size - 2;
+            invoke(((Not) parser).child);
+            emit(FAIL_NOT);
+            patch(branch);
+        }
+        else if (parser instanceof Collect)
+        {
+            Collect collect = (Collect) parser;
+            int k = constant(collect);
+            emit(SAVE_STACK);
+            if (collect.action_on_fail) {
+                emit(BRANCH, -1, 0);
+                int branch = size - 2;
+                invoke(collect.child);
+                emit(COMMIT, -1);
+                int commit = size - 1;
+                patch(branch);
+                emit(COLLECT_FAILED, k);
+                emit(RETURN);
+                patch(commit);
+            }
+            else
+                invoke(collect.child);
+            emit(COLLECT, k);
+        }
+        else if (parser instanceof Memo)
+        {
+            emit_memo(constant(parser), ((Memo) parser).child, true);
+        }
+        else if (parser instanceof LazyParser)
+        {
+            invoke(((LazyParser) parser).child());
+        }
+        else if (parser instanceof AbstractForwarding)
+        {
+            invoke(((AbstractForwarding) parser).forwardee);
+        }
+        else if (parser instanceof StringMatch)
+        {
+            StringMatch match = (StringMatch) parser;
+            // failure is recorded by the call frame
+            emit(STRING, string(match.string), 1);
+            invoke(match.whitespace);
+        }
+        else throw new Error("unsupported parser: " + parser.getClass());
+
+        emit(RETURN);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits instructions that look up the {@link MachineParser#MEMO_GET memoized} result of
+     * parser {@code k}, and otherwise invoke {@code child} and memoize its result. If {@code
+     * memoize} is false, the child is invoked without going through its own memoizer.
+     */
+    private void emit_memo (int k, Parser child, boolean memoize)
+    {
+        emit(MEMO_GET, k, -1);
+        int get = size - 1;
+        emit(BRANCH, -1, 0);
+        int branch = size - 2;
+        invoke(child, memoize);
+        emit(COMMIT, -1);
+        int commit = size - 1;
+        patch(branch);
+        emit(MEMO_PUT, k, 0);
+        patch(commit);
+        emit(MEMO_PUT, k, 1);
+        patch(get);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String[] NAMES = {
+        "HALT", "CALL", "RETURN", "PARSER", "CHAR", "STRING", "FAIL", "BRANCH", "COMMIT",
+        "FAIL_IF_CUT", "FAIL_NOT", "RESET_POS", "SAVE_STACK", "COLLECT", "COLLECT_FAILED",
+        "MEMO_GET", "MEMO_PUT" };
+
+    private static final int[] OPERANDS = { 0, 2, 0, 1, 2, 2, 1, 2, 1, 0, 0, 0, 0, 1, 1, 2, 2 };
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a readable listing of the given program, one instruction per line.
+     */
+    static String disassemble (int[] code, Parser[] parsers, String[] strings)
+    {
+        StringBuilder b = new StringBuilder();
+        for (int pc = 0; pc < code.length; pc += 1 + OPERANDS[code[pc]])
+        {
+            int op = code[pc];
+            b.append(String.format("%5d  %-14s", pc, NAMES[op]));
+            for (int i = 1; i <= OPERANDS[op]; ++i)
+                b.append(' ').append(code[pc + i]);
+            if (op == STRING)
+                b.append("  ; ").append(ParserSourceEmitter.literal(strings[code[pc + 1]]));
+            else if (op == PARSER || op == CHAR || op == COLLECT || op == COLLECT_FAILED
+                    || op == MEMO_GET || op == MEMO_PUT)
+                b.append("  ; ").append(parsers[code[pc + 1]]);
+            b.append('\n');
+        }
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,494 @@
+package norswap.autumn.compiler;
+
+import norswap.autumn.Parse;
+import norswap.autumn.ParseState;
+import norswap.autumn.Parser;
+import norswap.autumn.memo.MemoEntry;
+import norswap.autumn.memo.Memoizer;
+import norswap.autumn.parsers.AbstractWrapper;
+import norswap.autumn.parsers.CharPredicate;
+import norswap.autumn.parsers.Collect;
+import norswap.autumn.parsers.Memo;
+import java.util.Arrays;
+
+/**
+ * A parser that returns the same results as its child, but runs it on a virtual machine: the
+ * parser graph is compiled to a flat instruction array (cf. {@link MachineCompiler}), which is run
+ * by a single dispatch loop, in the style of LPeg.
+ *
+ * <p>Parser invocations do not use the JVM call stack: the machine keeps its own stack of frames in
+ * primitive arrays. Each frame is either a <i>call frame</i>, which holds the state required to
+ * perform the bookkeeping of {@link Parser#parse} for a parser, or a <i>backtrack frame</i>, which
+ * holds the address to jump to when the parsers called after it fail (e.g. the next alternative of
+ * a choice). On failure, the machine pops frames (performing failure bookkeeping for call frames)
+ * until it finds a backtrack frame. Deeply nested inputs therefore cannot cause a {@link
+ * StackOverflowError}, as long as they only exercise compiled parsers.
+ *
+ * <p>Parsers whose type is not supported by the compiler (e.g. custom parsers, tokens,
+ * left-recursion) are called through their regular {@link Parser#parse} method, meaning the
+ * sub-graphs below them are interpreted (and do use the JVM stack).
+ *
+ * <p>When tracing ({@link norswap.autumn.ParseOptions#trace}) or recording call stacks ({@link
+ * norswap.autumn.ParseOptions#record_call_stack}), the child is interpreted instead. Note that
+ * recorded call stacks then include an extra frame for this parser.
+ *
+ * <p>The graph must be fully constructed before the machine parser is created, and must not be
+ * modified afterwards. The compiled program is immutable, and the machine stack is stored in the
+ * parse ({@link Parse#state_data}), so machine parsers can be shared between concurrent parses.
+ */
+public final class MachineParser extends AbstractWrapper
+{
+    // ---------------------------------------------------------------------------------------------
+
+    // Instructions, followed by their operands (a: address, k: constant index, x: flags).
+
+    /** Success of the program. */
+    static final int HALT           = 0;
+    /** Pushes a call frame (x: frame flags) and jumps to a. */
+    static final int CALL           = 1;
+    /** Pops a call frame and jumps to its return address. */
+    static final int RETURN         = 2;
+    /** Calls {@link Parser#parse} on the parser k. */
+    static final int PARSER         = 3;
+    /** Matches a character satisfying the predicate of the {@link CharPredicate} k (x: exclude). */
+    static final int CHAR           = 4;
+    /** Matches the string k (x: exclude). */
+    static final int STRING         = 5;
+    /** Fails (x: exclude). */
+    static final int FAIL           = 6;
+    /** Pushes a backtrack frame (x: frame flags), with a as handler. */
+    static final int BRANCH         = 7;
+    /** Pops a backtrack frame and jumps to a. */
+    static final int COMMIT         = 8;
+    /** Fails if {@link Parse#cut} is set. */
+    static final int FAIL_IF_CUT    = 9;
+    /** Pops a backtrack frame, restores the error state it saved, and fails. */
+    static final int FAIL_NOT       = 10;
+    /** Resets the position to the position saved in the top (call) frame. */
+    static final int RESET_POS      = 11;
+    /** Saves the size of the value stack in the top (call) frame. */
+    static final int SAVE_STACK     = 12;
+    /** Applies the action of the {@link Collect} k after success of its child. */
+    static final int COLLECT        = 13;
+    /** Applies the action of the {@link Collect} k after failure of its child. */
+    static final int COLLECT_FAILED = 14;
+    /**
+     * Looks up the {@link Memo} k, or the parser k with a memoizer ({@link
+     * Parser#set_memoizer}); on success, jumps to a.
+     */
+    static final int MEMO_GET       = 15;
+    /**
+     * Memoizes the result of the {@link Memo} k, or of the parser k with a memoizer (x: success),
+     * then continues or fails.
+     */
+    static final int MEMO_PUT       = 16;
+
+    // ---------------------------------------------------------------------------------------------
+
+    // Frame flags.
+
+    /** Backtrack frame (otherwise, call frame). */
+    static final int F_BACKTRACK    = 1;
+    /** Call frame for a parser whose errors are excluded. */
+    static final int F_EXCLUDE      = 2;
+    /** Call frame saving and clearing {@link Parse#cut} (for choices and memos). */
+    static final int F_CUT          = 4;
+    /** Backtrack frame restoring the error state (for negations). */
+    static final int F_NOT          = 8;
+    /** With {@link #F_CUT}, keeps the cut flag if set by the callee (for memos). */
+    static final int F_KEEP_CUT     = 16;
+
+    // ---------------------------------------------------------------------------------------------
+
+    // Frame layout: int slots, followed by object slots (at the same index / FRAME).
+
+    private static final int FRAME  = 6;
+    private static final int FLAGS  = 0;
+    /** Return address (call frames) or handler address (backtrack frames). */
+    private static final int ADDR   = 1;
+    private static final int POS    = 2;
+    private static final int LOG    = 3;
+    private static final int ERR    = 4;
+    /** Saved cut flag (choices), value stack size (collects). */
+    private static final int AUX    = 5;
+
+    /** Per frame: saved error message, context object (memos). */
+    private static final int OBJECTS = 2;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final int[] code;
+    private final Parser[] parsers;
+    private final CharPredicate[] predicates;
+    private final String[] strings;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The machine stack, shared by all machine parsers within a parse. Invocations nested within
+     * a parser called by the machine push their frames on top of the existing ones.
+     */
+    private static final class Stack
+    {
+        int[] frames = new int[FRAME * 64];
+        Object[] objects = new Object[OBJECTS * 64];
+        int top = 0;
+
+        /** Reserves space for a new frame and returns its index. */
+        int push()
+        {
+            int f = top;
+            if ((top += FRAME) > frames.length) {
+                frames = Arrays.copyOf(frames, frames.length * 2);
+                objects = Arrays.copyOf(objects, objects.length * 2);
+            }
+            return f;
+        }
+    }
+
+    private static final ParseState<Stack> stacks = new ParseState<>(Stack.class, Stack::new);
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Compiles the graph rooted at {@code child} into a machine program.
+     */
+    public MachineParser (Parser child)
+    {
+        super("machine", child);
+        MachineCompiler compiler = new MachineCompiler(child);
+        code = compiler.code();
+        parsers = compiler.parsers.toArray(new Parser[0]);
+        predicates = new CharPredicate[parsers.length];
+        strings = compiler.strings.toArray(new String[0]);
+        for (int i = 0; i < parsers.length; ++i)
+            if (parsers[i] instanceof CharPredicate)
+                predicates[i] = (CharPredicate) parsers[i];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a readable listing of the compiled program, for inspection purposes.
+     */
+    public String program() {
+        return MachineCompiler.disassemble(code, parsers, strings);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override protected boolean doparse (Parse parse)
+    {
+        if (parse.options.trace || parse.options.record_call_stack)
+            return child.parse(parse);
+
+        Stack stack = stacks.data(parse);
+        int base = stack.top;
+        try {
+            return run(parse, stack, base);
+        }
+        finally {
+            stack.top = base;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the program, using the frames of {@code stack} above {@code base}.
+     */
+    private boolean run (Parse parse, Stack stack, int base)
+    {
+        final int[] code = this.code;
+        int[] frames = stack.frames;
+        int pc = 0;
+        int f;
+
+        //noinspection InfiniteLoopStatement
+        loop: while (true)
+        {
+            int op = code[pc];
+            switch (op)
+            {
+                case HALT:
+                    return true;
+
+                case CALL:
+                    f = stack.push();
+                    frames = stack.frames;
+                    frames[f + FLAGS] = code[pc + 2];
+                    frames[f + ADDR]  = pc + 3;
+                    frames[f + POS]   = parse.pos;
+                    frames[f + LOG]   = parse.log.size();
+                    frames[f + ERR]   = parse.error;
+                    stack.objects[f / FRAME * OBJECTS] = parse.error_message();
+                    if ((code[pc + 2] & F_CUT) != 0) {
+                        frames[f + AUX] = parse.cut ? 1 : 0;
+                        parse.cut = false;
+                    }
+                    pc = code[pc + 1];
+                    continue loop;
+
+                case RETURN:
+                    f = stack.top -= FRAME;
+                    if ((frames[f + FLAGS] & F_EXCLUDE) != 0)
+                        restore_error(parse, stack, f);
+                    if ((frames[f + FLAGS] & F_CUT) != 0)
+                        restore_cut(parse, frames, f);
+                    pc = frames[f + ADDR];
+                    continue loop;
+
+                case PARSER:
+                    boolean success = parsers[code[pc + 1]].parse(parse);
+                    frames = stack.frames; // nested machine parsers may have grown the stack
+                    if (success) {
+                        pc += 2;
+                        continue loop;
+                    }
+                    break;
+
+                case CHAR:
+                    if (predicates[code[pc + 1]].test(parse.char_at(parse.pos))) {
+                        ++ parse.pos;
+                        pc += 3;
+                        continue loop;
+                    }
+                    primitive_failure(parse, code[pc + 2] != 0);
+                    break;
+
+                case STRING: {
+                    String string = strings[code[pc + 1]];
+                    if (parse.match(parse.pos, string)) {
+                        parse.pos += string.length();
+                        pc += 3;
+                        continue loop;
+                    }
+                    primitive_failure(parse, code[pc + 2] != 0);
+                    break;
+                }
+
+                case FAIL:
+                    primitive_failure(parse, code[pc + 1] != 0);
+                    break;
+
+                case BRANCH:
+                    f = stack.push();
+                    frames = stack.frames;
+                    frames[f + FLAGS] = F_BACKTRACK | code[pc + 2];
+                    frames[f + ADDR]  = code[pc + 1];
+                    frames[f + POS]   = parse.pos;
+                    frames[f + LOG]   = parse.log.size();
+                    if ((code[pc + 2] & F_NOT) != 0) {
+                        frames[f + ERR] = parse.error;
+                        stack.objects[f / FRAME * OBJECTS] = parse.error_message();
+                    }
+                    pc += 3;
+                    continue loop;
+
+                case COMMIT:
+                    stack.top -= FRAME;
+                    pc = code[pc + 1];
+                    continue loop;
+
+                case FAIL_IF_CUT:
+                    if (!parse.cut) {
+                        pc += 1;
+                        continue loop;
+                    }
+                    break;
+
+                case FAIL_NOT:
+                    f = stack.top -= FRAME;
+                    restore_error(parse, stack, f);
+                    break;
+
+                case RESET_POS:
+                    parse.pos = frames[stack.top - FRAME + POS];
+                    pc += 1;
+                    continue loop;
+
+                case SAVE_STACK:
+                    frames[stack.top - FRAME + AUX] = parse.stack.size();
+                    pc += 1;
+                    continue loop;
+
+                case COLLECT:
+                case COLLECT_FAILED: {
+                    Collect collect = (Collect) parsers[code[pc + 1]];
+                    f = stack.top - FRAME;
+                    int size0 = frames[f + AUX];
+                    Object[] items = op == COLLECT_FAILED
+                        ? null
+                        : collect.pop
+                            ? parse.stack.pop_from(size0 - collect.lookback)
+                            : parse.stack.peek_from(size0 - collect.lookback, Object[]::new);
+                    collect.action.apply(parse, items, frames[f + POS], size0);
+                    pc += 2;
+                    continue loop;
+                }
+
+                case MEMO_GET: {
+                    Parser memo = parsers[code[pc + 1]];
+                    Object ctx = context(memo, parse);
+                    stack.objects[(stack.top - FRAME) / FRAME * OBJECTS + 1] = ctx;
+                    MemoEntry entry = memoizer(memo, parse).get(memoized(memo), parse.pos, ctx);
+                    if (entry == null) {
+                        pc += 3;
+                        continue loop;
+                    }
+                    if (entry.succeeded()) {
+                        parse.pos = entry.end_position;
+                        parse.log.apply(entry.delta);
+                        pc = code[pc + 2];
+                        continue loop;
+                    }
+                    break;
+                }
+
+                case MEMO_PUT: {
+                    Parser memo = parsers[code[pc + 1]];
+                    f = stack.top - FRAME;
+                    Object ctx = stack.objects[f / FRAME * OBJECTS + 1];
+                    stack.objects[f / FRAME * OBJECTS + 1] = null;
+                    boolean succeeded = code[pc + 2] != 0;
+                    // entries don't record cuts, so results that cut the enclosing choice can't
+                    // be replayed
+                    if (!parse.cut)
+                        memoizer(memo, parse).memoize(new MemoEntry(succeeded, memoized(memo),
+                            frames[f + POS], parse.pos, parse.log.delta(frames[f + LOG]), ctx));
+                    if (succeeded) {
+                        pc += 3;
+                        continue loop;
+                    }
+                    break;
+                }
+
+                default:
+                    throw new Error("unknown instruction " + op + " at " + pc);
+            }
+
+            // failure: unwind to the last backtrack frame
+
+            while (true)
+            {
+                if (stack.top == base)
+                    return false;
+
+                f = stack.top -= FRAME;
+                int flags = frames[f + FLAGS];
+                int pos0 = frames[f + POS];
+                int log0 = frames[f + LOG];
+
+                if ((flags & F_BACKTRACK) != 0)
+                {
+                    parse.pos = pos0;
+                    if (parse.log.size() > log0)
+                        parse.log.rollback(log0);
+                    if ((flags & F_NOT) != 0)
+                        restore_error(parse, stack, f);
+                    pc = frames[f + ADDR];
+                    continue loop;
+                }
+
+                // replicates the failure bookkeeping of Parser#parse
+
+                String errmsg0 = (String) stack.objects[f / FRAME * OBJECTS];
+                stack.objects[f / FRAME * OBJECTS + 1] = null;
+
+                if ((flags & F_EXCLUDE) != 0)
+                    restore_error(parse, stack, f);
+                else if (parse.error <= pos0) {
+                    parse.error = pos0;
+                    //noinspection StringEquality
+                    if (errmsg0 != null && parse.error_message() == errmsg0)
+                        parse.set_error_message(null);
+                }
+
+                if ((flags & F_CUT) != 0)
+                    restore_cut(parse, frames, f);
+
+                parse.check_backtrack(pos0);
+                parse.pos = pos0;
+                if (parse.log.size() > log0)
+                    parse.log.rollback(log0);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Restores the cut flag saved in call frame {@code f}, keeping it if it was set by the callee
+     * and the frame is flagged with {@link #F_KEEP_CUT}.
+     */
+    private static void restore_cut (Parse parse, int[] frames, int f)
+    {
+        parse.cut = frames[f + AUX] != 0
+            || (frames[f + FLAGS] & F_KEEP_CUT) != 0 && parse.cut;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the memoizer of {@code memo}: either a {@link Memo}, or a parser with a memoizer
+     * ({@link Parser#set_memoizer}).
+     */
+    private static Memoizer memoizer (Parser memo, Parse parse)
+    {
+        return memo instanceof Memo
+            ? ((Memo) memo).memoizer.data(parse)
+            : memo.memoizer().data(parse);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the parser whose results {@code memo} memoizes (cf. {@link #memoizer}).
+     */
+    private static Parser memoized (Parser memo) {
+        return memo instanceof Memo ? ((Memo) memo).child : memo;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the context for the entries memoized by {@code memo} (cf. {@link #memoizer}).
+     */
+    private static Object context (Parser memo, Parse parse)
+    {
+        return memo instanceof Memo && ((Memo) memo).context_extractor != null
+            ? ((Memo) memo).context_extractor.apply(parse)
+            : null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Restores the error state saved in frame {@code f}.
+     */
+    private static void restore_error (Parse parse, Stack stack, int f)
+    {
+        parse.error = stack.frames[f + ERR];
+        String errmsg0 = (String) stack.objects[f / FRAME * OBJECTS];
+        //noinspection StringEquality
+        if (parse.error_message() != errmsg0)
+            parse.set_error_message(errmsg0);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Performs the failure bookkeeping of {@link Parser#parse} for a primitive parser.
+     */
+    private static void primitive_failure (Parse parse, boolean exclude)
+    {
+        if (!exclude && parse.error <= parse.pos) {
+            parse.error = parse.pos;
+            if (parse.error_message() != null)
+                parse.set_error_message(null);
+        }
+        parse.check_backtrack(parse.pos);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,253 @@
+package norswap.autumn.compiler;
+
+import norswap.autumn.Parse;
+import norswap.autumn.Parser;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import static norswap.utils.Util.cast;
+
+/**
+ * Compiles parser graphs to JVM bytecode, by generating the source of a specialized class (cf.
+ * {@link ParserSourceEmitter}), compiling it with the system Java compiler and loading it through a
+ * dedicated class loader.
+ *
+ * <p>In the generated code, every parser of a supported type becomes a pair of static methods,
+ * which call the methods of the parser's children directly (monomorphic calls that the JIT can
+ * inline), instead of going through the virtual {@link Parser#parse} and {@link Parser#doparse}
+ * methods. Other parsers (e.g. custom parsers, tokens, left-recursion) are called through their
+ * regular {@link Parser#parse} method, meaning the sub-graphs below them are interpreted.
+ *
+ * <p>Parsers in the compiled graph are referenced by the generated code: stack actions, predicates
+ * and memoizers are reused by reference. The graph must be fully constructed before compilation
+ * and must not be modified afterwards.
+ *
+ * <p>Compilation requires a JDK (not just a JRE) at runtime, see {@link #available()}.
+ */
+public final class ParserCompiler
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private ParserCompiler () {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String PACKAGE = "norswap.autumn.compiled";
+
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    /** Maps the names of the classes being loaded to the parsers they reference. */
+    private static final ConcurrentHashMap<String, Parser[]> pending = new ConcurrentHashMap<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns true iff the system Java compiler is available, which is required for compilation.
+     */
+    public static boolean available() {
+        return ToolProvider.getSystemJavaCompiler() != null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the source code of the class that {@link #compile(Parser)} would generate for the
+     * graph rooted at {@code root}, for inspection purposes.
+     */
+    public static String source (Parser root) {
+        return new ParserSourceEmitter(root).emit(PACKAGE, "Example", "null");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a parser that returns the same results as {@code root}, but runs compiled code.
+     *
+     * @throws Error if the system Java compiler is not available or if the compilation fails.
+     */
+    public static CompiledParser compile (Parser root)
+    {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null)
+            throw new Error("Parser compilation requires the system Java compiler (run on a JDK).");
+
+        String simple_name = "CompiledGrammar" + counter.incrementAndGet();
+        String name = PACKAGE + "." + simple_name;
+
+        ParserSourceEmitter emitter = new ParserSourceEmitter(root);
+        String source = emitter.emit(PACKAGE, simple_name,
+            ParserCompiler.class.getName() + ".nodes(\"" + name + "\")");
+
+        MemoryFileManager files
+            = new MemoryFileManager(javac.getStandardFileManager(null, null, null));
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        List<String> options = Arrays.asList("-classpath", classpath(), "-nowarn");
+
+        boolean success = javac.getTask(null, files, diagnostics, options, null,
+            Collections.singletonList(new SourceFile(name, source))).call();
+
+        if (!success) {
+            StringBuilder b = new StringBuilder("Parser compilation failed:");
+            for (Diagnostic<?> diagnostic: diagnostics.getDiagnostics())
+                b.append("\n").append(diagnostic);
+            throw new Error(b.toString());
+        }
+
+        pending.put(name, emitter.nodes.toArray(new Parser[0]));
+        try {
+            Class<?> klass = Class.forName(name, true, new MemoryClassLoader(files.classes));
+            Predicate<Parse> compiled = cast(klass.getField("ROOT").get(null));
+            return new CompiledParser(root, compiled);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new Error(e);
+        }
+        finally {
+            pending.remove(name);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the parsers referenced by the compiled class with the given name. Only for use by
+     * the generated code.
+     */
+    public static Parser[] nodes (String class_name) {
+        return pending.get(class_name);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the parsers of the graph rooted at {@code root}, in the order expected by generated
+     * code. Only for use by the code generated by {@link ParserGenerator}.
+     *
+     * @throws Error if the graph doesn't have {@code count} nodes, indicating that it changed since
+     * the code was generated.
+     */
+    public static Parser[] nodes (Parser root, int count)
+    {
+        List<Parser> nodes = ParserSourceEmitter.nodes(root);
+        if (nodes.size() != count)
+            throw new Error("The grammar has " + nodes.size() + " compiled parsers, but the "
+                + "generated code expects " + count + ": the code must be regenerated.");
+        return nodes.toArray(new Parser[0]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the classpath for compiling generated classes: the location of the Autumn classes,
+     * followed by the classpath of the JVM.
+     */
+    private static String classpath()
+    {
+        String classpath = System.getProperty("java.class.path");
+        try {
+            String autumn = new File(Parser.class.getProtectionDomain().getCodeSource()
+                .getLocation().toURI()).getPath();
+            return autumn + File.pathSeparator + classpath;
+        }
+        catch (Exception e) {
+            // no code source (or not a file): hope for the best
+            return classpath;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class SourceFile extends SimpleJavaFileObject
+    {
+        private final String source;
+
+        SourceFile (String class_name, String source)
+        {
+            super(URI.create("string:///" + class_name.replace('.', '/') + Kind.SOURCE.extension),
+                Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override public CharSequence getCharContent (boolean ignore_encoding_errors) {
+            return source;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class ClassFile extends SimpleJavaFileObject
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        ClassFile (String class_name)
+        {
+            super(URI.create("bytes:///" + class_name.replace('.', '/') + Kind.CLASS.extension),
+                Kind.CLASS);
+        }
+
+        @Override public OutputStream openOutputStream() {
+            return bytes;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class MemoryFileManager extends ForwardingJavaFileManager<JavaFileManager>
+    {
+        final HashMap<String, ClassFile> classes = new HashMap<>();
+
+        MemoryFileManager (StandardJavaFileManager manager) {
+            super(manager);
+        }
+
+        @Override public JavaFileObject getJavaFileForOutput
+                (Location location, String class_name, JavaFileObject.Kind kind, FileObject sibling)
+        {
+            ClassFile file = new ClassFile(class_name);
+            classes.put(class_name, file);
+            return file;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class MemoryClassLoader extends ClassLoader
+    {
+        private final HashMap<String, ClassFile> classes;
+
+        MemoryClassLoader (HashMap<String, ClassFile> classes)
+        {
+            super(ParserCompiler.class.getClassLoader());
+            this.classes = classes;
+        }
+
+        @Override protected Class<?> findClass (String name) throws ClassNotFoundException
+        {
+            ClassFile file = classes.get(name);
+            if (file == null) throw new ClassNotFoundException(name);
+            byte[] bytes = file.bytes.toByteArray();
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,153 @@
+package norswap.autumn.compiler;
+
+import norswap.autumn.DSL;
+import norswap.autumn.Parser;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Generates the Java source of a compiled parser for a grammar class, to be used at build time.
+ *
+ * <p>The generated class is the same as the one {@link ParserCompiler#compile(Parser)} would
+ * compile at runtime, except that it is compiled along with the rest of the code base. When the
+ * class is initialized, it instantiates the grammar class and retrieves the parsers of the grammar
+ * graph, whose stack actions, predicates and memoizers are reused by reference. No reflection is
+ * involved. The compiled parser is available through the {@code PARSER} static field.
+ *
+ * <p>Because of this, the grammar class must be public, with a public no-argument constructor,
+ * and the root rule must be a public field. The grammar must build the same graph every time it is
+ * instantiated, and the code must be regenerated whenever the grammar changes (a mismatch in the
+ * number of parsers is detected at initialization time). Memoizers ({@link Parser#set_memoizer})
+ * are compiled in, so they must be installed by the grammar constructor as well.
+ *
+ * <p>Run {@link #main} with arguments {@code <grammar class> <output directory> [<root rule field>
+ * [<class name>]]}. The rule field defaults to {@code root}, the class name to the grammar class'
+ * name suffixed with {@code Parser}. The class is generated in the same package as the grammar
+ * class, and is written at the appropriate location under the output directory. For instance,
+ * from Maven:
+ *
+ * <pre>{@code
+ * mvn exec:java -Dexec.mainClass=norswap.autumn.compiler.ParserGenerator \
+ *     -Dexec.args="norswap.lang.java.GrammarFast target/generated-sources/autumn"
+ * }</pre>
+ */
+public final class ParserGenerator
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private ParserGenerator () {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the source of a compiled parser class named {@code class_name} (in the package of
+     * the grammar class) for the rule held in the field {@code rule_field} of the grammar class.
+     *
+     * @throws IllegalArgumentException if the grammar class or the rule field do not satisfy the
+     * requirements outlined in the class documentation.
+     */
+    public static String generate
+            (Class<? extends DSL> grammar_class, String rule_field, String class_name)
+    {
+        if (!Modifier.isPublic(grammar_class.getModifiers())
+                || grammar_class.getEnclosingClass() != null
+                    && !Modifier.isStatic(grammar_class.getModifiers()))
+            throw new IllegalArgumentException(
+                "Grammar class is not a public top-level or static nested class: " + grammar_class);
+
+        DSL grammar;
+        Field field;
+        try {
+            grammar = grammar_class.getConstructor().newInstance();
+            field = grammar_class.getField(rule_field);
+        }
+        catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(
+                "Grammar class has no public no-argument constructor: " + grammar_class);
+        }
+        catch (NoSuchFieldException e) {
+            throw new IllegalArgumentException(
+                "Grammar class has no public field named " + rule_field + ": " + grammar_class);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new Error(e);
+        }
+
+        if (field.getType() != DSL.rule.class || Modifier.isStatic(field.getModifiers()))
+            throw new IllegalArgumentException(
+                "Field " + rule_field + " of " + grammar_class + " is not a rule instance field.");
+
+        grammar.make_rule_names();
+        Parser root;
+        try {
+            root = ((DSL.rule) field.get(grammar)).get();
+        }
+        catch (IllegalAccessException e) {
+            throw new Error(e);
+        }
+
+        ParserSourceEmitter emitter = new ParserSourceEmitter(root);
+        String nodes_init = String.format("%s.nodes(new %s().%s.get(), %d)",
+            ParserCompiler.class.getName(), grammar_class.getCanonicalName(), rule_field,
+            emitter.nodes.size());
+
+        Package pkg = grammar_class.getPackage();
+        return emitter.emit(pkg == null ? null : pkg.getName(), class_name, nodes_init);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Generates the source of a compiled parser class, and writes it under the given output
+     * directory. Returns the path of the written file.
+     *
+     * @see #generate(Class, String, String)
+     */
+    public static Path generate (Class<? extends DSL> grammar_class, String rule_field,
+            String class_name, Path output_directory) throws IOException
+    {
+        String source = generate(grammar_class, rule_field, class_name);
+        Package pkg = grammar_class.getPackage();
+
+        Path directory = pkg == null
+            ? output_directory
+            : output_directory.resolve(pkg.getName().replace('.', '/'));
+
+        Files.createDirectories(directory);
+        Path file = directory.resolve(class_name + ".java");
+        Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Entry point, see the class documentation.
+     */
+    public static void main (String[] args) throws Exception
+    {
+        if (args.length < 2 || args.length > 4) {
+            System.err.println("usage: ParserGenerator <grammar class> <output directory> "
+                + "[<root rule field> [<class name>]]");
+            System.exit(1);
+        }
+
+        Class<?> klass = Class.forName(args[0]);
+        if (!DSL.class.isAssignableFrom(klass))
+            throw new IllegalArgumentException("Not a grammar class: " + klass);
+
+        Class<? extends DSL> grammar_class = klass.asSubclass(DSL.class);
+        String rule_field = args.length > 2 ? args[2] : "root";
+        String class_name = args.length > 3 ? args[3] : klass.getSimpleName() + "Parser";
+
+        Path file = generate(grammar_class, rule_field, class_name, Paths.get(args[1]));
+        System.out.println("generated " + file);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
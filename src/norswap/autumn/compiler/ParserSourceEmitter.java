@@ -0,0 +1,564 @@
+package norswap.autumn.compiler;
+
+import norswap.autumn.Parser;
+import norswap.autumn.parsers.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Emits the source of a Java class that implements a parser graph as a set of static methods, one
+ * per parser.
+ *
+ * <p>The parsers of the graph are discovered from the root, in a deterministic order (cf. {@link
+ * #nodes(Parser)}), and each is assigned an index in this order. The generated class receives the
+ * parsers as an array (the expression initializing it is supplied by the caller), in the same
+ * order.
+ *
+ * <p>For each parser whose type is supported ({@link #compilable(Parser)}), two methods are
+ * generated: {@code p<index>}, which replicates the bookkeeping of {@link Parser#parse}, and {@code
+ * d<index>}, which implements the parser's {@link Parser#doparse} logic with direct calls to the
+ * methods of its children. Other parsers are called through their regular {@link Parser#parse}
+ * method (and their descendants are not compiled).
+ *
+ * <p>If such a parser has a memoizer ({@link Parser#set_memoizer}), {@code p<index>} looks up and
+ * stores the results of the parser in the memoizer, and the bookkeeping moves to {@code
+ * u<index>}.
+ *
+ * <p>Tracing ({@link norswap.autumn.ParseOptions#trace}) and call stack recording ({@link
+ * norswap.autumn.ParseOptions#record_call_stack}) are not supported by the generated code.
+ */
+final class ParserSourceEmitter
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Parsers of the graph, in discovery order. */
+    final List<Parser> nodes;
+
+    private final IdentityHashMap<Parser, Integer> ids = new IdentityHashMap<>();
+
+    private final StringBuilder b = new StringBuilder();
+
+    // ---------------------------------------------------------------------------------------------
+
+    ParserSourceEmitter (Parser root)
+    {
+        nodes = nodes(root);
+        for (int i = 0; i < nodes.size(); ++i)
+            ids.put(nodes.get(i), i);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns whether the generated code implements the logic of the given parser, instead of
+     * calling its {@link Parser#parse} method.
+     */
+    static boolean compilable (Parser parser)
+    {
+        return parser instanceof Sequence
+            || parser instanceof Choice
+            || parser instanceof Repeat
+            || parser instanceof Optional
+            || parser instanceof Lookahead
+            || parser instanceof Not
+            || parser instanceof Collect
+            || parser instanceof Memo && parser.memoizer() == null
+            || parser instanceof LazyParser
+            || parser instanceof AbstractForwarding
+            || parser instanceof StringMatch
+            || parser instanceof CharPredicate
+            || parser instanceof Empty
+            || parser instanceof Fail;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the children called by the generated code for the given parser.
+     */
+    private static List<Parser> compiled_children (Parser parser)
+    {
+        if (parser instanceof Sequence)
+            return ((Sequence) parser).children();
+        if (parser instanceof Choice)
+            return ((Choice) parser).children();
+        if (parser instanceof Repeat)
+            return Collections.singletonList(((Repeat) parser).child);
+        if (parser instanceof Optional)
+            return Collections.singletonList(((Optional) parser).child);
+        if (parser instanceof Lookahead)
+            return Collections.singletonList(((Lookahead) parser).child);
+        if (parser instanceof Not)
+            return Collections.singletonList(((Not) parser).child);
+        if (parser instanceof Collect)
+            return Collections.singletonList(((Collect) parser).child);
+        if (parser instanceof Memo)
+            return Collections.singletonList(((Memo) parser).child);
+        if (parser instanceof LazyParser)
+            return Collections.singletonList(((LazyParser) parser).child());
+        if (parser instanceof AbstractForwarding)
+            return Collections.singletonList(((AbstractForwarding) parser).forwardee);
+        if (parser instanceof StringMatch && ((StringMatch) parser).whitespace != null)
+            return Collections.singletonList(((StringMatch) parser).whitespace);
+        return Collections.emptyList();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the parsers reachable from {@code root} through compilable parsers (cf. {@link
+     * #compilable(Parser)}), in breadth-first discovery order. The order is deterministic: calling
+     * this method on two identically constructed grammars yields matching lists.
+     */
+    static List<Parser> nodes (Parser root)
+    {
+        ArrayList<Parser> nodes = new ArrayList<>();
+        IdentityHashMap<Parser, Boolean> seen = new IdentityHashMap<>();
+        nodes.add(root);
+        seen.put(root, true);
+
+        for (int i = 0; i < nodes.size(); ++i) {
+            Parser parser = nodes.get(i);
+            if (!compilable(parser)) continue;
+            for (Parser child: compiled_children(parser))
+                if (seen.put(child, true) == null)
+                    nodes.add(child);
+        }
+        return nodes;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the source of a class with the given name, implementing the parser graph.
+     *
+     * <p>{@code nodes_init} is a Java expression of type {@code Parser[]}, evaluating to the
+     * parsers of the graph in discovery order (cf. {@link #nodes(Parser)}).
+     *
+     * <p>The generated class has a public static {@code ROOT} field of type {@code
+     * Predicate<Parse>} that runs the root parser.
+     */
+    String emit (String package_name, String class_name, String nodes_init)
+    {
+        b.setLength(0);
+
+        if (package_name != null && !package_name.isEmpty())
+            line("package %s;", package_name).line("");
+
+        line("import norswap.autumn.Parse;");
+        line("import norswap.autumn.Parser;");
+        line("import norswap.autumn.StackAction;");
+        line("import norswap.autumn.compiler.CompiledParser;");
+        line("import norswap.autumn.memo.MemoEntry;");
+        line("import norswap.autumn.memo.Memoizer;");
+        line("import norswap.autumn.parsers.*;");
+        line("import java.util.function.Predicate;");
+        line("");
+        line("public final class %s", class_name);
+        line("{");
+        line("    private static final Parser[] K = %s;", nodes_init);
+        line("");
+
+        for (int i = 0; i < nodes.size(); ++i)
+            emit_constants(i, nodes.get(i));
+
+        line("");
+        line("    public static final Predicate<Parse> ROOT = %s::p0;", class_name);
+        line("");
+        line("    public static final CompiledParser PARSER = new CompiledParser(K[0], ROOT);");
+        line("");
+        line("    // failure of a primitive parser, at the current position");
+        line("    private static boolean failure (Parse parse)");
+        line("    {");
+        line("        if (parse.error <= parse.pos) {");
+        line("            parse.error = parse.pos;");
+        line("            if (parse.error_message() != null) parse.set_error_message(null);");
+        line("        }");
+        line("        parse.check_backtrack(parse.pos);");
+        line("        return false;");
+        line("    }");
+        line("");
+        line("    // failure of a primitive parser with excluded errors, at the current position");
+        line("    private static boolean excluded_failure (Parse parse)");
+        line("    {");
+        line("        parse.check_backtrack(parse.pos);");
+        line("        return false;");
+        line("    }");
+
+        for (int i = 0; i < nodes.size(); ++i)
+            emit_parser(i, nodes.get(i));
+
+        line("}");
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ParserSourceEmitter line (String format, Object... args)
+    {
+        b.append(args.length == 0 ? format : String.format(format, args)).append('\n');
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private String call (Parser child) {
+        return "p" + ids.get(child) + "(parse)";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the name of the type used to declare the constant holding {@code parser}. This is
+     * always a public type.
+     */
+    private static String type (Parser parser)
+    {
+        if (parser instanceof CharPredicate)    return "CharPredicate";
+        if (parser instanceof Collect)          return "Collect";
+        if (parser instanceof Memo)             return "Memo";
+        return "Parser";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void emit_constants (int i, Parser parser)
+    {
+        String type = type(parser);
+        line("    static final %s k%d = %sK[%d];",
+            type, i, type.equals("Parser") ? "" : "(" + type + ") ", i);
+
+        if (parser instanceof Collect)
+            line("    static final StackAction a%d = k%d.action;", i, i);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void emit_parser (int i, Parser parser)
+    {
+        line("");
+        line("    // %s", comment(parser));
+
+        if (!compilable(parser)) {
+            line("    static boolean p%d (Parse parse) {", i);
+            line("        return k%d.parse(parse);", i);
+            line("    }");
+            return;
+        }
+
+        String name = "p" + i;
+
+        if (parser.memoizer() != null) {
+            emit_memo(i, parser);
+            line("");
+            name = "u" + i;
+        }
+
+        if (primitive(parser))
+            emit_primitive(name, i, parser);
+        else {
+            emit_bookkeeping(name, i, parser);
+            line("");
+            line("    private static boolean d%d (Parse parse)", i);
+            line("    {");
+            emit_body(i, parser);
+            line("    }");
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the parser is a primitive that never modifies the parse state when it fails, and
+     * never modifies the log or the error state.
+     */
+    static boolean primitive (Parser parser)
+    {
+        return parser instanceof CharPredicate
+            || parser instanceof StringMatch && ((StringMatch) parser).whitespace == null
+            || parser instanceof Empty
+            || parser instanceof Fail;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits a method that replicates {@link Parser#parse}, calling the {@code d<index>} method
+     * instead of {@link Parser#doparse}. Call stacks are never recorded, as the generated code is
+     * not used in that case (cf. {@link CompiledParser}).
+     */
+    private void emit_bookkeeping (String name, int i, Parser parser)
+    {
+        boolean exclude = parser.exclude_errors;
+
+        line("    static boolean %s (Parse parse)", name);
+        line("    {");
+        line("        int pos0 = parse.pos;");
+        line("        int log0 = parse.log.size();");
+        if (exclude)
+            line("        int err0 = parse.error;");
+        line("        String errmsg0 = parse.error_message();");
+        line("        boolean result = d%d(parse);", i);
+        if (exclude) {
+            line("        parse.error = err0;");
+            line("        if (parse.error_message() != errmsg0) parse.set_error_message(errmsg0);");
+        }
+        line("        if (result) return true;");
+        if (!exclude) {
+            line("        if (parse.error <= pos0) {");
+            line("            parse.error = pos0;");
+            line("            if (errmsg0 != null && parse.error_message() == errmsg0)");
+            line("                parse.set_error_message(null);");
+            line("        }");
+        }
+        line("        parse.check_backtrack(pos0);");
+        line("        parse.pos = pos0;");
+        line("        if (parse.log.size() > log0) parse.log.rollback(log0);");
+        line("        return false;");
+        line("    }");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits a single method for a primitive parser (cf. {@link #primitive(Parser)}), which only
+     * needs to perform bookkeeping on failure.
+     */
+    private void emit_primitive (String name, int i, Parser parser)
+    {
+        line("    static boolean %s (Parse parse)", name);
+        line("    {");
+
+        if (parser instanceof CharPredicate) {
+            line("        if (k%d.test(parse.char_at(parse.pos))) {", i);
+            line("            ++ parse.pos;");
+            line("            return true;");
+            line("        }");
+        }
+        else if (parser instanceof StringMatch) {
+            String string = ((StringMatch) parser).string;
+            line("        if (parse.match(parse.pos, %s)) {", literal(string));
+            line("            parse.pos += %d;", string.length());
+            line("            return true;");
+            line("        }");
+        }
+        else if (parser instanceof Empty) {
+            line("        return true;");
+            line("    }");
+            return;
+        }
+
+        line(parser.exclude_errors
+            ? "        return excluded_failure(parse);"
+            : "        return failure(parse);");
+        line("    }");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits a method that replicates {@link Parser#parse} for a parser with a memoizer ({@link
+     * Parser#set_memoizer}): it looks up the result of the parser in the memoizer, and otherwise
+     * calls the {@code u<index>} method (the unmemoized version of the parser) and memoizes its
+     * result.
+     */
+    private void emit_memo (int i, Parser parser)
+    {
+        line("    static boolean p%d (Parse parse)", i);
+        line("    {");
+        line("        Memoizer memo = k%d.memoizer().data(parse);", i);
+        line("        int pos0 = parse.pos;");
+        line("        MemoEntry entry = memo.get(k%d, pos0, null);", i);
+        line("        if (entry != null) {");
+        line("            if (entry.succeeded()) {");
+        line("                parse.pos = entry.end_position;");
+        line("                parse.log.apply(entry.delta);");
+        line("                return true;");
+        line("            }");
+        line(parser.exclude_errors
+            ? "            return excluded_failure(parse);"
+            : "            return failure(parse);");
+        line("        }");
+        line("        int log0 = parse.log.size();");
+        line("        boolean cut0 = parse.cut;");
+        line("        parse.cut = false;");
+        line("        boolean success = u%d(parse);", i);
+        line("        if (!parse.cut)");
+        line("            memo.memoize(new MemoEntry(success, k%d, pos0, parse.pos,", i);
+        line("                success ? parse.log.delta(log0) : null, null));");
+        line("        parse.cut |= cut0;");
+        line("        return success;");
+        line("    }");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a single-line description of the parser, to be used as a comment.
+     */
+    private static String comment (Parser parser)
+    {
+        String name = parser.getClass().getSimpleName();
+        return parser.rule() != null
+            ? name + " " + parser.rule().replaceAll("[\\\\\\s]", " ")
+            : name;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void emit_body (int i, Parser parser)
+    {
+        if (parser instanceof Sequence)
+        {
+            List<Parser> children = ((Sequence) parser).children();
+            if (children.isEmpty()) {
+                line("        return true;");
+                return;
+            }
+            StringBuilder expr = new StringBuilder();
+            for (Parser child: children) {
+                if (expr.length() > 0) expr.append("\n            && ");
+                expr.append(call(child));
+            }
+            line("        return %s;", expr);
+        }
+        else if (parser instanceof Choice)
+        {
+            line("        boolean cut0 = parse.cut;");
+            line("        parse.cut = false;");
+            line("        boolean result = false;");
+            line("        choice: {");
+            for (Parser child: ((Choice) parser).children()) {
+                line("            if (%s) { result = true; break choice; }", call(child));
+                line("            if (parse.cut) break choice;");
+            }
+            line("        }");
+            line("        parse.cut = cut0;");
+            line("        return result;");
+        }
+        else if (parser instanceof Repeat)
+        {
+            Repeat repeat = (Repeat) parser;
+            String child = call(repeat.child);
+            if (repeat.min > 0)
+                line("        for (int i = 0; i < %d; ++i) if (!%s) return false;",
+                    repeat.min, child);
+            if (!repeat.exact)
+                line("        while (%s) ;", child);
+            line("        return true;");
+        }
+        else if (parser instanceof Optional)
+        {
+            line("        %s;", call(((Optional) parser).child));
+            line("        return true;");
+        }
+        else if (parser instanceof Lookahead)
+        {
+            line("        int pos0 = parse.pos;");
+            line("        if (%s) {", call(((Lookahead) parser).child));
+            line("            parse.pos = pos0;");
+            line("            return true;");
+            line("        }");
+            line("        return false;");
+        }
+        else if (parser instanceof Not)
+        {
+            line("        int err0 = parse.error;");
+            line("        String errmsg0 = parse.error_message();");
+            line("        boolean success = !%s;", call(((Not) parser).child));
+            line("        parse.error = err0;");
+            line("        if (parse.error_message() != errmsg0) parse.set_error_message(errmsg0);");
+            line("        return success;");
+        }
+        else if (parser instanceof Collect)
+        {
+            Collect collect = (Collect) parser;
+            line("        int pos0 = parse.pos;");
+            line("        int size0 = parse.stack.size();");
+            line("        boolean result = %s;", call(collect.child));
+            String items = String.format(collect.pop
+                    ? "parse.stack.pop_from(size0 - %d)"
+                    : "parse.stack.peek_from(size0 - %d, Object[]::new)",
+                collect.lookback);
+            if (collect.action_on_fail)
+                line("        Object[] items = result ? %s : null;", items);
+            else {
+                line("        if (!result) return false;");
+                line("        Object[] items = %s;", items);
+            }
+            line("        a%d.apply(parse, items, pos0, size0);", i);
+            line("        return true;");
+        }
+        else if (parser instanceof Memo)
+        {
+            Memo memo = (Memo) parser;
+            line("        Object ctx = %s;", memo.context_extractor != null
+                ? "k" + i + ".context_extractor.apply(parse)"
+                : "null");
+            line("        Memoizer memo = k%d.memoizer.data(parse);", i);
+            line("        MemoEntry entry = memo.get(k%d.child, parse.pos, ctx);", i);
+            line("        if (entry != null) {");
+            line("            if (!entry.succeeded()) return false;");
+            line("            parse.pos = entry.end_position;");
+            line("            parse.log.apply(entry.delta);");
+            line("            return true;");
+            line("        }");
+            line("        int pos0 = parse.pos;");
+            line("        int log0 = parse.log.size();");
+            line("        boolean cut0 = parse.cut;");
+            line("        parse.cut = false;");
+            line("        entry = new MemoEntry(%s, k%d.child, pos0, parse.pos, "
+                + "parse.log.delta(log0), ctx);", call(memo.child), i);
+            line("        if (!parse.cut) memo.memoize(entry);");
+            line("        parse.cut |= cut0;");
+            line("        return entry.succeeded();");
+        }
+        else if (parser instanceof LazyParser)
+        {
+            line("        return %s;", call(((LazyParser) parser).child()));
+        }
+        else if (parser instanceof AbstractForwarding)
+        {
+            line("        return %s;", call(((AbstractForwarding) parser).forwardee));
+        }
+        else if (parser instanceof StringMatch)
+        {
+            StringMatch match = (StringMatch) parser;
+            line("        if (!parse.match(parse.pos, %s)) return false;", literal(match.string));
+            line("        parse.pos += %d;", match.string.length());
+            line("        return %s;", call(match.whitespace));
+        }
+        else throw new Error("unsupported parser: " + parser.getClass());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a Java string literal for the given string.
+     */
+    static String literal (String string)
+    {
+        StringBuilder b = new StringBuilder("\"");
+        for (int i = 0; i < string.length(); ++i)
+        {
+            char c = string.charAt(i);
+            switch (c) {
+                case '"':  b.append("\\\""); break;
+                case '\\': b.append("\\\\"); break;
+                case '\n': b.append("\\n");  break;
+                case '\r': b.append("\\r");  break;
+                case '\t': b.append("\\t");  break;
+                default:
+                    if (c < 0x20 || c > 0x7E)
+                        b.append(String.format("\\u%04x", (int) c));
+                    else
+                        b.append(c);
+            }
+        }
+        return b.append('"').toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
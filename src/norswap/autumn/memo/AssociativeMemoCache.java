@@ -0,0 +1,211 @@
+package norswap.autumn.memo;
+
+import norswap.autumn.LineMap;
+import norswap.autumn.Parser;
+import norswap.utils.Strings;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.Function;
+
+/**
+ * A {@link Memoizer} implementation that memoizes a bounded number of results, like {@link
+ * MemoCache}, but organized as a set-associative cache.
+ *
+ * <p>The slots are partitioned in sets of {@link #associativity} slots. A result can only be stored
+ * in the set selected by its hash ({@link Memoizer#hash}), so lookups only need to examine that
+ * set, and take O({@link #associativity}) time regardless of the total number of slots. This makes
+ * it possible to use caches with thousands of slots, whereas lookups in a {@link MemoCache} scan
+ * all of its slots.
+ *
+ * <p>Within a set, results are replaced in least-recently-used order: each set is kept sorted
+ * from the most to the least recently used (memoized or retrieved) result.
+ *
+ * <p>Unlike {@link MemoCache}, the cache does not necessarily retain the last {@link #num_slots}
+ * results: a result may be evicted earlier if many results map to the same set.
+ *
+ * <p>The cache has two mode of operations depending on its {@link #match_parser} parameter. If
+ * true, it will take into account the parser when storing/retrieving entries — otherwise it will
+ * only take into account the input position and the optional context object.
+ */
+public final class AssociativeMemoCache implements Memoizer
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Default value for {@link #associativity}. */
+    public static final int DEFAULT_ASSOCIATIVITY = 4;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Hashes of the stored entries, or 0 for empty slots. Sets are stored contiguously. */
+    private final int[] hashes;
+
+    private final MemoEntry[] entries;
+
+    /** {@code num_sets - 1} */
+    private final int set_mask;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The number of slots in each set.
+     */
+    public final int associativity;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The number of sets (a power of two).
+     */
+    public final int num_sets;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The number of slots in this cache ({@code num_sets * associativity}).
+     */
+    public final int num_slots;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether queries to the table should check the parser when returning an entry, or just
+     * the start position.
+     */
+    public final boolean match_parser;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a cache with at least {@code num_slots} slots, organized in sets of {@code
+     * associativity} slots. The number of sets is rounded up to a power of two.
+     */
+    public AssociativeMemoCache (int num_slots, int associativity, boolean match_parser)
+    {
+        if (associativity <= 0 || num_slots <= 0) throw new IllegalArgumentException
+            ("A memo cache must have a strictly positive number of slots and associativity.");
+
+        int sets = (num_slots + associativity - 1) / associativity;
+        sets = sets == 1 ? 1 : Integer.highestOneBit(sets - 1) << 1;
+
+        this.associativity = associativity;
+        this.num_sets = sets;
+        this.num_slots = sets * associativity;
+        this.match_parser = match_parser;
+        this.set_mask = sets - 1;
+        this.hashes = new int[this.num_slots];
+        this.entries = new MemoEntry[this.num_slots];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a cache with at least {@code num_slots} slots, with the {@link
+     * #DEFAULT_ASSOCIATIVITY}.
+     */
+    public AssociativeMemoCache (int num_slots, boolean match_parser) {
+        this(num_slots, DEFAULT_ASSOCIATIVITY, match_parser);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the index of the first slot of the set for the given hash.
+     */
+    private int set (int hash)
+    {
+        // For a given parser and context, the hashes of consecutive positions (the common case)
+        // differ by an odd constant, so their low bits spread them evenly over all the sets.
+        return (hash & set_mask) * associativity;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Moves the slot at index {@code i} to the front of the set starting at {@code start}, shifting
+     * the preceding slots back.
+     */
+    private void move_to_front (int start, int i, int hash, MemoEntry entry)
+    {
+        System.arraycopy(hashes,  start, hashes,  start + 1, i - start);
+        System.arraycopy(entries, start, entries, start + 1, i - start);
+        hashes[start] = hash;
+        entries[start] = entry;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void memoize (MemoEntry entry)
+    {
+        int hash = Memoizer.hash(match_parser, entry);
+        int start = set(hash);
+        // evicts the least recently used slot (the last one) if the set is full
+        move_to_front(start, start + associativity - 1, hash, entry);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public MemoEntry get (Parser parser, int pos, Object ctx)
+    {
+        int hash = Memoizer.hash(match_parser, parser, pos, ctx);
+        int start = set(hash);
+        int end = start + associativity;
+
+        for (int i = start; i < end; ++i)
+        {
+            if (hashes[i] == 0)
+                return null;
+            if (hashes[i] == hash && entries[i].matches(match_parser, parser, pos, ctx)) {
+                MemoEntry entry = entries[i];
+                if (i != start) move_to_front(start, i, hash, entry);
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private String string (String sep, Function<MemoEntry, String> f)
+    {
+        ArrayList<MemoEntry> list = new ArrayList<>();
+        for (MemoEntry entry: entries)
+            if (entry != null) list.add(entry);
+
+        list.sort(Comparator.comparingInt(x -> x.start_position));
+        StringBuilder b = new StringBuilder();
+        Strings.separated(b, sep, list.stream().map(f).toArray(String[]::new));
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public boolean clear()
+    {
+        Arrays.fill(hashes, 0);
+        Arrays.fill(entries, null);
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString (LineMap map)
+    {
+        return "AssociativeMemoCache { " + string(", ", e -> e.toString(map)) + "}";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String listing (LineMap map)
+    {
+        return string("\n", e -> e.listing_string(map, match_parser));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString() {
+        return toString(null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
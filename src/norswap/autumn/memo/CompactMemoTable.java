@@ -0,0 +1,263 @@
+package norswap.autumn.memo;
+
+import norswap.autumn.LineMap;
+import norswap.autumn.Parser;
+import norswap.autumn.SideEffect;
+import norswap.utils.Strings;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A {@link Memoizer} implementation that memoizes every result it is passed, like {@link
+ * MemoTable}, but which stores results in parallel primitive arrays instead of retaining the
+ * {@link MemoEntry} objects it is passed.
+ *
+ * <p>Parsers and context objects are interned and identified by an integer index. Each result is
+ * described by a hash, a parser index, a start position, an end position and a context index, all
+ * stored in {@code int} arrays. Side effect lists are only stored for results that have non-empty
+ * deltas — the array holding them is only allocated when the first such result is memoized.
+ *
+ * <p>This vastly reduces the number of live objects when memoizing large inputs, at the cost of
+ * allocating a short-lived {@link MemoEntry} whenever {@link #get} finds a result.
+ *
+ * <p>Like {@link MemoTable}, the table has two mode of operations depending on its {@link
+ * #match_parser} parameter. If true, it will take into account the parser when storing/retrieving
+ * entries — otherwise it will only take into account the input position and the optional context
+ * object.
+ */
+public final class CompactMemoTable implements Memoizer
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Max load factor for the table. */
+    private static final double MAX_LOAD = 0.75;
+
+    /** Amount of table slots occupied. */
+    private int occupied = 0;
+
+    /** Hashes of the stored results (never 0 for an occupied slot), or 0 for empty slots. */
+    private int[] hashes = new int[16];
+
+    /** Index of the result's parser in {@link #parsers}. */
+    private int[] parser_ids = new int[16];
+
+    /** Start positions of the results. */
+    private int[] starts = new int[16];
+
+    /** End positions of the results, or -1 for failures. */
+    private int[] ends = new int[16];
+
+    /** Index of the result's context in {@link #contexts}, or -1 for a null context. */
+    private int[] context_ids = new int[16];
+
+    /** Non-empty deltas of the results (null for empty deltas), or null if no such deltas yet. */
+    private List<SideEffect>[] deltas = null;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final ArrayList<Parser> parsers = new ArrayList<>();
+    private final HashMap<Parser, Integer> parser_index = new HashMap<>();
+
+    private final ArrayList<Object> contexts = new ArrayList<>();
+    private final HashMap<Object, Integer> context_index = new HashMap<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether queries to the table should use parser information when storing/retrieving an entry,
+     * or just the start position and optional context object.
+     */
+    public final boolean match_parser;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public CompactMemoTable (boolean match_parser) {
+        this.match_parser = match_parser;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static <T> int intern (T object, ArrayList<T> objects, HashMap<T, Integer> index)
+    {
+        Integer i = index.get(object);
+        if (i != null) return i;
+        index.put(object, objects.size());
+        objects.add(object);
+        return objects.size() - 1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Stores the given result in the first empty slot from its hash, under the assumption that the
+     * table is large enough. Does not update {@link #occupied}.
+     */
+    private void insert (int hash, int parser, int start, int end, int ctx, List<SideEffect> delta)
+    {
+        int mask = hashes.length - 1;
+        int i = hash & mask;
+        while (hashes[i] != 0)
+            i = (i + 1) & mask;
+
+        hashes[i]       = hash;
+        parser_ids[i]   = parser;
+        starts[i]       = start;
+        ends[i]         = end;
+        context_ids[i]  = ctx;
+
+        if (!delta.isEmpty()) {
+            if (deltas == null) deltas = new_deltas(hashes.length);
+            deltas[i] = delta;
+        }
+        else if (deltas != null)
+            deltas[i] = null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @SuppressWarnings("unchecked")
+    private static List<SideEffect>[] new_deltas (int size) {
+        return (List<SideEffect>[]) new List<?>[size];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void grow()
+    {
+        int[] hashes0 = hashes, parser_ids0 = parser_ids, starts0 = starts, ends0 = ends;
+        int[] context_ids0 = context_ids;
+        List<SideEffect>[] deltas0 = deltas;
+        int len = hashes0.length * 2;
+
+        hashes      = new int[len];
+        parser_ids  = new int[len];
+        starts      = new int[len];
+        ends        = new int[len];
+        context_ids = new int[len];
+        deltas      = deltas0 == null ? null : new_deltas(len);
+
+        for (int j = 0; j < hashes0.length; ++j)
+            if (hashes0[j] != 0)
+                insert(hashes0[j], parser_ids0[j], starts0[j], ends0[j], context_ids0[j],
+                    deltas0 == null || deltas0[j] == null
+                        ? Collections.emptyList()
+                        : deltas0[j]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void memoize (MemoEntry entry)
+    {
+        if (++occupied > hashes.length * MAX_LOAD)
+            grow();
+
+        insert(Memoizer.hash(match_parser, entry),
+            intern(entry.parser, parsers, parser_index),
+            entry.start_position,
+            entry.end_position,
+            entry.ctx == null ? -1 : intern(entry.ctx, contexts, context_index),
+            entry.delta);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public MemoEntry get (Parser parser, int pos, Object ctx)
+    {
+        int parser_id = -1;
+        if (match_parser) {
+            Integer id = parser_index.get(parser);
+            if (id == null) return null;
+            parser_id = id;
+        }
+
+        int ctx_id = -1;
+        if (ctx != null) {
+            Integer id = context_index.get(ctx);
+            if (id == null) return null;
+            ctx_id = id;
+        }
+
+        int hash = Memoizer.hash(match_parser, parser, pos, ctx);
+        int mask = hashes.length - 1;
+
+        for (int i = hash & mask; hashes[i] != 0; i = (i + 1) & mask)
+            if (hashes[i] == hash
+                    && starts[i] == pos
+                    && context_ids[i] == ctx_id
+                    && (!match_parser || parser_ids[i] == parser_id))
+                return entry(i);
+
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Materializes the result stored in slot {@code i}.
+     */
+    private MemoEntry entry (int i)
+    {
+        List<SideEffect> delta = deltas == null || deltas[i] == null
+            ? Collections.emptyList()
+            : deltas[i];
+
+        return new MemoEntry(ends[i] >= 0, parsers.get(parser_ids[i]), starts[i], ends[i], delta,
+            context_ids[i] < 0 ? null : contexts.get(context_ids[i]));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private String string (String sep, Function<MemoEntry, String> f)
+    {
+        ArrayList<MemoEntry> entries = new ArrayList<>();
+        for (int i = 0; i < hashes.length; ++i)
+            if (hashes[i] != 0)
+                entries.add(entry(i));
+
+        entries.sort(Comparator.comparingInt(x -> x.start_position));
+        StringBuilder b = new StringBuilder();
+        Strings.separated(b, sep, entries.stream().map(f).toArray(String[]::new));
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public boolean clear()
+    {
+        Arrays.fill(hashes, 0);
+        if (deltas != null) Arrays.fill(deltas, null);
+        occupied = 0;
+        parsers.clear();
+        parser_index.clear();
+        contexts.clear();
+        context_index.clear();
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString (LineMap map)
+    {
+        return "CompactMemoTable { " + string(", ", e -> e.toString(map)) + "}";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String listing (LineMap map)
+    {
+        return string("\n", e -> e.listing_string(map, match_parser));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString() {
+        return toString(null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -92,6 +92,16 @@ public final class MemoCache implements Memoizer
 
     // ---------------------------------------------------------------------------------------------
 
+    @Override public boolean clear()
+    {
+        Arrays.fill(hashes, 0);
+        Arrays.fill(entries, null);
+        next = 0;
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     @Override public String toString (LineMap map)
     {
         return "MemoCache { " + string(", ", e -> e.toString(map)) + "}";
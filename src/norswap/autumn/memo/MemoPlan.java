@@ -0,0 +1,229 @@
+package norswap.autumn.memo;
+
+import norswap.autumn.ParseMetrics;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseState;
+import norswap.autumn.Parser;
+import norswap.autumn.ParserMetrics;
+import norswap.autumn.ParserWalker;
+import norswap.autumn.parsers.Memo;
+import norswap.utils.Slot;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A memoization plan: a mapping from rule names ({@link Parser#rule()}) to the kind of memoizer
+ * that should be used to memoize the rule — either a {@link MemoCache} with a given number of
+ * slots, or a {@link MemoTable}.
+ *
+ * <p>Plans are derived from the metrics of one or more training parses run in tracing mode ({@link
+ * ParseOptions#trace}), using {@link #derive(double, int, ParseMetrics...)}. Only the rules whose
+ * ratio of {@link ParserMetrics#reinvocations} to {@link ParserMetrics#invocations} is high enough
+ * are memoized. If almost all of their reinvocations occur at recently visited positions, a small
+ * {@link MemoCache} is used, otherwise a {@link MemoTable}.
+ *
+ * <p>Plans can be written out with {@link #toString()} and read back with {@link #parse(String)},
+ * so that a plan derived once can be committed alongside the grammar. The format has one rule per
+ * line, either {@code table <rule>} or {@code cache <slots> <rule>}. Empty lines and lines
+ * starting with {@code #} are ignored.
+ *
+ * <p>Apply a plan to a grammar with {@link #apply(Parser...)}, after the grammar has been
+ * constructed and its rules named (e.g. via {@link norswap.autumn.DSL#make_rule_names()}). The
+ * plan installs memoizers inside the parsers ({@link Parser#set_memoizer(ParseState)}), so that
+ * the rest of the grammar doesn't need to be rebuilt. Since these memoizers are not
+ * context-sensitive, the plan must not include rules whose results depend on the parse state.
+ */
+public final class MemoPlan
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Default minimum ratio of reinvocations to invocations for a rule to be memoized. */
+    public static final double DEFAULT_MIN_RATIO = 0.2;
+
+    /** Default minimum number of reinvocations for a rule to be memoized. */
+    public static final int DEFAULT_MIN_REINVOCATIONS = 10;
+
+    /**
+     * The proportion of the reinvocations of a rule that must occur at recent positions in order
+     * to use a {@link MemoCache} instead of a {@link MemoTable}.
+     */
+    public static final double CACHE_COVERAGE = 0.95;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Maps rule names to a number of {@link MemoCache} slots, or 0 for a {@link MemoTable}. */
+    private final Map<String, Integer> rules;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private MemoPlan (Map<String, Integer> rules) {
+        this.rules = rules;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns an unmodifiable map from rule names to a number of {@link MemoCache} slots, or 0 if
+     * the rule should be memoized in a {@link MemoTable}.
+     */
+    public Map<String, Integer> rules() {
+        return Collections.unmodifiableMap(rules);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * {@code return derive(DEFAULT_MIN_RATIO, DEFAULT_MIN_REINVOCATIONS, runs);}
+     * @see #derive(double, int, ParseMetrics...)
+     */
+    public static MemoPlan derive (ParseMetrics... runs) {
+        return derive(DEFAULT_MIN_RATIO, DEFAULT_MIN_REINVOCATIONS, runs);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Derives a plan from the metrics of the given training runs.
+     *
+     * <p>Metrics are aggregated by rule name: parsers without rule names, {@link Memo} parsers and
+     * parsers that already have a memoizer are ignored. A rule is included if it was reinvoked at
+     * least {@code min_reinvocations} times, making up at least {@code min_ratio} of its
+     * invocations.
+     */
+    public static MemoPlan derive (double min_ratio, int min_reinvocations, ParseMetrics... runs)
+    {
+        Map<String, long[]> totals = new LinkedHashMap<>();
+
+        // [invocations, reinvocations, reinvocations_by_recency...]
+        for (ParseMetrics run: runs)
+            for (ParserMetrics metrics: run.metrics.values())
+            {
+                Parser parser = metrics.parser;
+                if (parser.rule() == null || parser instanceof Memo || parser.memoizer() != null)
+                    continue;
+
+                long[] total = totals.computeIfAbsent(parser.rule(),
+                    k -> new long[2 + ParserMetrics.RECENT]);
+                total[0] += metrics.invocations;
+                total[1] += metrics.reinvocations;
+                for (int i = 0; i < ParserMetrics.RECENT; ++i)
+                    total[2 + i] += metrics.reinvocations_by_recency[i];
+            }
+
+        Map<String, Integer> rules = new LinkedHashMap<>();
+
+        totals.forEach((rule, total) ->
+        {
+            if (total[1] < min_reinvocations || total[1] < min_ratio * total[0])
+                return;
+
+            // smallest power-of-two cache that serves enough of the reinvocations, if any
+            int slots = 0;
+            long served = 0;
+            for (int i = 0; i < ParserMetrics.RECENT && slots == 0; ++i) {
+                served += total[2 + i];
+                if (Integer.bitCount(i + 1) == 1 && served >= CACHE_COVERAGE * total[1])
+                    slots = i + 1;
+            }
+
+            rules.put(rule, slots);
+        });
+
+        return new MemoPlan(rules);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses a plan in the format output by {@link #toString()}. Throws an {@link
+     * IllegalArgumentException} if the format is not respected.
+     */
+    public static MemoPlan parse (String text)
+    {
+        Map<String, Integer> rules = new LinkedHashMap<>();
+        String[] lines = text.split("\r?\n");
+
+        for (int i = 0; i < lines.length; ++i)
+        {
+            String line = lines[i].trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            String[] words = line.split("\\s+", 3);
+            try {
+                if (words[0].equals("table") && words.length >= 2)
+                    rules.put(line.substring(5).trim(), 0);
+                else if (words[0].equals("cache") && words.length == 3
+                        && Integer.parseInt(words[1]) > 0)
+                    rules.put(words[2], Integer.parseInt(words[1]));
+                else
+                    throw new IllegalArgumentException();
+            }
+            catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(
+                    "Malformed memoization plan at line " + (i + 1) + ": " + lines[i]);
+            }
+        }
+
+        return new MemoPlan(rules);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Installs memoizers in all the parsers reachable from {@code roots} whose rule name is
+     * included in the plan, and returns the number of such parsers. {@link Memo} parsers are
+     * left untouched.
+     *
+     * <p>This modifies the parsers in place: every grammar that shares them is affected. Copies
+     * made afterwards (e.g. by {@link norswap.autumn.visitors.GrammarOptimizer}) and compiled
+     * parsers keep the memoizers, so the plan can be applied before or after these steps.
+     */
+    public int apply (Parser... roots)
+    {
+        int[] count = { 0 };
+
+        ParserWalker walker = new ParserWalker() {
+            @Override protected void work (Parser parser, State state)
+            {
+                if (state != State.BEFORE || parser.rule() == null || parser instanceof Memo)
+                    return;
+
+                Integer slots = rules.get(parser.rule());
+                if (slots == null)
+                    return;
+
+                parser.set_memoizer(new ParseState<>(new Slot<>(parser), () -> slots == 0
+                    ? new MemoTable(false)
+                    : new MemoCache(slots, false)));
+
+                ++ count[0];
+            }
+        };
+
+        for (Parser root: roots)
+            walker.walk(root);
+
+        return count[0];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the plan in the format accepted by {@link #parse(String)}.
+     */
+    @Override public String toString ()
+    {
+        StringBuilder b = new StringBuilder();
+        rules.forEach((rule, slots) -> {
+            if (slots == 0)
+                b.append("table ").append(rule).append("\n");
+            else
+                b.append("cache ").append(slots).append(" ").append(rule).append("\n");
+        });
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
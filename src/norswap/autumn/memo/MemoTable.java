@@ -83,7 +83,7 @@ public final class MemoTable implements Memoizer
                 int pos2 = (int) hashes[i];
                 MemoEntry entry2 = entries[i];
 
-                hashes[i] = (displacement << 32) + hash;
+                hashes[i] = (displacement << 32) | (hash & 0xFFFFFFFFL);
                 entries[i] = entry;
 
                 if (displacement > max_displacement)
@@ -102,7 +102,7 @@ public final class MemoTable implements Memoizer
         if (displacement > max_displacement)
             max_displacement = displacement;
 
-        hashes[i] = (displacement << 32) + hash;
+        hashes[i] = (displacement << 32) | (hash & 0xFFFFFFFFL);
         entries[i] = entry;
     }
 
@@ -163,6 +163,17 @@ public final class MemoTable implements Memoizer
 
     // ---------------------------------------------------------------------------------------------
 
+    @Override public boolean clear()
+    {
+        Arrays.fill(hashes, 0);
+        Arrays.fill(entries, null);
+        occupied = 0;
+        max_displacement = 0;
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     @Override public String toString (LineMap map)
     {
         return "MemoTable { " + string(", ", e -> e.toString(map)) + "}";
@@ -29,11 +29,16 @@ public interface Memoizer
      *
      * <p>These hash values can be used to speed up lookups (when the memoizer takes the parser into
      * account), but a full comparison via {@link MemoEntry#matches} is still required.
+     *
+     * <p>Parsers belonging to a {@link norswap.autumn.FrozenGrammar} are hashed by id, others by
+     * identity.
      */
     static int hash (boolean match_parser, Parser parser, int pos, Object ctx)
     {
         int h = pos + 1;
-        if (match_parser) h = 31*h + Objects.hashCode(parser);
+        if (match_parser) h = 31*h + (parser != null && parser.id() >= 0
+            ? parser.id() * 0x9E3779B9 // spread the dense ids
+            : Objects.hashCode(parser));
         if (ctx != null)  h = 31*h + ctx.hashCode();
         if (h == 0) h = 1;
         return h;
@@ -88,4 +93,30 @@ public interface Memoizer
     String listing (LineMap map);
 
     // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Removes all entries from the memoizer, retaining its allocated storage where possible, and
+     * returns true. Returns false (and does nothing) if the memoizer does not support being
+     * cleared, which is the default.
+     *
+     * <p>Used by {@link norswap.autumn.ParseSession} to reuse memoizers across parses.
+     */
+    default boolean clear() {
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Indicates that the parse will never backtrack before {@code position} (cf. {@link
+     * norswap.autumn.Parse#commit()}), hence that the results starting before it won't be
+     * retrieved anymore, and may be evicted.
+     *
+     * <p>Does nothing by default. Only {@link WindowMemoTable} implements this method: the other
+     * tables would have to scan all of their entries to find the results to evict, while caches
+     * are bounded regardless.
+     */
+    default void commit (int position) {}
+
+    // ---------------------------------------------------------------------------------------------
 }
@@ -0,0 +1,431 @@
+package norswap.autumn.memo;
+
+import norswap.autumn.LineMap;
+import norswap.autumn.Parser;
+import norswap.autumn.SideEffect;
+import norswap.utils.Strings;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A {@link Memoizer} implementation that memoizes up to a fixed number of results ({@link
+ * #capacity}), storing them outside of the Java heap. Intended for very large inputs, where a
+ * {@link MemoTable} would fill the heap with entries and cause long garbage collection pauses.
+ *
+ * <p>Like {@link CompactMemoTable}, parsers and context objects are interned and identified by an
+ * integer index, and each result is described by a record holding a hash, a start position, an
+ * end position, a parser index and a context index. Records are appended in memoization order to
+ * direct {@link ByteBuffer}s ("slabs") of {@link #SLAB_SLOTS} records each, which are allocated as
+ * they are needed. Results are looked up through a separate hash table (with linear probing) of
+ * record numbers, which is also stored off-heap (4 bytes per slot). The hash table starts with
+ * {@link #SLAB_SLOTS} slots and doubles whenever it becomes 3/4 full, rehashing the records from
+ * the hashes they hold, up to at least 4/3 slots per result of capacity. Off-heap memory use
+ * therefore grows with the number of memoized results, up to a bound that is fixed at construction
+ * time ({@link #max_bytes()}). Only the non-empty side effect lists (and the interned parsers and
+ * contexts) are stored on the heap.
+ *
+ * <p>Looking up a result materializes it as a {@link MemoEntry}. The last {@link #RECENT}
+ * materialized entries are cached on the heap (indexed by record number), so that results that
+ * are hit repeatedly are only allocated once.
+ *
+ * <p>The table never grows: once {@link #capacity} results have been memoized, new results are
+ * handled according to the {@link Overflow} policy passed to the constructor.
+ *
+ * <p>Off-heap memory is released when the table becomes unreachable and is garbage collected — not
+ * by {@link #clear()}, which keeps it for reuse.
+ *
+ * <p>Like {@link MemoTable}, the table has two mode of operations depending on its {@link
+ * #match_parser} parameter. If true, it will take into account the parser when storing/retrieving
+ * entries — otherwise it will only take into account the input position and the optional context
+ * object.
+ */
+public final class OffHeapMemoTable implements Memoizer
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * What to do when a result is memoized in a table that already holds {@link #capacity} results.
+     */
+    public enum Overflow
+    {
+        /** Don't memoize the result. Results memoized so far are kept. */
+        DROP,
+        /** Discard all memoized results (as per {@link #clear()}), then memoize the result. */
+        CLEAR,
+        /** Throw a {@link MemoOverflowError}. */
+        THROW
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Thrown when a result is memoized in a full table whose overflow policy is {@link
+     * Overflow#THROW}.
+     */
+    public static final class MemoOverflowError extends Error
+    {
+        MemoOverflowError (int capacity) {
+            super("memoization table capacity exceeded: " + capacity + " results");
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Max load factor for the table. */
+    private static final double MAX_LOAD = 0.75;
+
+    /** Number of records per slab, and of index slots per index chunk (a power of two). */
+    public static final int SLAB_SLOTS = 1 << 16;
+
+    private static final int SLAB_SHIFT = 16;
+
+    /** Number of materialized entries cached on the heap (a power of two). */
+    public static final int RECENT = 256;
+
+    /** Size of a record in bytes, and offsets of its fields. */
+    private static final int SLOT = 20, HASH = 0, START = 4, END = 8, PARSER = 12, CONTEXT = 16;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The hash table, in chunks of {@link #SLAB_SLOTS} slots. Each slot holds a record number + 1,
+     * or 0 if the slot is empty.
+     */
+    private IntBuffer[] index;
+
+    /** {@code slots - 1} */
+    private int mask;
+
+    /** Maximum number of chunks in {@link #index}. */
+    private final int max_chunks;
+
+    /** Slabs of records, null until needed. Record {@code r} is in slab {@code r / SLAB_SLOTS}. */
+    private final ByteBuffer[] slabs;
+
+    /** Number of records, i.e. of memoized results. */
+    private int occupied = 0;
+
+    /** Non-empty deltas of the results, indexed by record number. */
+    private final HashMap<Integer, List<SideEffect>> deltas = new HashMap<>();
+
+    /**
+     * Recently materialized entries, at index {@code r % RECENT} for record {@code r}, which is
+     * held at the same index of {@link #recent_records} (-1 if none).
+     */
+    private final MemoEntry[] recent = new MemoEntry[RECENT];
+    private final int[] recent_records = new int[RECENT];
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final ArrayList<Parser> parsers = new ArrayList<>();
+    private final HashMap<Parser, Integer> parser_index = new HashMap<>();
+
+    private final ArrayList<Object> contexts = new ArrayList<>();
+    private final HashMap<Object, Integer> context_index = new HashMap<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The maximum number of results that can be memoized.
+     */
+    public final int capacity;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * What happens when more than {@link #capacity} results are memoized.
+     */
+    public final Overflow overflow;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether queries to the table should use parser information when storing/retrieving an entry,
+     * or just the start position and optional context object.
+     */
+    public final boolean match_parser;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a table that can hold up to {@code capacity} results.
+     */
+    public OffHeapMemoTable (int capacity, Overflow overflow, boolean match_parser)
+    {
+        if (capacity <= 0 || capacity > (1 << 30)) throw new IllegalArgumentException
+            ("The capacity of a memo table must be between 1 and 2^30.");
+
+        long min_slots = (long) Math.ceil(capacity / MAX_LOAD) + 1;
+        long slots = Math.max(SLAB_SLOTS, Long.highestOneBit(min_slots - 1) << 1);
+
+        this.capacity = capacity;
+        this.overflow = overflow;
+        this.match_parser = match_parser;
+        this.max_chunks = (int) (slots >>> SLAB_SHIFT);
+        this.index = new IntBuffer[] { chunk() };
+        this.mask = SLAB_SLOTS - 1;
+        this.slabs = new ByteBuffer[(capacity + SLAB_SLOTS - 1) >>> SLAB_SHIFT];
+        Arrays.fill(recent_records, -1);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static IntBuffer chunk()
+    {
+        return ByteBuffer.allocateDirect(SLAB_SLOTS * 4)
+            .order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of results currently memoized.
+     */
+    public int size() {
+        return occupied;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the amount of off-heap memory currently allocated by the table, in bytes.
+     */
+    public long allocated_bytes()
+    {
+        long count = 0;
+        for (ByteBuffer slab: slabs)
+            if (slab != null) ++ count;
+        return (long) index.length * SLAB_SLOTS * 4 + count * SLAB_SLOTS * SLOT;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the maximum amount of off-heap memory that the table may allocate, in bytes.
+     */
+    public long max_bytes() {
+        return (long) max_chunks * SLAB_SLOTS * 4 + (long) slabs.length * SLAB_SLOTS * SLOT;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static <T> int intern (T object, ArrayList<T> objects, HashMap<T, Integer> index)
+    {
+        Integer i = index.get(object);
+        if (i != null) return i;
+        index.put(object, objects.size());
+        objects.add(object);
+        return objects.size() - 1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the record number + 1 stored in index slot {@code i}, or 0 if the slot is empty.
+     */
+    private int slot (int i) {
+        return index[i >>> SLAB_SHIFT].get(i & SLAB_SLOTS - 1);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Stores record number {@code r} in the first empty index slot for {@code hash}.
+     */
+    private void insert (int hash, int r)
+    {
+        int i = hash & mask;
+        while (slot(i) != 0)
+            i = (i + 1) & mask;
+
+        index[i >>> SLAB_SHIFT].put(i & SLAB_SLOTS - 1, r + 1);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Doubles the size of the index, and re-inserts all records. The existing chunks are reused.
+     */
+    private void grow()
+    {
+        IntBuffer[] old = index;
+        index = Arrays.copyOf(old, old.length * 2);
+        mask = (int) ((long) index.length * SLAB_SLOTS - 1);
+
+        for (IntBuffer chunk: old)
+            for (int i = 0; i < SLAB_SLOTS; ++i)
+                chunk.put(i, 0);
+
+        for (int i = old.length; i < index.length; ++i)
+            index[i] = chunk();
+
+        for (int r = 0; r < occupied; ++r)
+            insert(field(r, HASH), r);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the value of the given field for record {@code r}.
+     */
+    private int field (int r, int offset) {
+        return slabs[r >>> SLAB_SHIFT].getInt((r & SLAB_SLOTS - 1) * SLOT + offset);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void memoize (MemoEntry entry)
+    {
+        if (occupied == capacity)
+            switch (overflow) {
+                case DROP:  return;
+                case CLEAR: clear(); break;
+                case THROW: throw new MemoOverflowError(capacity);
+            }
+
+        if (occupied >= MAX_LOAD * (mask + 1L) && index.length < max_chunks)
+            grow();
+
+        int r = occupied ++;
+        int hash = Memoizer.hash(match_parser, entry);
+        insert(hash, r);
+
+        ByteBuffer slab = slabs[r >>> SLAB_SHIFT];
+        if (slab == null)
+            slab = slabs[r >>> SLAB_SHIFT]
+                 = ByteBuffer.allocateDirect(SLAB_SLOTS * SLOT).order(ByteOrder.nativeOrder());
+
+        int offset = (r & SLAB_SLOTS - 1) * SLOT;
+        slab.putInt(offset + HASH,    hash);
+        slab.putInt(offset + START,   entry.start_position);
+        slab.putInt(offset + END,     entry.end_position);
+        slab.putInt(offset + PARSER,  intern(entry.parser, parsers, parser_index));
+        slab.putInt(offset + CONTEXT,
+            entry.ctx == null ? -1 : intern(entry.ctx, contexts, context_index));
+
+        if (!entry.delta.isEmpty())
+            deltas.put(r, entry.delta);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public MemoEntry get (Parser parser, int pos, Object ctx)
+    {
+        int parser_id = -1;
+        if (match_parser) {
+            Integer id = parser_index.get(parser);
+            if (id == null) return null;
+            parser_id = id;
+        }
+
+        int ctx_id = -1;
+        if (ctx != null) {
+            Integer id = context_index.get(ctx);
+            if (id == null) return null;
+            ctx_id = id;
+        }
+
+        int hash = Memoizer.hash(match_parser, parser, pos, ctx);
+
+        for (int i = hash & mask, r; (r = slot(i) - 1) >= 0; i = (i + 1) & mask)
+            if (field(r, HASH) == hash
+                    && field(r, START) == pos
+                    && field(r, CONTEXT) == ctx_id
+                    && (!match_parser || field(r, PARSER) == parser_id))
+                return entry(r);
+
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Materializes the result stored in record {@code r}, or returns it from {@link #recent}.
+     */
+    private MemoEntry entry (int r)
+    {
+        int k = r & RECENT - 1;
+        if (recent_records[k] == r)
+            return recent[k];
+
+        List<SideEffect> delta = deltas.get(r);
+        int end = field(r, END);
+        int ctx = field(r, CONTEXT);
+
+        MemoEntry entry = new MemoEntry(end >= 0, parsers.get(field(r, PARSER)), field(r, START),
+            end, delta == null ? Collections.emptyList() : delta,
+            ctx < 0 ? null : contexts.get(ctx));
+
+        recent[k] = entry;
+        recent_records[k] = r;
+        return entry;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private String string (String sep, Function<MemoEntry, String> f)
+    {
+        ArrayList<MemoEntry> entries = new ArrayList<>();
+        for (int r = 0; r < occupied; ++r)
+            entries.add(entry(r));
+
+        entries.sort(Comparator.comparingInt(x -> x.start_position));
+        StringBuilder b = new StringBuilder();
+        Strings.separated(b, sep, entries.stream().map(f).toArray(String[]::new));
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Removes all entries from the table. The allocated off-heap memory (including the grown
+     * index) is kept for reuse.
+     */
+    @Override public boolean clear()
+    {
+        if (occupied > 0)
+            for (IntBuffer chunk: index)
+                for (int i = 0; i < SLAB_SLOTS; ++i)
+                    chunk.put(i, 0);
+
+        occupied = 0;
+        deltas.clear();
+        Arrays.fill(recent, null);
+        Arrays.fill(recent_records, -1);
+        parsers.clear();
+        parser_index.clear();
+        contexts.clear();
+        context_index.clear();
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString (LineMap map)
+    {
+        return "OffHeapMemoTable { " + string(", ", e -> e.toString(map)) + "}";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String listing (LineMap map)
+    {
+        return string("\n", e -> e.listing_string(map, match_parser));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString() {
+        return toString(null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
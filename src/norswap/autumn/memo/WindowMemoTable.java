@@ -0,0 +1,235 @@
+package norswap.autumn.memo;
+
+import norswap.autumn.LineMap;
+import norswap.autumn.Parser;
+import norswap.utils.Strings;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.Function;
+
+/**
+ * A {@link Memoizer} implementation that memoizes every result whose start position lies at or
+ * above a watermark, and evicts all results below the watermark whenever it advances.
+ *
+ * <p>The watermark is advanced in two ways: explicitly, by calling {@link #commit(int)} with a
+ * position before which the parse will never backtrack; or automatically, by trailing the highest
+ * start position memoized so far by {@link #window} characters. In both cases, memory usage is
+ * bounded by the backtracking distance rather than by the size of the input. Use a window of
+ * {@link Integer#MAX_VALUE} to rely on explicit commits only.
+ *
+ * <p>Results below the watermark are not memoized, and lookups below the watermark always fail.
+ * Correctness is not impacted: results are simply recomputed.
+ *
+ * <p>Results are stored in a circular array of per-position buckets, which are reused once their
+ * position has been evicted.
+ *
+ * <p>The table has two mode of operations depending on its {@link #match_parser} parameter. If
+ * true, it will take into account the parser when storing/retrieving entries — otherwise it will
+ * only take into account the input position and the optional context object.
+ */
+public final class WindowMemoTable implements Memoizer
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Distance between the highest memoized start position and the watermark.
+     */
+    public final int window;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether queries to the table should use parser information when storing/retrieving an entry,
+     * or just the start position and optional context object.
+     */
+    public final boolean match_parser;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Lowest start position for which results are retained. */
+    private int watermark = 0;
+
+    /** Highest start position of a stored result, plus one (or {@link #watermark} if none). */
+    private int top = 0;
+
+    /**
+     * Circular array of buckets, the bucket for position {@code p} being at index {@code p & (
+     * buckets.length - 1)}. Its length is a power of two.
+     */
+    private MemoEntry[][] buckets = new MemoEntry[16][];
+
+    /** Number of entries in each bucket. */
+    private int[] counts = new int[16];
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a new table whose watermark trails the highest memoized start position by {@code
+     * window} characters (must be positive).
+     */
+    public WindowMemoTable (int window, boolean match_parser)
+    {
+        if (window < 0) throw new IllegalArgumentException(
+            "The window of a memo table must be positive.");
+
+        this.window = window;
+        this.match_parser = match_parser;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the lowest start position for which results are retained.
+     */
+    public int watermark() {
+        return watermark;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Indicates that the parse will never backtrack before {@code position}, hence that all results
+     * starting before it can be evicted. Has no effect if the watermark is already higher.
+     */
+    @Override public void commit (int position)
+    {
+        if (position <= watermark)
+            return;
+
+        int mask = buckets.length - 1;
+        int end = Math.min(position, top);
+
+        for (int p = watermark; p < end; ++p) {
+            int i = p & mask;
+            if (counts[i] > 0) {
+                Arrays.fill(buckets[i], 0, counts[i], null);
+                counts[i] = 0;
+            }
+        }
+
+        watermark = position;
+        if (top < position) top = position;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Grows the circular array so that it can hold positions from {@link #watermark} to {@code
+     * pos} (inclusive).
+     */
+    private void grow (int pos)
+    {
+        int len = buckets.length;
+        while (len <= pos - watermark) len *= 2;
+
+        MemoEntry[][] buckets0 = buckets;
+        int[] counts0 = counts;
+        int mask0 = buckets0.length - 1;
+        buckets = new MemoEntry[len][];
+        counts = new int[len];
+        int mask = len - 1;
+
+        for (int p = watermark; p < top; ++p) {
+            buckets[p & mask] = buckets0[p & mask0];
+            counts [p & mask] = counts0 [p & mask0];
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void memoize (MemoEntry entry)
+    {
+        int pos = entry.start_position;
+
+        if (window != Integer.MAX_VALUE && pos - window > watermark)
+            commit(pos - window);
+
+        if (pos < watermark)
+            return;
+
+        if (pos - watermark >= buckets.length)
+            grow(pos);
+
+        if (pos >= top)
+            top = pos + 1;
+
+        int i = pos & (buckets.length - 1);
+        MemoEntry[] bucket = buckets[i];
+
+        if (bucket == null)
+            buckets[i] = bucket = new MemoEntry[2];
+        else if (counts[i] == bucket.length)
+            buckets[i] = bucket = Arrays.copyOf(bucket, bucket.length * 2);
+
+        bucket[counts[i]++] = entry;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public MemoEntry get (Parser parser, int pos, Object ctx)
+    {
+        if (pos < watermark || pos >= top)
+            return null;
+
+        int i = pos & (buckets.length - 1);
+        MemoEntry[] bucket = buckets[i];
+
+        for (int j = 0; j < counts[i]; ++j)
+            if (bucket[j].matches(match_parser, parser, pos, ctx))
+                return bucket[j];
+
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private String string (String sep, Function<MemoEntry, String> f)
+    {
+        ArrayList<String> strings = new ArrayList<>();
+        int mask = buckets.length - 1;
+
+        for (int p = watermark; p < top; ++p)
+            for (int j = 0; j < counts[p & mask]; ++j)
+                strings.add(f.apply(buckets[p & mask][j]));
+
+        StringBuilder b = new StringBuilder();
+        Strings.separated(b, sep, strings.toArray(new String[0]));
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public boolean clear()
+    {
+        for (int i = 0; i < buckets.length; ++i)
+            if (counts[i] > 0) {
+                Arrays.fill(buckets[i], 0, counts[i], null);
+                counts[i] = 0;
+            }
+        watermark = 0;
+        top = 0;
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString (LineMap map)
+    {
+        return "WindowMemoTable { " + string(", ", e -> e.toString(map)) + "}";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String listing (LineMap map)
+    {
+        return string("\n", e -> e.listing_string(map, match_parser));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString() {
+        return toString(null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
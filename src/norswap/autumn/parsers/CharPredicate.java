@@ -4,6 +4,7 @@ import norswap.autumn.DSL;
 import norswap.autumn.Parse;
 import norswap.autumn.Parser;
 import norswap.autumn.ParserVisitor;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.function.IntPredicate;
 
@@ -19,8 +20,14 @@ import static norswap.autumn.util.ParserStringsUtil.escape_quoted_section;
  * <p>Build with {@link DSL#cpred(IntPredicate)}, {@link DSL#set(char...)}, {@link DSL#set(String)},
  * {@link DSL#range(char, char)}, as well a a few pre-defined parsers in {@link DSL}. Assign a name
  * with {@link DSL.rule#named(String)}.
+ *
+ * <p>Membership of ASCII characters is precomputed in a 128-bit bitmap at construction time. Sets
+ * built from characters (e.g. {@link #set(String)}, {@link #range(char, char)}) and the results of
+ * the set operations ({@link #union}, {@link #intersect}, {@link #negate}) also store non-ASCII
+ * characters in tables, while predicates built from a lambda only call the lambda for non-ASCII
+ * characters. Use {@link #test(int)} rather than {@link #predicate} to benefit from the tables.
  */
-public final class CharPredicate extends Parser
+public final class CharPredicate extends Parser implements IntPredicate
 {
     // ---------------------------------------------------------------------------------------------
 
@@ -31,10 +38,27 @@ public final class CharPredicate extends Parser
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * The predicate this parser was created with, or a view of the tables for sets.
+     */
     public final IntPredicate predicate;
 
     // ---------------------------------------------------------------------------------------------
 
+    /** Membership bitmap for characters 0-63 and 64-127. */
+    private final long low, high;
+
+    /** Membership bitmap for the whole Basic Multilingual Plane, or null. */
+    private final long[] table;
+
+    /** Predicate for non-ASCII characters if {@link #table} is null, or null. */
+    private final IntPredicate fallback;
+
+    /** Membership of non-ASCII characters if {@link #table} and {@link #fallback} are null. */
+    private final boolean rest;
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Creates a new parser that matches a single character that satisfies {@code predicate}.
      * {@code name} is used as display name for this parser.
@@ -43,6 +67,151 @@ public final class CharPredicate extends Parser
     {
         this.name = name;
         this.predicate = predicate;
+        long low = 0, high = 0;
+        for (int c = 0; c < 64; ++c) {
+            if (predicate.test(c))      low  |= 1L << c;
+            if (predicate.test(c + 64)) high |= 1L << c;
+        }
+        this.low = low;
+        this.high = high;
+        this.table = null;
+        this.fallback = predicate;
+        this.rest = false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private CharPredicate (String name, long low, long high, long[] table, boolean rest)
+    {
+        this.name = name;
+        this.predicate = this::test;
+        this.low = low;
+        this.high = high;
+        this.table = table;
+        this.fallback = null;
+        this.rest = rest;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a new parser that matches a single character contained in {@code chars}.
+     */
+    private static CharPredicate of (String name, CharSequence chars)
+    {
+        long low = 0, high = 0;
+        long[] table = null;
+        for (int i = 0; i < chars.length(); ++i) {
+            char c = chars.charAt(i);
+            if (c < 64)
+                low |= 1L << c;
+            else if (c < 128)
+                high |= 1L << c;
+            else {
+                if (table == null) table = new long[1024];
+                table[c >>> 6] |= 1L << c;
+            }
+        }
+        return new CharPredicate(name, low, high, table, false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the character {@code c} satisfies the predicate.
+     */
+    @Override public boolean test (int c)
+    {
+        if (c < 64)
+            return (low & 1L << c) != 0;
+        if (c < 128)
+            return (high & 1L << c) != 0;
+        if (table != null)
+            return c <= Character.MAX_VALUE && (table[c >>> 6] & 1L << c) != 0;
+        if (fallback != null)
+            return fallback.test(c);
+        return rest;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the membership table of non-ASCII characters, computing it if required (in which case
+     * the table may not be shared).
+     */
+    private long[] table()
+    {
+        if (table != null)
+            return table;
+        long[] table = new long[1024];
+        if (fallback == null) {
+            if (rest) Arrays.fill(table, -1L);
+        }
+        else
+            for (int c = 128; c <= Character.MAX_VALUE; ++c)
+                if (fallback.test(c))
+                    table[c >>> 6] |= 1L << c;
+        return table;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final int OR = 0, AND = 1;
+
+    private static long apply (int op, long a, long b) {
+        return op == OR ? a | b : a & b;
+    }
+
+    private CharPredicate combine (int op, String name, CharPredicate other)
+    {
+        long low  = apply(op, this.low,  other.low);
+        long high = apply(op, this.high, other.high);
+
+        if (this.table == null && this.fallback == null
+                && other.table == null && other.fallback == null)
+            return new CharPredicate(name, low, high, null,
+                op == OR ? this.rest || other.rest : this.rest && other.rest);
+
+        long[] a = this.table(), b = other.table(), table = new long[1024];
+        for (int i = 2; i < table.length; ++i)
+            table[i] = apply(op, a[i], b[i]);
+        return new CharPredicate(name, low, high, table, false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a new parser matching the characters matched by this parser or by {@code other}.
+     */
+    public CharPredicate union (CharPredicate other) {
+        return combine(OR, "(" + this + " | " + other + ")", other);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a new parser matching the characters matched by both this parser and {@code other}.
+     */
+    public CharPredicate intersect (CharPredicate other) {
+        return combine(AND, "(" + this + " & " + other + ")", other);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a new parser matching the characters not matched by this parser, except the nul
+     * ('\0') character, which stands for the end of the input (cf. {@link Parse#char_at(int)}).
+     */
+    public CharPredicate negate()
+    {
+        String name = "!" + this;
+        if (table == null && fallback == null)
+            return new CharPredicate(name, ~low & ~1L, ~high, null, !rest);
+
+        long[] a = table(), table = new long[1024];
+        for (int i = 2; i < table.length; ++i)
+            table[i] = ~a[i];
+        return new CharPredicate(name, ~low & ~1L, ~high, table, false);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -50,7 +219,7 @@ public final class CharPredicate extends Parser
     @Override public boolean doparse (Parse parse)
     {
         assert parse.string != null;
-        if (predicate.test(parse.char_at(parse.pos))) {
+        if (test(parse.char_at(parse.pos))) {
             ++ parse.pos;
             return true;
         }
@@ -78,12 +247,25 @@ public final class CharPredicate extends Parser
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Returns a string containing all the characters in the [start-end] range.
+     */
+    private static String chars (char start, char end)
+    {
+        StringBuilder b = new StringBuilder(Math.max(0, end - start + 1));
+        for (int c = start; c <= end; ++c)
+            b.append((char) c);
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Creates a new parser that matches any single character except the nul ('\0') character.
      */
     public static CharPredicate any ()
     {
-        return new CharPredicate("<any char>", it -> it != 0);
+        return new CharPredicate("<any char>", ~1L, -1L, null, true);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -93,7 +275,7 @@ public final class CharPredicate extends Parser
      */
     public static CharPredicate single (char c)
     {
-        return new CharPredicate("[" + escape_quoted_section("" + c) + "]", it -> it == c);
+        return of("[" + escape_quoted_section("" + c) + "]", "" + c);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -104,8 +286,7 @@ public final class CharPredicate extends Parser
     public static CharPredicate range (char start, char end)
     {
         String str = escape_quoted_section(start + "-" + end);
-        return new CharPredicate("[" + str + "]", it ->
-            start <= it && it <= end);
+        return of("[" + str + "]", chars(start, end));
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -115,8 +296,7 @@ public final class CharPredicate extends Parser
      */
     public static CharPredicate set (String chars)
     {
-        return new CharPredicate("[" + escape_quoted_section(chars) + "]", it ->
-            chars.indexOf(it) >= 0);
+        return of("[" + escape_quoted_section(chars) + "]", chars);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -136,8 +316,7 @@ public final class CharPredicate extends Parser
      */
     public static CharPredicate alpha()
     {
-        return new CharPredicate("<alpha>", it ->
-            'a' <= it && it <= 'z' || 'A' <= it && it <= 'Z');
+        return of("<alpha>", chars('a', 'z') + chars('A', 'Z'));
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -147,8 +326,7 @@ public final class CharPredicate extends Parser
      */
     public static CharPredicate alphanum()
     {
-        return new CharPredicate("<alpha>", it ->
-            'a' <= it && it <= 'z' || 'A' <= it && it <= 'Z' || '0' <= it && it <= '9');
+        return of("<alpha>", chars('a', 'z') + chars('A', 'Z') + chars('0', '9'));
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -158,8 +336,7 @@ public final class CharPredicate extends Parser
      */
     public static CharPredicate digit()
     {
-        return new CharPredicate("<digit>", it ->
-            '0' <= it && it <= '9');
+        return of("<digit>", chars('0', '9'));
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -170,8 +347,7 @@ public final class CharPredicate extends Parser
      */
     public static CharPredicate hex_digit()
     {
-        return new CharPredicate("<hex digit>", it ->
-            '0' <= it && it <= '9' || 'a' <= it && it <= 'f' || 'A' <= it && it <= 'F');
+        return of("<hex digit>", chars('0', '9') + chars('a', 'f') + chars('A', 'F'));
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -181,8 +357,7 @@ public final class CharPredicate extends Parser
      */
     public static CharPredicate octal_digit()
     {
-        return new CharPredicate("<octal digit>", it ->
-            '0' <= it && it <= '7');
+        return of("<octal digit>", chars('0', '7'));
     }
 
     // ---------------------------------------------------------------------------------------------
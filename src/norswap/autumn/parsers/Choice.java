@@ -4,7 +4,11 @@ import norswap.autumn.DSL;
 import norswap.autumn.Parse;
 import norswap.autumn.Parser;
 import norswap.autumn.ParserVisitor;
+import norswap.autumn.visitors.ChoiceDispatchCompiler;
+import norswap.autumn.visitors.VisitorFirstChars;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
 
@@ -14,6 +18,15 @@ import static norswap.utils.Strings.separated;
  * Matches the same thing as its first matching child, or fails if none succeed.
  *
  * <p>Build with {@link DSL#choice(Object...)}
+ *
+ * <p>The choice can optionally be compiled into a first-character dispatch table (see {@link
+ * #compile_dispatch(VisitorFirstChars)} and {@link ChoiceDispatchCompiler}), in which case only the
+ * children that may succeed on the character at the current input position are tried. The result
+ * of the parse (including {@link Parse#error} and {@link Parse#error_message()}) is identical to
+ * that of the undispatched choice.
+ *
+ * <p>If a {@link Cut} parser succeeds within a child, and that child fails, the remaining children
+ * are not tried and the choice fails.
  */
 public final class Choice extends Parser
 {
@@ -23,6 +36,15 @@ public final class Choice extends Parser
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * For each character index (cf. {@link VisitorFirstChars#index(char)}), the sequence of
+     * children to try, in order. A -1 entry stands for a run of skipped children whose failure
+     * would have been recorded in {@link Parse#error}. Null if dispatch wasn't compiled.
+     */
+    private int[][] dispatch;
+
+    // ---------------------------------------------------------------------------------------------
+
     @Override public List<Parser> children() {
         return Collections.unmodifiableList(Arrays.asList(children));
     }
@@ -35,11 +57,121 @@ public final class Choice extends Parser
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Compiles the first-character dispatch table of this choice, using the given visitor to
+     * determine which children may succeed on which characters.
+     *
+     * <p>This must be called after the {@link #exclude_errors} field of the children has been
+     * set to its final value.
+     */
+    public void compile_dispatch (VisitorFirstChars visitor) {
+        dispatch = dispatch_table(children, visitor);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Builds the first-character dispatch table for the given children: for each character index,
+     * the indices of the children that may succeed on that character, in order, where runs of
+     * skipped children whose failure would be recorded in {@link Parse#error} are replaced by -1.
+     *
+     * <p>Shared with {@link Longest}.
+     */
+    static int[][] dispatch_table (Parser[] children, VisitorFirstChars visitor)
+    {
+        BitSet[] admissible = new BitSet[children.length];
+        for (int i = 0; i < children.length; ++i)
+            admissible[i] = visitor.admissible(children[i]);
+
+        int[][] table = new int[VisitorFirstChars.SIZE][];
+        ArrayList<Integer> program = new ArrayList<>();
+
+        for (int c = 0; c < VisitorFirstChars.SIZE; ++c)
+        {
+            program.clear();
+            for (int i = 0; i < children.length; ++i)
+                if (admissible[i].get(c))
+                    program.add(i);
+                else if (!children[i].exclude_errors
+                        && (program.isEmpty() || program.get(program.size() - 1) != -1))
+                    program.add(-1);
+
+            table[c] = program.stream().mapToInt(x -> x).toArray();
+        }
+
+        return table;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Records the failure of skipped children (a -1 entry in a dispatch table), with the same
+     * effect as a child that fails without consuming input at {@code pos0}.
+     */
+    static void skip_failure (Parse parse, int pos0)
+    {
+        if (parse.error <= pos0) {
+            parse.error = pos0;
+            if (parse.error_message() != null)
+                parse.set_error_message(null);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether {@link #compile_dispatch(VisitorFirstChars)} has been called on this parser.
+     */
+    public boolean dispatch_compiled() {
+        return dispatch != null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     @Override public boolean doparse (Parse parse)
     {
-        for (Parser child: children)
+        boolean cut0 = parse.cut;
+        parse.cut = false;
+
+        // the call stack and the trace would differ if children were skipped
+        boolean result = dispatch == null || parse.string == null
+                || parse.options.record_call_stack || parse.options.trace
+            ? parse_children(parse)
+            : parse_dispatch(parse);
+
+        parse.cut = cut0;
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private boolean parse_children (Parse parse)
+    {
+        for (Parser child: children) {
             if (child.parse(parse))
                 return true;
+            if (parse.cut)
+                return false;
+        }
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private boolean parse_dispatch (Parse parse)
+    {
+        int pos0 = parse.pos;
+        for (int i: dispatch[VisitorFirstChars.index(parse.char_at(pos0))])
+        {
+            if (i >= 0) {
+                if (children[i].parse(parse))
+                    return true;
+                if (parse.cut)
+                    return false;
+            }
+            else
+                skip_failure(parse, pos0);
+        }
         return false;
     }
 
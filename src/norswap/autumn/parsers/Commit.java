@@ -0,0 +1,41 @@
+package norswap.autumn.parsers;
+
+import norswap.autumn.DSL;
+import norswap.autumn.Parse;
+import norswap.autumn.memo.WindowMemoTable;
+
+/**
+ * A parser that always succeeds, matching no input, and commits the parse to the current input
+ * position: the parse will never backtrack before this position. If a parser that started before
+ * this position fails (or is rolled back), the whole parse fails.
+ *
+ * <p>This lets the parse release the memory held for backtracking: the undo information of the
+ * side effects applied before the commit is discarded, and all {@link WindowMemoTable} memoizers
+ * evict the results that start before the commit position. See {@link Parse#commit()}.
+ *
+ * <p>This is typically used between top-level declarations of a large file, to keep memory flat.
+ * Committing must not be done within parsers that always backtrack or reparse the same input,
+ * such as {@link Lookahead}, {@link Not}, {@link Longest}, {@link LeftRecursive} or the base
+ * parsers of a {@link Tokens} instance: this would cause the parse to fail.
+ *
+ * <p>Also see {@link Cut}, whose effect is local to the innermost choice.
+ *
+ * <p>Build with {@link DSL#commit}.
+ */
+public final class Commit extends AbstractPrimitive
+{
+    // ---------------------------------------------------------------------------------------------
+
+    public Commit () {
+        super("commit", true);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override protected boolean doparse (Parse parse) {
+        parse.commit();
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
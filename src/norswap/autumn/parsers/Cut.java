@@ -0,0 +1,43 @@
+package norswap.autumn.parsers;
+
+import norswap.autumn.DSL;
+import norswap.autumn.Parse;
+
+/**
+ * A parser that always succeeds, matching no input, and prevents the innermost enclosing {@link
+ * Choice} from trying its remaining alternatives if the current alternative fails (the PEG "cut"
+ * operator).
+ *
+ * <p>For instance, in {@code choice(seq(str("if"), cut, cond), seq(id, str("=")))}, if {@code
+ * "if"} matches but {@code cond} doesn't, the choice fails without trying the second alternative.
+ * This avoids useless work and improves error reporting.
+ *
+ * <p>The cut only affects the innermost enclosing choice: once that choice returns (whether it
+ * succeeds or fails), the cut is forgotten. Other parsers that backtrack (e.g. {@link Optional},
+ * {@link Repeat}) are not affected. Other alternations ({@link Longest}, tokens and {@link
+ * TokenChoice}, subclasses of {@link AbstractChoice}) still try all their alternatives, but the
+ * cut is forgotten when they return, just as for a choice. To prevent all backtracking past a
+ * position, use {@link Commit}.
+ *
+ * <p>A {@link Memo} parser doesn't memoize the results of its child that contain a cut not
+ * enclosed in a choice, as they couldn't be replayed.
+ *
+ * <p>Build with {@link DSL#cut}.
+ */
+public final class Cut extends AbstractPrimitive
+{
+    // ---------------------------------------------------------------------------------------------
+
+    public Cut () {
+        super("cut", true);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override protected boolean doparse (Parse parse) {
+        parse.cut = true;
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
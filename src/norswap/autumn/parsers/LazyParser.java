@@ -33,15 +33,23 @@ public final class LazyParser extends Parser
 
     // ---------------------------------------------------------------------------------------------
 
-    private Parser parser;
+    private volatile Parser parser;
 
     // ---------------------------------------------------------------------------------------------
 
-    public Parser child() {
-        if (parser == null)
-            parser = supplier.get();
+    public Parser child()
+    {
+        // Lock-free once initialized. Initialization is synchronized so that the supplier is called
+        // at most once even if the parser is shared between threads.
+
+        Parser p = parser;
+        if (p != null) return p;
 
-        return parser;
+        synchronized (this) {
+            if (parser == null)
+                parser = supplier.get();
+            return parser;
+        }
     }
 
     // ---------------------------------------------------------------------------------------------
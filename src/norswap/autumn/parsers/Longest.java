@@ -5,6 +5,8 @@ import norswap.autumn.Parse;
 import norswap.autumn.Parser;
 import norswap.autumn.ParserVisitor;
 import norswap.autumn.SideEffect;
+import norswap.autumn.visitors.ChoiceDispatchCompiler;
+import norswap.autumn.visitors.VisitorFirstChars;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -16,6 +18,12 @@ import static norswap.utils.Vanilla.pop;
  * In case of a tie, matches like the earliest longest matching child.
  *
  * <p>Build with {@link DSL#longest(Object...)}
+ *
+ * <p>Like {@link Choice}, the parser can optionally be compiled into a first-character dispatch
+ * table (see {@link #compile_dispatch(VisitorFirstChars)} and {@link ChoiceDispatchCompiler}), in
+ * which case only the children that may succeed on the character at the current input position
+ * are tried. The skipped children would have failed without consuming input, so the longest match
+ * and the result of the parse are identical to that of the undispatched parser.
  */
 public final class Longest extends Parser
 {
@@ -25,6 +33,13 @@ public final class Longest extends Parser
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Dispatch table, as in {@link Choice}. Null if dispatch wasn't compiled.
+     */
+    private int[][] dispatch;
+
+    // ---------------------------------------------------------------------------------------------
+
     @Override public List<Parser> children() {
         return Collections.unmodifiableList(Arrays.asList(children));
     }
@@ -38,6 +53,28 @@ public final class Longest extends Parser
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Compiles the first-character dispatch table of this parser, using the given visitor to
+     * determine which children may succeed on which characters.
+     *
+     * <p>This must be called after the {@link #exclude_errors} field of the children has been
+     * set to its final value.
+     */
+    public void compile_dispatch (VisitorFirstChars visitor) {
+        dispatch = Choice.dispatch_table(children, visitor);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether {@link #compile_dispatch(VisitorFirstChars)} has been called on this parser.
+     */
+    public boolean dispatch_compiled() {
+        return dispatch != null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     @Override public boolean doparse (Parse parse)
     {
         int pos0 = parse.pos;
@@ -46,9 +83,27 @@ public final class Longest extends Parser
         int max_pos = pos0;
         List<SideEffect> delta = null;
 
-        for (Parser child: children)
+        // a cut doesn't escape an alternation
+        boolean cut0 = parse.cut;
+        parse.cut = false;
+
+        // the call stack and the trace would differ if children were skipped
+        int[] program = dispatch == null || parse.string == null
+                || parse.options.record_call_stack || parse.options.trace
+            ? null
+            : dispatch[VisitorFirstChars.index(parse.char_at(pos0))];
+
+        int length = program == null ? children.length : program.length;
+
+        for (int k = 0; k < length; ++k)
         {
-            boolean success = child.parse(parse);
+            int i = program == null ? k : program[k];
+            if (i < 0) {
+                Choice.skip_failure(parse, pos0);
+                continue;
+            }
+
+            boolean success = children[i].parse(parse);
             if (success) {
                 if (parse.pos > max_pos) {
                     max_pos = parse.pos;
@@ -60,6 +115,8 @@ public final class Longest extends Parser
             }
         }
 
+        parse.cut = cut0;
+
         if (delta == null)
             return false;
 
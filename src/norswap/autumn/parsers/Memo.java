@@ -33,6 +33,9 @@ import java.util.function.Function;
  *
  * <p>If the function is null, no context comparisons are performed.
  *
+ * <p>Results of the child parser that contain a {@link Cut} affecting an enclosing choice are not
+ * memoized, as memoized results cannot replay the cut.
+ *
  * <p>Build with {@link rule#memo(int)} or {@link rule#memo(int, Function)}.
  */
 public final class Memo extends Parser
@@ -79,11 +82,17 @@ public final class Memo extends Parser
 
         int pos0 = parse.pos;
         int log0 = parse.log.size();
+        boolean cut0 = parse.cut;
+        parse.cut = false;
 
         entry = new MemoEntry(
             child.parse(parse), child, pos0, parse.pos, parse.log.delta(log0), ctx);
 
-        memo.memoize(entry);
+        // entries don't record cuts, so results that cut the enclosing choice can't be replayed
+        if (!parse.cut)
+            memo.memoize(entry);
+
+        parse.cut |= cut0;
         return entry.succeeded();
     }
 
@@ -10,6 +10,11 @@ import java.util.Collections;
  * Matches repetitions of its child. See {@link #Repeat} for more details.
  *
  * <p>Build with {@link rule#at_least(int)} or {@link rule#repeat(int)}.
+ *
+ * <p>When the child is a {@link CharPredicate} (e.g. {@code digit.at_least(1)}), the repetition
+ * scans the matched span in a single loop instead of invoking {@link Parser#parse} on the child for
+ * each character, and updates the parse state once at the end, with the same outcome. This is not
+ * done when tracing or recording call stacks, nor when parsing a list of objects.
  */
 public final class Repeat extends Parser
 {
@@ -27,6 +32,11 @@ public final class Repeat extends Parser
 
     // ---------------------------------------------------------------------------------------------
 
+    /** The child if it is a character predicate, or null. */
+    private final CharPredicate span;
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * This parser will matches at least {@code min} repetitions of {@code child}. If {@code exact}
      * is true, will match exactly {@code min} repetitions. Otherwise, matches as many repetitions
@@ -37,12 +47,17 @@ public final class Repeat extends Parser
         this.min = min;
         this.exact = exact;
         this.child = child;
+        this.span = child instanceof CharPredicate ? (CharPredicate) child : null;
     }
 
     // ---------------------------------------------------------------------------------------------
 
     @Override public boolean doparse (Parse parse)
     {
+        if (span != null && parse.string != null
+                && !parse.options.trace && !parse.options.record_call_stack)
+            return scan(parse);
+
         for (int i = 0; i < min; ++i)
             if (!child.parse(parse))
                 return false;
@@ -53,6 +68,37 @@ public final class Repeat extends Parser
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Implementation of {@link #doparse} for a character predicate child, replicating the
+     * bookkeeping that {@link Parser#parse} performs for the child's final failure.
+     */
+    private boolean scan (Parse parse)
+    {
+        int pos = parse.pos;
+        int max = exact ? pos + min : Integer.MAX_VALUE;
+
+        while (pos < max && span.test(parse.char_at(pos)))
+            ++ pos;
+
+        int count = pos - parse.pos;
+        parse.pos = pos;
+
+        if (exact && count == min)
+            return true;
+
+        // the child failed at pos
+        if (!span.exclude_errors && parse.error <= pos) {
+            parse.error = pos;
+            if (parse.error_message() != null)
+                parse.set_error_message(null);
+        }
+        parse.check_backtrack(pos);
+
+        return count >= min;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     @Override public void accept (ParserVisitor visitor) {
         visitor.visit(this);
     }
@@ -0,0 +1,143 @@
+package norswap.autumn.parsers;
+
+import norswap.autumn.DSL;
+import norswap.autumn.Parse;
+import norswap.autumn.Parser;
+import norswap.autumn.SideEffect;
+import norswap.autumn.util.StringTrie;
+import java.util.List;
+
+/**
+ * Matches one out of a set of literal strings, optionally followed by whitespace.
+ *
+ * <p>This is semantically equivalent to a {@link Choice} (or a {@link Longest}, if {@link #longest}
+ * is set) of {@link StringMatch} parsers (which are the children of this parser), but the
+ * literals are compiled into a trie, which is walked along the input to determine which literals
+ * match at the current position. Only these literals are then actually parsed — unless {@link
+ * norswap.autumn.ParseOptions#record_call_stack} is set, as the call stack would differ if literals
+ * were skipped.
+ *
+ * <p>Build with {@link DSL#str_choice(String...)}, {@link DSL#word_choice(String...)}, {@link
+ * DSL#longest_str_choice(String...)} or {@link DSL#longest_word_choice(String...)}.
+ */
+public final class StringChoice extends AbstractChoice
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * If true, the longest match is selected (as per {@link Longest}), otherwise the first literal
+     * that matches is selected (as per {@link Choice}).
+     */
+    public final boolean longest;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final StringMatch[] literals;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final StringTrie trie;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a parser matching one of the given strings. If {@code whitespace} is non-null, this
+     * parser will be used to skip whitespace following the matched string (cf. {@link
+     * StringMatch}).
+     */
+    public StringChoice (boolean longest, Parser whitespace, String... strings)
+    {
+        this(longest, make_literals(whitespace, strings));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private StringChoice (boolean longest, StringMatch[] literals)
+    {
+        super(longest ? "longest_str_choice" : "str_choice", literals);
+        this.longest = longest;
+        this.literals = literals;
+        String[] strings = new String[literals.length];
+        for (int i = 0; i < literals.length; ++i)
+            strings[i] = literals[i].string;
+        this.trie = new StringTrie(strings);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static StringMatch[] make_literals (Parser whitespace, String[] strings)
+    {
+        StringMatch[] literals = new StringMatch[strings.length];
+        for (int i = 0; i < strings.length; ++i)
+            literals[i] = new StringMatch(strings[i], whitespace);
+        return literals;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the literal parser matching the string at the given index.
+     */
+    public StringMatch literal (int index) {
+        return literals[index];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override protected boolean doparse (Parse parse)
+    {
+        int pos0 = parse.pos;
+        int log0 = parse.log.size();
+        int max_pos = pos0;
+        List<SideEffect> delta = null;
+        int next = 0; // next literal index that would be tried by the equivalent choice
+
+        // the call stack would differ if literals were skipped
+        boolean skip = parse.string != null && !parse.options.record_call_stack;
+
+        for (int candidate; (candidate = candidate(parse, skip, pos0, next)) >= 0; )
+        {
+            if (candidate > next)
+                Choice.skip_failure(parse, pos0);
+            next = candidate + 1;
+
+            if (!literals[candidate].parse(parse))
+                continue;
+            if (!longest)
+                return true;
+
+            if (parse.pos > max_pos) {
+                max_pos = parse.pos;
+                delta = parse.log.delta(log0);
+            }
+
+            parse.pos = pos0;
+            parse.log.rollback(log0);
+        }
+
+        if (next < literals.length)
+            Choice.skip_failure(parse, pos0);
+
+        if (delta == null)
+            return false;
+
+        parse.pos = max_pos;
+        parse.log.apply(delta);
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the index of the next literal to try, starting from index {@code from}, or -1 if
+     * there are none. If {@code skip} is false, all literals are tried.
+     */
+    private int candidate (Parse parse, boolean skip, int pos, int from)
+    {
+        return skip
+            ? trie.next_match(parse.string, pos, from)
+            : from < literals.length ? from : -1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,207 @@
+package norswap.autumn.parsers;
+
+import norswap.autumn.LineMap;
+import norswap.autumn.Parser;
+import norswap.autumn.SideEffect;
+import norswap.autumn.memo.MemoEntry;
+import norswap.autumn.memo.Memoizer;
+import norswap.utils.Strings;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A {@link Memoizer} dedicated to {@link Tokens}, which stores at most one result per input
+ * position: the index of the matching base parser and the end position of the match, in {@code
+ * int} arrays indexed by input position. Looking up the token at a position is a single array read,
+ * without hashing nor allocation.
+ *
+ * <p>The arrays grow by doubling until they cover the largest position that was filled. They hold
+ * 8 bytes per array slot, and up to half of the slots may be unused after a doubling, so their
+ * memory use is at most 16 bytes per input position up to that position (plus, transiently, the
+ * old arrays while they are being copied). Unlike a bounded {@link norswap.autumn.memo.MemoCache},
+ * this grows with the input. Token side effects, which are rare, are stored separately.
+ *
+ * <p>{@link Tokens} uses this class directly rather than through the {@link Memoizer} interface.
+ * The interface is still fully implemented, though {@link #get(Parser, int, Object)} allocates a
+ * fresh entry on every call.
+ *
+ * <p>Obtain through {@link Tokens#Tokens()}.
+ */
+public final class TokenCache implements Memoizer
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private final Tokens tokens;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Indexed by start position: end position of the token + 1, or 0 if the token is unknown. */
+    private int[] ends = new int[0];
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Indexed by start position: index of the token's base parser, or -1 if there is no token. */
+    private int[] kinds = new int[0];
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Maps start positions to the side effects of the token, when there are some. */
+    private HashMap<Integer, List<SideEffect>> deltas;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** One past the largest position that was filled since the last {@link #clear()}. */
+    private int limit = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    TokenCache (Tokens tokens) {
+        this.tokens = tokens;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the token at the given position is known.
+     */
+    boolean known (int pos) {
+        return pos < ends.length && ends[pos] != 0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the index of the base parser matching at the given (known) position, or -1 if there
+     * is no token at that position.
+     */
+    int kind (int pos) {
+        return kinds[pos];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the end position of the token at the given (known) position.
+     */
+    int end (int pos) {
+        return ends[pos] - 1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the side effects of the token at the given (known) position, or null if there are
+     * none.
+     */
+    List<SideEffect> delta (int pos) {
+        return deltas == null ? null : deltas.get(pos);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Records the token at the given position. {@code kind} is the index of its base parser, or -1
+     * if there is no token.
+     */
+    void put (int pos, int kind, int end, List<SideEffect> delta)
+    {
+        if (pos >= ends.length) {
+            int length = Math.max(pos + 1, Math.max(64, ends.length * 2));
+            ends  = Arrays.copyOf(ends,  length);
+            kinds = Arrays.copyOf(kinds, length);
+        }
+
+        ends[pos]  = kind < 0 ? pos + 1 : end + 1;
+        kinds[pos] = kind;
+        if (pos >= limit) limit = pos + 1;
+
+        if (kind >= 0 && delta != null && !delta.isEmpty()) {
+            if (deltas == null) deltas = new HashMap<>();
+            deltas.put(pos, delta);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void memoize (MemoEntry entry)
+    {
+        int kind = -1;
+        if (entry.succeeded())
+            for (int i = 0; i < tokens.parsers.length; ++i)
+                if (tokens.parsers[i] == entry.parser) {
+                    kind = i;
+                    break;
+                }
+
+        put(entry.start_position, kind, entry.end_position, entry.delta);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public MemoEntry get (Parser parser, int pos, Object ctx)
+    {
+        if (ctx != null || !known(pos))
+            return null;
+
+        int kind = kinds[pos];
+        List<SideEffect> delta = delta(pos);
+
+        return new MemoEntry(
+            kind >= 0,
+            kind >= 0 ? tokens.parsers[kind] : null,
+            pos,
+            end(pos),
+            delta != null ? delta : Collections.emptyList(),
+            null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public boolean clear()
+    {
+        Arrays.fill(ends, 0, limit, 0);
+        deltas = null;
+        limit = 0;
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private String string (String sep, Function<MemoEntry, String> f)
+    {
+        ArrayList<String> strings = new ArrayList<>();
+        for (int pos = 0; pos < limit; ++pos)
+            if (known(pos))
+                strings.add(f.apply(get(null, pos, null)));
+
+        StringBuilder b = new StringBuilder();
+        Strings.separated(b, sep, strings.toArray(new String[0]));
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString (LineMap map)
+    {
+        return "TokenCache { " + string(", ", e -> e.toString(map)) + "}";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String listing (LineMap map)
+    {
+        return string("\n", e -> e.listing_string(map, true));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString() {
+        return toString(null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
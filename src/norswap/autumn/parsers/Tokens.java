@@ -6,11 +6,16 @@ import norswap.autumn.Parser;
 import norswap.autumn.SideEffect;
 import norswap.autumn.memo.MemoEntry;
 import norswap.autumn.memo.Memoizer;
+import norswap.autumn.util.StringTrie;
+import norswap.autumn.visitors.VisitorFirstChars;
 import norswap.utils.NArrays;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
 import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 /**
  * This is a factory to generate {@link TokenParser}s and {@link TokenChoice}s.
@@ -39,6 +44,18 @@ import java.util.function.Supplier;
  * side effects). Token parsers call back into the {@link Tokens} instance in order to find if the
  * token at the current position is the one they are supposed to recognize. If the token at the
  * current position is yet unknown, it is determined and the table is filled.
+ *
+ * <p>Since there is at most one token per input position, the default memoizer ({@link
+ * #Tokens()}) is a {@link TokenCache}, which stores the results in arrays indexed by input
+ * position.
+ *
+ * <p>Base parsers that are {@link StringMatch} instances are compiled into a trie ({@link
+ * StringTrie}), so that the input is scanned only once to determine which of them may match at a
+ * given position. The other base parsers are indexed by the characters they may start with (as
+ * computed by {@link VisitorFirstChars}), and only those that may start with the current character
+ * are invoked. Skipping the other parsers is safe since base parsers are excluded from error
+ * reporting, and since a token must consume at least one character. The matching base parser is
+ * identified exactly as if all base parsers were invoked.
  */
 @SuppressWarnings("unchecked")
 public final class Tokens
@@ -61,6 +78,87 @@ public final class Tokens
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Index over the base parsers, reset to null whenever a base parser is added, and lazily
+     * recomputed.
+     */
+    private volatile TokenIndex token_index;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final int[] NONE = new int[0];
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Partition of the base parsers between literals ({@link StringMatch}) and other parsers, with
+     * a trie over the literals and a first-character index over the other parsers.
+     */
+    private static final class TokenIndex
+    {
+        /** Indices of the base parsers that are not literals, in increasing order. */
+        final int[] others;
+
+        /**
+         * Maps each {@link VisitorFirstChars#index(char) character index} to the indices of the
+         * non-literal base parsers that may start with this character, in increasing order.
+         */
+        final int[][] others_by_char;
+
+        /** Maps the keys of {@link #trie} to the indices of the literal base parsers. */
+        final int[] literals;
+
+        final StringTrie trie;
+
+        TokenIndex (Parser[] parsers, int size)
+        {
+            ArrayList<Integer> others = new ArrayList<>();
+            ArrayList<Integer> literals = new ArrayList<>();
+            ArrayList<String> strings = new ArrayList<>();
+
+            for (int i = 0; i < size; ++i)
+                if (parsers[i] instanceof StringMatch) {
+                    literals.add(i);
+                    strings.add(((StringMatch) parsers[i]).string);
+                }
+                else
+                    others.add(i);
+
+            this.others   = others.stream().mapToInt(x -> x).toArray();
+            this.literals = literals.stream().mapToInt(x -> x).toArray();
+            this.trie     = new StringTrie(strings.toArray(new String[0]));
+
+            VisitorFirstChars visitor = new VisitorFirstChars();
+            BitSet[] firsts = new BitSet[this.others.length];
+            for (int j = 0; j < firsts.length; ++j)
+                firsts[j] = visitor.first_chars(parsers[this.others[j]]);
+
+            this.others_by_char = new int[VisitorFirstChars.SIZE][];
+            for (int c = 0; c < VisitorFirstChars.SIZE; ++c) {
+                final int c_ = c;
+                this.others_by_char[c] = IntStream.range(0, firsts.length)
+                    .filter(j -> firsts[j].get(c_))
+                    .map(j -> this.others[j])
+                    .toArray();
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a new instance that caches tokens in a {@link TokenCache}.
+     */
+    public Tokens () {
+        this.memo_state = new ParseState<>(Tokens.class, () -> new TokenCache(this));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a new instance that caches tokens in memoizers created by {@code memo}. The
+     * memoizers are queried with a null parser and context.
+     */
     public Tokens (Supplier<Memoizer> memo) {
         this.memo_state = new ParseState<>(Tokens.class, memo);
     }
@@ -88,6 +186,7 @@ public final class Tokens
         }
 
         parsers[size++] = parser;
+        token_index = null;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -142,6 +241,19 @@ public final class Tokens
     boolean parse_token (Parse parse, Parser target)
     {
         Memoizer memo = memo_state.data(parse);
+
+        if (memo instanceof TokenCache) {
+            TokenCache cache = (TokenCache) memo;
+            int pos = parse.pos;
+            if (!cache.known(pos))
+                fill_cache(memo, parse);
+            int kind = cache.kind(pos);
+            if (kind < 0 || parsers[kind] != target)
+                return false;
+            apply(parse, cache, pos);
+            return true;
+        }
+
         MemoEntry e = memo.get(null, parse.pos, null);
 
         if (e == null) // token for position not in table yet
@@ -167,6 +279,23 @@ public final class Tokens
     boolean parse_token_choice (Parse parse, Parser[] targets)
     {
         Memoizer memo = memo_state.data(parse);
+
+        if (memo instanceof TokenCache) {
+            TokenCache cache = (TokenCache) memo;
+            int pos = parse.pos;
+            if (!cache.known(pos))
+                fill_cache(memo, parse);
+            int kind = cache.kind(pos);
+            if (kind < 0)
+                return false;
+            for (Parser target: targets)
+                if (parsers[kind] == target) {
+                    apply(parse, cache, pos);
+                    return true;
+                }
+            return false;
+        }
+
         MemoEntry e = memo.get(null, parse.pos, null);
 
         if (e == null) // token for position not in table yet
@@ -188,7 +317,21 @@ public final class Tokens
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Fills the cache with the result for the current position, and return the inserted result.
+     * Consumes the (successfully matched) token at {@code pos}, recorded in {@code cache}.
+     */
+    private static void apply (Parse parse, TokenCache cache, int pos)
+    {
+        parse.pos = cache.end(pos);
+        List<SideEffect> delta = cache.delta(pos);
+        if (delta != null)
+            parse.log.apply(delta);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Fills the cache with the result for the current position, and return the inserted result
+     * (or null if {@code memo} is a {@link TokenCache}, which doesn't use entries).
      *
      * <p>Assumes no entry for that position exist yet.
      */
@@ -201,8 +344,37 @@ public final class Tokens
         int max_pos = pos0;
         List<SideEffect> delta = null;
 
-        for (int i = 0; i < size; ++i)
+        // a cut doesn't escape an alternation, and couldn't be replayed from the cache
+        boolean cut0 = parse.cut;
+        parse.cut = false;
+
+        TokenIndex index = token_index;
+        if (index == null)
+            token_index = index = new TokenIndex(parsers, size);
+
+        // next trie key (literal base parser) that may match, in increasing order
+        int key = parse.string == null ? -1 : index.trie.next_match(parse.string, pos0, 0);
+
+        // non-literal base parsers that may start at this position (a token can't be empty)
+        int[] others = index.others;
+        if (parse.string != null)
+            others = pos0 < parse.end_of_input
+                ? index.others_by_char[VisitorFirstChars.index(parse.string.charAt(pos0))]
+                : NONE;
+
+        // try candidates in base parser order, so that ties are resolved in the same way
+        int o = 0;
+
+        while (o < others.length || key >= 0)
         {
+            int i;
+            if (key < 0 || o < others.length && others[o] < index.literals[key])
+                i = others[o++];
+            else {
+                i = index.literals[key];
+                key = index.trie.next_match(parse.string, pos0, key + 1);
+            }
+
             boolean success = parsers[i].parse(parse);
 
             if (success) {
@@ -217,6 +389,13 @@ public final class Tokens
             }
         }
 
+        parse.cut = cut0;
+
+        if (memo instanceof TokenCache) {
+            ((TokenCache) memo).put(pos0, longest, max_pos, delta);
+            return null;
+        }
+
         boolean success = delta != null;
         MemoEntry entry = new MemoEntry(
             success, success ? parsers[longest] : null, pos0, max_pos, delta, null);
@@ -0,0 +1,171 @@
+package norswap.autumn.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+/**
+ * An immutable trie over a list of strings (the keys), used to find all the keys that occur at a
+ * given position of an input string in a single pass over the input.
+ *
+ * <p>Keys are identified by their index in the list passed to the constructor. Duplicate keys are
+ * allowed and reported separately.
+ *
+ * <p>Use {@link #matches(CharSequence, int, int[])} to perform lookups, passing it an array of size
+ * at least {@link #max_matches()} to hold the results. Alternatively, use {@link
+ * #next_match(CharSequence, int, int)} to enumerate the matching keys in increasing index order,
+ * without allocating.
+ */
+public final class StringTrie
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** For each node, the sorted array of characters labelling outgoing edges. */
+    private final char[][] labels;
+
+    /** For each node, the targets of the outgoing edges, in the same order as {@link #labels}. */
+    private final int[][] targets;
+
+    /** For each node, the indices of the keys that end at this node, in increasing order. */
+    private final int[][] terminals;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final int max_matches;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Builds a trie over the given keys.
+     */
+    public StringTrie (String... keys)
+    {
+        ArrayList<TreeMap<Character, Integer>> edges = new ArrayList<>();
+        ArrayList<ArrayList<Integer>> ends = new ArrayList<>();
+        edges.add(new TreeMap<>());
+        ends.add(new ArrayList<>());
+
+        for (int k = 0; k < keys.length; ++k)
+        {
+            int node = 0;
+            for (int i = 0; i < keys[k].length(); ++i)
+            {
+                Integer next = edges.get(node).get(keys[k].charAt(i));
+                if (next == null) {
+                    next = edges.size();
+                    edges.get(node).put(keys[k].charAt(i), next);
+                    edges.add(new TreeMap<>());
+                    ends.add(new ArrayList<>());
+                }
+                node = next;
+            }
+            ends.get(node).add(k);
+        }
+
+        int size = edges.size();
+        labels    = new char[size][];
+        targets   = new int[size][];
+        terminals = new int[size][];
+
+        for (int n = 0; n < size; ++n)
+        {
+            TreeMap<Character, Integer> map = edges.get(n);
+            labels[n]  = new char[map.size()];
+            targets[n] = new int[map.size()];
+            int i = 0;
+            for (Character c: map.keySet()) {
+                labels[n][i] = c;
+                targets[n][i++] = map.get(c);
+            }
+            terminals[n] = ends.get(n).stream().mapToInt(x -> x).toArray();
+        }
+
+        max_matches = max_matches(0);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int max_matches (int node)
+    {
+        int max = 0;
+        for (int target: targets[node])
+            max = Math.max(max, max_matches(target));
+        return max + terminals[node].length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The maximum number of matches that a single lookup may return.
+     */
+    public int max_matches() {
+        return max_matches;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Finds all the keys that occur in {@code input} at position {@code pos}, stores their indices
+     * in {@code out} and returns their number.
+     *
+     * <p>The indices are stored by increasing key length, and by increasing index for keys of
+     * the same length. {@code out} must have a size of at least {@link #max_matches()}.
+     */
+    public int matches (CharSequence input, int pos, int[] out)
+    {
+        int count = 0;
+        int node = 0;
+        int end = input.length();
+
+        while (true)
+        {
+            for (int key: terminals[node])
+                out[count++] = key;
+
+            if (pos == end)
+                return count;
+
+            int i = Arrays.binarySearch(labels[node], input.charAt(pos++));
+            if (i < 0)
+                return count;
+
+            node = targets[node][i];
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the smallest index greater than or equal to {@code from} of a key that occurs in
+     * {@code input} at position {@code pos}, or -1 if there is none.
+     *
+     * <p>Each call walks the trie along the input, so this is meant for the common case where few
+     * keys occur at any given position.
+     */
+    public int next_match (CharSequence input, int pos, int from)
+    {
+        int best = -1;
+        int node = 0;
+        int end = input.length();
+
+        while (true)
+        {
+            for (int key: terminals[node])
+                if (key >= from) {
+                    if (best < 0 || key < best) best = key;
+                    break; // terminals are sorted
+                }
+
+            if (pos == end || best == from)
+                return best;
+
+            int i = Arrays.binarySearch(labels[node], input.charAt(pos++));
+            if (i < 0)
+                return best;
+
+            node = targets[node][i];
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,90 @@
+package norswap.autumn.visitors;
+
+import norswap.autumn.Parser;
+import norswap.autumn.ParserWalker;
+import norswap.autumn.parsers.AbstractChoice;
+import norswap.autumn.parsers.Choice;
+import norswap.autumn.parsers.Longest;
+
+/**
+ * Walks the parser graph and compiles the first-character dispatch table of every {@link Choice}
+ * and {@link Longest} parser it encounters (see {@link Choice#compile_dispatch(VisitorFirstChars)}
+ * and {@link Longest#compile_dispatch(VisitorFirstChars)}).
+ *
+ * <p>With a compiled dispatch table, a choice only tries the children that may succeed on the
+ * character at the current input position. This mostly pays off for grammars with large choices
+ * whose alternatives start with distinct characters (e.g. keywords, operators, statements).
+ *
+ * <p>Subclasses of {@link AbstractChoice} are not compiled: they select the children to try in
+ * user code, which the dispatch table can't account for.
+ *
+ * <p>Invoke instances of this class through their {@link #compile(Parser)} method, after the
+ * grammar has been fully constructed. Since the dispatch tables are stored inside the parsers, the
+ * grammar must not be modified afterwards, including the {@link Parser#exclude_errors} flags. If
+ * the grammar is shared between threads, compile it before handing it over to them.
+ *
+ * <p>It may happen that a grammar has multiple roots (not all parsers can be reached from the same
+ * root), in which case {@link #compile(Parser)} can be invoked once on each root.
+ */
+public final class ChoiceDispatchCompiler extends ParserWalker
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private final VisitorFirstChars first_chars_visitor;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The number of parsers whose dispatch table was compiled so far.
+     */
+    public int compiled = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a new dispatch compiler using the given nullable visitor.
+     *
+     * <p>Since {@link VisitorNullable} memoizes parser nullability, you should reuse an existing
+     * instance as much as possible.
+     */
+    public ChoiceDispatchCompiler (VisitorNullable nullable_visitor) {
+        this.first_chars_visitor = new VisitorFirstChars(nullable_visitor);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a new dispatch compiler using a freshly constructed nullable visitor.
+     */
+    public ChoiceDispatchCompiler () {
+        this(new VisitorNullable());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Compiles the dispatch tables of all choices reachable from {@code parser}.
+     */
+    public void compile (Parser parser) {
+        walk(parser);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override protected void work (Parser parser, State state)
+    {
+        if (state != State.BEFORE)
+            return;
+
+        if (parser instanceof Choice)
+            ((Choice) parser).compile_dispatch(first_chars_visitor);
+        else if (parser instanceof Longest)
+            ((Longest) parser).compile_dispatch(first_chars_visitor);
+        else
+            return;
+
+        ++ compiled;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -44,11 +44,18 @@ import static norswap.utils.Vanilla.map;
  * <p>Also note that the visitor won't actually copy parser that have no children (as they can
  * be shared between grammars without hurdles.
  *
+ * <p>Copies share the memoizer of their original ({@link Parser#set_memoizer}), if any. Substitute
+ * parsers ({@link #substitute(Parser, Parser)}) are registered as-is.
+ *
  * <p><b>Applications</b>
  *
  * <p>The main use case of this visitor is to extend it to perform <b>grammar transformations</b>.
  * Indeed, by overriding the {@code visit} method for a given type of parser, you can register
  * a transformation of the original parser instead of a copy!
+ *
+ * <p>To replace specific parser instances rather than all parsers of a given type, register the
+ * replacements with {@link #substitute(Parser, Parser)} before requesting the copy (this is how
+ * {@link norswap.autumn.compiler.DFACompiler} swaps in its automata).
  */
 public final class CopyVisitor extends ParserWalker implements ParserVisitor
 {
@@ -112,6 +119,20 @@ public final class CopyVisitor extends ParserWalker implements ParserVisitor
 
     // ---------------------------------------------------------------------------------------------
 
+    private final Map<Parser, Parser> substitutes = new HashMap<>();
+
+    /**
+     * Register {@code replacement} as the copy of {@code original}, ahead of the copy. Unlike
+     * {@link #register_copy(Parser, Parser)}, the replacement will not be overwritten when the
+     * visitor reaches {@code original}, enabling grammar transformations that don't require
+     * subclassing the visitor.
+     */
+    public void substitute (Parser original, Parser replacement) {
+        substitutes.put(original, replacement);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     @Override protected void work (Parser parser, State state)
     {
         switch (state) {
@@ -120,7 +141,16 @@ public final class CopyVisitor extends ParserWalker implements ParserVisitor
                 patch_recursion(parser);
                 break;
             case AFTER:
-                parser.accept(this);
+                Parser replacement = substitutes.get(parser);
+                if (replacement != null)
+                    register_copy(parser, replacement);
+                else {
+                    parser.accept(this);
+                    // the copy keeps memoizing where the original did
+                    Parser copy = copies.get(parser);
+                    if (copy != null && copy != parser && copy.memoizer() == null)
+                        copy.set_memoizer(parser.memoizer());
+                }
                 break;
         }
     }
@@ -0,0 +1,623 @@
+package norswap.autumn.visitors;
+
+import norswap.autumn.Parse;
+import norswap.autumn.Parser;
+import norswap.autumn.parsers.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Copies a parser graph, removing the redundant structure created by the DSL, so that fewer
+ * parsers (and hence fewer {@link Parser#parse} calls) are involved in the parse.
+ *
+ * <p>The optimizer:
+ * <ul>
+ * <li>Flattens sequences nested in sequences and choices nested in choices.</li>
+ * <li>Removes {@link LazyParser} and {@link AbstractForwarding} parsers, referring directly to
+ * their child, except where a lazy parser is required to break a recursion.</li>
+ * <li>Removes {@link Empty} parsers from sequences, and replaces single-child sequences and
+ * choices by their child.</li>
+ * <li>Hoists the common prefix out of adjacent choice alternatives: {@code choice(seq(a, b),
+ * seq(a, c))} becomes {@code seq(a, choice(b, c))}.</li>
+ * <li>Merges adjacent {@link StringMatch} literals in sequences, but only where errors are not
+ * recorded (within a parser with {@link Parser#exclude_errors} set, typically whitespace and
+ * tokens), as the merged literal fails at its start instead of the start of the mismatching
+ * literal.</li>
+ * </ul>
+ *
+ * <p>The optimized grammar matches the same input and produces the same side effects and furthest
+ * error position ({@link Parse#error}) as the original. Each rewrite is only performed when that is
+ * the case: for instance, a parser is not removed if doing so would make the parse forget (or
+ * record) an error (cf. {@link Parser#exclude_errors}), if it would change the choice affected by
+ * a {@link Cut}, or if it could cause a {@link Commit} to be violated. Prefix hoisting also assumes
+ * that the hoisted prefix yields the same result every time it is invoked at the same position.
+ *
+ * <p>Removed parsers don't appear in traces or error call stacks, and their rule names are lost.
+ * Other parsers are copied by a {@link CopyVisitor}, subject to the caveats listed in its
+ * documentation, and their copies keep the {@link Parser#exclude_errors} flag, the rule name and
+ * the memoizer ({@link Parser#set_memoizer}) of their original. Parsers with a memoizer are never
+ * removed, merged or hoisted. Choice dispatch tables are not copied: run the {@link
+ * ChoiceDispatchCompiler} on the optimized grammar if required.
+ *
+ * <p>Invoke instances of this class through their {@link #optimize(Parser)} method, after the
+ * grammar has been fully constructed. The original grammar is not modified.
+ */
+public final class GrammarOptimizer
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** The parser may set {@link Parse#cut} for an enclosing choice. */
+    private static final int CUTS = 1;
+
+    /** The parser may commit the parse (cf. {@link Commit}). */
+    private static final int COMMITS = 2;
+
+    /** The parser never fails. */
+    private static final int INFALLIBLE = 4;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Facts about the parsers of the original and optimized graphs (cf. {@link #CUTS} etc). */
+    private final Map<Parser, Integer> facts = new IdentityHashMap<>();
+
+    /**
+     * Optimized parsers, indexed by whether they appear in a context where errors are excluded
+     * (i.e. within a parser with {@link Parser#exclude_errors} set).
+     */
+    @SuppressWarnings("unchecked")
+    private final Map<Parser, Parser>[] optimized
+        = new Map[] { new IdentityHashMap<>(), new IdentityHashMap<>() };
+
+    @SuppressWarnings("unchecked")
+    private final Set<Parser>[] paths = new Set[] {
+        Collections.newSetFromMap(new IdentityHashMap<>()),
+        Collections.newSetFromMap(new IdentityHashMap<>()) };
+
+    private final CopyVisitor[] copiers = { new CopyVisitor(), new CopyVisitor() };
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns an optimized copy of the graph rooted at {@code parser}. Parsers shared with graphs
+     * previously passed to this optimizer share their copy.
+     */
+    public Parser optimize (Parser parser)
+    {
+        analyze(parser);
+        return optimize(parser, false);
+    }
+
+    // =============================================================================================
+    // Analysis
+    // =============================================================================================
+
+    private int facts (Parser parser) {
+        return facts.getOrDefault(parser, 0);
+    }
+
+    private boolean has (Parser parser, int fact) {
+        return (facts(parser) & fact) != 0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Iterable<Parser> children (Parser parser)
+    {
+        if (parser instanceof StringMatch) {
+            Parser ws = ((StringMatch) parser).whitespace;
+            return ws == null ? Collections.emptyList() : Collections.singleton(ws);
+        }
+        return parser.children();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Computes the facts for the parsers reachable from {@code root} which have not been analyzed
+     * yet, as least fixpoints over the graph.
+     */
+    private void analyze (Parser root)
+    {
+        List<Parser> nodes = new ArrayList<>();
+        Set<Parser> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        ArrayList<Parser> stack = new ArrayList<>();
+        stack.add(root);
+
+        while (!stack.isEmpty()) {
+            Parser parser = stack.remove(stack.size() - 1);
+            if (facts.containsKey(parser) || !seen.add(parser))
+                continue;
+            nodes.add(parser);
+            for (Parser child: children(parser))
+                stack.add(child);
+        }
+
+        for (Parser parser: nodes)
+            facts.put(parser, 0);
+
+        // Cuts and commits must be known before infallibility, as a cut can make a choice fail.
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Parser parser: nodes) {
+                int old = facts(parser);
+                int now = old | effects(parser);
+                if (now != old) {
+                    facts.put(parser, now);
+                    changed = true;
+                }
+            }
+        }
+
+        changed = true;
+        while (changed) {
+            changed = false;
+            for (Parser parser: nodes) {
+                if (has(parser, INFALLIBLE) || !infallible(parser))
+                    continue;
+                facts.put(parser, facts(parser) | INFALLIBLE);
+                changed = true;
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int effects (Parser parser)
+    {
+        if (parser instanceof Cut)
+            return CUTS;
+        if (parser instanceof Commit)
+            return COMMITS;
+
+        int effects = 0;
+        for (Parser child: children(parser))
+            effects |= facts(child) & (CUTS | COMMITS);
+
+        // A choice consumes the cuts of its children.
+        return parser instanceof Choice ? effects & ~CUTS : effects;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private boolean infallible (Parser parser)
+    {
+        if (parser instanceof Empty || parser instanceof Cut || parser instanceof Commit
+                || parser instanceof Optional)
+            return true;
+
+        if (parser instanceof Repeat) {
+            Repeat repeat = (Repeat) parser;
+            return repeat.min == 0 || has(repeat.child, INFALLIBLE);
+        }
+
+        if (parser instanceof StringMatch) {
+            StringMatch match = (StringMatch) parser;
+            return match.string.isEmpty()
+                && (match.whitespace == null || has(match.whitespace, INFALLIBLE));
+        }
+
+        if (parser instanceof Choice) {
+            boolean infallible = false;
+            for (Parser child: parser.children()) {
+                if (has(child, CUTS)) return false;
+                infallible |= has(child, INFALLIBLE);
+            }
+            return infallible;
+        }
+
+        if (parser instanceof Sequence) {
+            for (Parser child: parser.children())
+                if (!has(child, INFALLIBLE)) return false;
+            return true;
+        }
+
+        if (parser instanceof Lookahead || parser instanceof LazyParser
+                || parser instanceof AbstractForwarding)
+            return has(parser.children().iterator().next(), INFALLIBLE);
+
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether a parser with the given {@link Parser#exclude_errors} flag can be removed so that its
+     * children are invoked directly by its parent, without changing the furthest error position.
+     *
+     * <p>If {@code excluded} is set, the parser appears within a parser that excludes errors, and
+     * hence the position of errors does not matter.
+     *
+     * <p>A failing parser records its initial position as an error. This position is already
+     * recorded by its failing child (which starts at the same position or after it) — unless the
+     * child excludes errors. A parser that excludes errors can only be removed if all its children
+     * do too.
+     */
+    private boolean transparent (boolean exclude_errors, List<Parser> children, boolean excluded)
+    {
+        if (excluded)
+            return true;
+
+        for (Parser child: children)
+            if (exclude_errors
+                    ? !child.exclude_errors
+                    : child.exclude_errors && !has(child, INFALLIBLE))
+                return false;
+
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether {@code parser} can be removed so that its children are invoked directly by its
+     * parent: it must be {@link #transparent transparent}, and must not have a memoizer ({@link
+     * Parser#set_memoizer}).
+     */
+    private boolean removable (Parser parser, List<Parser> children, boolean excluded)
+    {
+        return parser.memoizer() == null
+            && transparent(parser.exclude_errors, children, excluded);
+    }
+
+    // =============================================================================================
+    // Rewriting
+    // =============================================================================================
+
+    private Parser optimize (Parser parser, boolean excluded)
+    {
+        int index = excluded ? 1 : 0;
+        Parser result = optimized[index].get(parser);
+        if (result != null)
+            return result;
+
+        if (!paths[index].add(parser))
+            return placeholder(parser, excluded);
+
+        boolean inner = excluded || parser.exclude_errors;
+
+        List<Parser> children = new ArrayList<>();
+        for (Parser child: parser.children())
+            children.add(optimize(child, inner));
+
+        if (parser instanceof Sequence)
+            result = sequence(parser, children, inner, excluded);
+        else if (parser instanceof Choice)
+            result = choice(parser, children, inner, excluded);
+        else if (parser instanceof LazyParser || parser instanceof AbstractForwarding)
+            result = forward(parser, children.get(0), excluded);
+        else if (children.isEmpty())
+            result = parser;
+        else
+            result = copy(parser, children, inner);
+
+        paths[index].remove(parser);
+        optimized[index].put(parser, result);
+        facts.put(result, facts(parser));
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a lazy parser that refers to the optimized version of {@code parser}, to break a
+     * recursion.
+     */
+    private Parser placeholder (Parser parser, boolean excluded)
+    {
+        Supplier<Parser> supplier = new Supplier<Parser>()
+        {
+            // Avoid holding on to the optimized map and the original graph once resolved.
+
+            private Map<Parser, Parser> map = optimized[excluded ? 1 : 0];
+            private Parser original = parser;
+            private Parser copy = null;
+
+            @Override public Parser get ()
+            {
+                if (copy != null)
+                    return copy;
+
+                copy = map.get(original);
+                map = null;
+                original = null;
+                return copy;
+            }
+        };
+
+        LazyParser lazy = new LazyParser(supplier);
+        lazy.exclude_errors = parser.exclude_errors;
+        facts.put(lazy, facts(parser));
+        return lazy;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Parser forward (Parser parser, Parser child, boolean excluded)
+    {
+        if (removable(parser, Collections.singletonList(child), excluded))
+            return child;
+
+        LazyParser lazy = new LazyParser(() -> child);
+        return adopt(parser, lazy);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Parser copy (Parser parser, List<Parser> children, boolean inner)
+    {
+        CopyVisitor copier = copiers[inner ? 1 : 0];
+
+        int i = 0;
+        for (Parser child: parser.children())
+            copier.register_copy(child, children.get(i++));
+
+        parser.accept(copier);
+        Parser copy = copier.copies.get(parser);
+        return copy == parser ? copy : adopt(parser, copy);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Gives the {@link Parser#exclude_errors} flag, rule name and memoizer of {@code original} to
+     * {@code parser}, and returns it.
+     */
+    private static Parser adopt (Parser original, Parser parser)
+    {
+        parser.exclude_errors = original.exclude_errors;
+        if (original.rule() != null)
+            parser.set_rule(original.rule());
+        if (original.memoizer() != null)
+            parser.set_memoizer(original.memoizer());
+        return parser;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Parser sequence (Parser parser, List<Parser> children, boolean inner, boolean excluded)
+    {
+        List<Parser> list = new ArrayList<>();
+        for (Parser child: children)
+            append(list, child, inner);
+
+        if (inner)
+            merge_literals(list);
+
+        if (list.isEmpty())
+            return node(new Empty());
+
+        if (list.size() == 1 && removable(parser, list, excluded))
+            return list.get(0);
+
+        return adopt(parser, node(new Sequence(list.toArray(new Parser[0]))));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Appends {@code child} to the children of a sequence, or its own children if it is a sequence
+     * that can be flattened.
+     */
+    private void append (List<Parser> list, Parser child, boolean excluded)
+    {
+        if (child instanceof Empty)
+            return;
+
+        if (child instanceof Sequence) {
+            List<Parser> children = ((Sequence) child).children();
+            if (removable(child, children, excluded)) {
+                list.addAll(children);
+                return;
+            }
+        }
+
+        list.add(child);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void merge_literals (List<Parser> list)
+    {
+        for (int i = list.size() - 1; i > 0; --i)
+        {
+            Parser first = list.get(i - 1);
+            Parser second = list.get(i);
+            if (!(first instanceof StringMatch && second instanceof StringMatch)
+                    || first.memoizer() != null || second.memoizer() != null)
+                continue;
+
+            StringMatch a = (StringMatch) first;
+            StringMatch b = (StringMatch) second;
+            if (a.whitespace != null)
+                continue;
+
+            StringMatch merged = new StringMatch(a.string + b.string, b.whitespace);
+            facts.put(merged, facts(b) & ~INFALLIBLE);
+            list.set(i - 1, merged);
+            list.remove(i);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Parser choice (Parser parser, List<Parser> children, boolean inner, boolean excluded)
+    {
+        List<Parser> list = new ArrayList<>();
+        for (Parser child: children)
+        {
+            if (child instanceof Choice) {
+                List<Parser> alternatives = ((Choice) child).children();
+                if (!cuts(alternatives)
+                        && removable(child, alternatives, inner)) {
+                    list.addAll(alternatives);
+                    continue;
+                }
+            }
+            list.add(child);
+        }
+
+        list = hoist(list, inner);
+
+        if (list.size() == 1 && !cuts(list)
+                && removable(parser, list, excluded))
+            return list.get(0);
+
+        return adopt(parser, node(new Choice(list.toArray(new Parser[0]))));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private boolean cuts (List<Parser> parsers)
+    {
+        for (Parser parser: parsers)
+            if (has(parser, CUTS)) return true;
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Parser head (Parser alternative)
+    {
+        return alternative instanceof Sequence
+            ? ((Sequence) alternative).children().get(0)
+            : alternative;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the two parsers are the same, or are equivalent literals.
+     */
+    private static boolean same (Parser a, Parser b)
+    {
+        if (a == b)
+            return true;
+        if (!(a instanceof StringMatch && b instanceof StringMatch))
+            return false;
+
+        StringMatch x = (StringMatch) a;
+        StringMatch y = (StringMatch) b;
+        return x.string.equals(y.string) && x.whitespace == y.whitespace
+            && x.exclude_errors == y.exclude_errors;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the given alternative can take part in prefix hoisting: its sequence frame (if any)
+     * can be removed, and it can't cut or commit (which would affect a different choice, or commit
+     * before the alternative fails).
+     */
+    private boolean hoistable (Parser alternative, boolean excluded)
+    {
+        if (has(alternative, CUTS | COMMITS) || head(alternative) instanceof Empty
+                || alternative.memoizer() != null)
+            return false;
+
+        return !(alternative instanceof Sequence)
+            || excluded
+            || !alternative.exclude_errors
+               && transparent(false, ((Sequence) alternative).children(), false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Replaces each run of adjacent alternatives that start with the same parser (cf. {@link
+     * #same}) by a sequence of this parser followed by a choice between the remainders of the
+     * alternatives.
+     */
+    private List<Parser> hoist (List<Parser> alternatives, boolean excluded)
+    {
+        List<Parser> out = new ArrayList<>();
+
+        for (int i = 0; i < alternatives.size(); )
+        {
+            Parser head = head(alternatives.get(i));
+            int j = i;
+            while (j < alternatives.size()
+                    && same(head(alternatives.get(j)), head)
+                    && hoistable(alternatives.get(j), excluded))
+                ++ j;
+
+            if (j - i < 2) {
+                out.add(alternatives.get(i++));
+                continue;
+            }
+
+            List<Parser> run = alternatives.subList(i, j);
+            i = j;
+
+            List<Parser> rests = new ArrayList<>();
+            for (Parser alternative: run)
+                rests.add(rest(alternative));
+
+            // The new choice and sequence must record the same errors as the alternatives.
+
+            List<Parser> choices = hoist(rests, excluded);
+            List<Parser> sequence = new ArrayList<>();
+            sequence.add(head);
+
+            if (!transparent(false, choices, excluded)) {
+                out.addAll(run);
+                continue;
+            }
+
+            append(sequence, choices.size() == 1
+                ? choices.get(0)
+                : node(new Choice(choices.toArray(new Parser[0]))),
+                excluded);
+
+            if (!transparent(false, sequence, excluded)) {
+                out.addAll(run);
+                continue;
+            }
+
+            out.add(sequence.size() == 1
+                ? head
+                : node(new Sequence(sequence.toArray(new Parser[0]))));
+        }
+
+        return out;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the part of a (hoistable) alternative that follows its head.
+     */
+    private Parser rest (Parser alternative)
+    {
+        if (!(alternative instanceof Sequence))
+            return node(new Empty());
+
+        List<Parser> children = ((Sequence) alternative).children();
+        return children.size() == 1 ? node(new Empty())
+            : children.size() == 2 ? children.get(1)
+            : node(new Sequence(children.subList(1, children.size()).toArray(new Parser[0])));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Computes the facts of a parser created by the optimizer from the facts of its children, and
+     * returns it.
+     */
+    private Parser node (Parser parser)
+    {
+        int effects = effects(parser);
+        facts.put(parser, effects);
+        if (infallible(parser))
+            facts.put(parser, effects | INFALLIBLE);
+        return parser;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
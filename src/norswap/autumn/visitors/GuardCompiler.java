@@ -0,0 +1,78 @@
+package norswap.autumn.visitors;
+
+import norswap.autumn.Parse;
+import norswap.autumn.Parser;
+import norswap.autumn.ParserWalker;
+
+/**
+ * Walks the parser graph and compiles a first-character guard for every parser it encounters (see
+ * {@link Parser#compile_guard(VisitorFirstChars)}).
+ *
+ * <p>A guarded parser that is invoked on a character that can't start it fails with a single
+ * lookup, without calling its {@link Parser#doparse(Parse)} method nor performing the bookkeeping
+ * of {@link Parser#parse(Parse)}. Nullable parsers and parsers that may start with any character
+ * are not guarded. Parse results (including {@link Parse#error}) are unchanged.
+ *
+ * <p>The guard only applies to string inputs: with list inputs, parsers are always invoked.
+ *
+ * <p>Invoke instances of this class through their {@link #compile(Parser)} method, after the
+ * grammar has been fully constructed. Since the guards are stored inside the parsers, the grammar
+ * must not be modified afterwards. If the grammar is shared between threads, compile it before
+ * handing it over to them.
+ *
+ * <p>It may happen that a grammar has multiple roots (not all parsers can be reached from the same
+ * root), in which case {@link #compile(Parser)} can be invoked once on each root.
+ */
+public final class GuardCompiler extends ParserWalker
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private final VisitorFirstChars first_chars_visitor;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The number of parsers whose guard was compiled so far.
+     */
+    public int compiled = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a new guard compiler using the given nullable visitor.
+     *
+     * <p>Since {@link VisitorNullable} memoizes parser nullability, you should reuse an existing
+     * instance as much as possible.
+     */
+    public GuardCompiler (VisitorNullable nullable_visitor) {
+        this.first_chars_visitor = new VisitorFirstChars(nullable_visitor);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a new guard compiler using a freshly constructed nullable visitor.
+     */
+    public GuardCompiler () {
+        this(new VisitorNullable());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Compiles the guards of all parsers reachable from {@code parser}.
+     */
+    public void compile (Parser parser) {
+        walk(parser);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override protected void work (Parser parser, State state)
+    {
+        if (state == State.BEFORE && parser.compile_guard(first_chars_visitor))
+            ++ compiled;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,418 @@
+package norswap.autumn.visitors;
+
+import norswap.autumn.Parser;
+import norswap.autumn.ParserVisitor;
+import norswap.autumn.parsers.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * A visitor that determines the set of characters that a parser may consume first, i.e. the
+ * characters that may appear at the input position where the parser is invoked, if the parser
+ * succeeds while consuming some input.
+ *
+ * <p>To retrieve this set, call {@link #first_chars(Parser)}. To retrieve the set of characters
+ * for which the parser may succeed at all (taking nullability into account), call {@link
+ * #admissible(Parser)}. Parsers that are invoked on a character outside their admissible set
+ * are guaranteed to fail without consuming input.
+ *
+ * <p>Sets are represented as {@link BitSet}s of size {@link #SIZE}. Indices below {@link
+ * #NON_ASCII} stand for the corresponding ASCII characters, while the {@link #NON_ASCII} index
+ * stands for <b>all</b> non-ASCII characters. Use {@link #index(char)} to map a character to its
+ * index. The returned sets must not be modified.
+ *
+ * <p>The sets are over-approximations: a parser whose behaviour cannot be analyzed (e.g. custom
+ * parsers, {@link AbstractPrimitive}, {@link ObjectPredicate}) is assumed to be able to start with
+ * any character. The analysis assumes that {@link CharPredicate} predicates are pure functions.
+ *
+ * <p>For most parsers, the set is the union of the sets of the parsers in its FIRST set (as
+ * computed by {@link VisitorFirstParsers}). Since the grammar may be recursive, the sets are
+ * computed via a fixpoint iteration over all parsers reachable through FIRST edges from the
+ * requested parser. The results are memoized.
+ *
+ * <p>To support custom parsers, provide an appropriate overload using {@link ParserVisitor#extend}.
+ * Also see {@link ParserVisitor}'s Javadoc.
+ *
+ * <p>Within the supplied overloads, add the characters directly consumed by the parser to {@link
+ * #chars} (e.g. via {@link #add_char(char)}), and use {@link #include(Parser)} to indicate that
+ * the first characters of a sub-parser must be included.
+ *
+ * <p>This visitor is used to compile the first-character dispatch tables of {@link Choice} and
+ * {@link Longest} (see {@link ChoiceDispatchCompiler}).
+ */
+public final class VisitorFirstChars implements ParserVisitor
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static HashOverloads overloads = new HashOverloads(VisitorFirstChars.class);
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public Overloads overloads() {
+        return overloads;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The index that stands for all non-ASCII characters in the sets returned by this visitor.
+     */
+    public static final int NON_ASCII = 128;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The size of the sets returned by this visitor.
+     */
+    public static final int SIZE = NON_ASCII + 1;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the index of the given character in the sets returned by this visitor.
+     */
+    public static int index (char c) {
+        return c < NON_ASCII ? c : NON_ASCII;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public final VisitorFirstParsers firsts_visitor;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The set of characters directly consumed by the parser currently being visited.
+     */
+    public BitSet chars;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The sub-parsers whose first characters must be included in the set of the parser currently
+     * being visited. Avoid modifying directly, rather use {@link #include(Parser)}.
+     */
+    public List<Parser> includes;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Memoized results. */
+    private final HashMap<Parser, BitSet> sets = new HashMap<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final BitSet ALL = new BitSet(SIZE);
+    static { ALL.set(0, SIZE); }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a new instance with the given nullable visitor.
+     *
+     * <p>Since {@link VisitorNullable} memoizes parser nullability, you should reuse an existing
+     * instance as much as possible.
+     */
+    public VisitorFirstChars (VisitorNullable nullable_visitor) {
+        this.firsts_visitor = new VisitorFirstParsers(nullable_visitor);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a new instance using a freshly constructed nullable visitor.
+     */
+    public VisitorFirstChars () {
+        this(new VisitorNullable());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the set of characters that {@code parser} may consume first.
+     */
+    public BitSet first_chars (Parser parser)
+    {
+        BitSet set = sets.get(parser);
+        if (set != null)
+            return set;
+
+        compute(parser);
+        return sets.get(parser);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the set of characters on which {@code parser} may succeed: all characters if the
+     * parser is nullable, or its {@link #first_chars(Parser) first characters} otherwise.
+     */
+    public BitSet admissible (Parser parser)
+    {
+        return nullable(parser)
+            ? ALL
+            : first_chars(parser);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Shortcut for {@code firsts_visitor.nullable(parser)}.
+     */
+    public boolean nullable (Parser parser) {
+        return firsts_visitor.nullable(parser);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Indicates that the first characters of {@code parser} must be included in the set of the
+     * parser currently being visited.
+     */
+    public void include (Parser parser) {
+        includes.add(parser);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Indicates that the parser currently being visited may consume {@code c} first.
+     */
+    public void add_char (char c) {
+        chars.set(index(c));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Indicates that the parser currently being visited may consume any character first.
+     */
+    public void add_all() {
+        chars.set(0, SIZE);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the set of characters that satisfy {@code predicate}.
+     */
+    public static BitSet char_set (IntPredicate predicate)
+    {
+        BitSet set = new BitSet(SIZE);
+
+        for (int c = 0; c < NON_ASCII; ++c)
+            if (predicate.test(c))
+                set.set(c);
+
+        for (int c = NON_ASCII; c <= Character.MAX_VALUE; ++c)
+            if (predicate.test(c)) {
+                set.set(NON_ASCII);
+                break;
+            }
+
+        return set;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Computes the sets of all parsers reachable from {@code root} through FIRST edges (and whose
+     * set is not known yet), by iterating until a fixpoint is reached.
+     */
+    private void compute (Parser root)
+    {
+        ArrayList<Parser> parsers = new ArrayList<>();
+        HashMap<Parser, Parser[]> deps = new HashMap<>();
+        ArrayDeque<Parser> work = new ArrayDeque<>();
+        work.push(root);
+
+        while (!work.isEmpty())
+        {
+            Parser parser = work.pop();
+            if (sets.containsKey(parser))
+                continue;
+
+            chars = new BitSet(SIZE);
+            includes = new ArrayList<>();
+            parser.accept(this);
+
+            sets.put(parser, chars);
+            parsers.add(parser);
+            deps.put(parser, includes.toArray(new Parser[0]));
+            includes.forEach(work::push);
+        }
+
+        chars = null;
+        includes = null;
+
+        boolean changed = true;
+        while (changed)
+        {
+            changed = false;
+            for (Parser parser: parsers)
+            {
+                BitSet set = sets.get(parser);
+                int card = set.cardinality();
+                for (Parser dep: deps.get(parser))
+                    set.or(sets.get(dep));
+                if (set.cardinality() != card)
+                    changed = true;
+            }
+        }
+    }
+
+    // =============================================================================================
+
+    @Override public void default_action (Parser parser) {
+        // pessimistic assumption
+        add_all();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void include_firsts (Parser parser) {
+        firsts_visitor.firsts(parser).forEach(this::include);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visit (CharPredicate parser) {
+        chars.or(char_set(parser));
+    }
+
+    @Override public void visit (StringMatch parser)
+    {
+        if (!parser.string.isEmpty())
+            add_char(parser.string.charAt(0));
+        else if (parser.whitespace != null)
+            include(parser.whitespace);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visit (ContextPredicate parser) {
+        // empty
+    }
+
+    @Override public void visit (Empty parser) {
+        // empty
+    }
+
+    @Override public void visit (Fail parser) {
+        // empty
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visit (ObjectPredicate parser) {
+        // only applies to list inputs
+        add_all();
+    }
+
+    @Override public void visit (AbstractPrimitive parser) {
+        // consumes input in unknown ways
+        add_all();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visit (TokenParser parser) {
+        include(parser.target);
+    }
+
+    @Override public void visit (TokenChoice parser) {
+        for (Parser target: parser.targets)
+            include(target);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visit (AbstractChoice parser) {
+        include_firsts(parser);
+    }
+
+    @Override public void visit (AbstractForwarding parser) {
+        include_firsts(parser);
+    }
+
+    @Override public void visit (AbstractWrapper parser) {
+        include_firsts(parser);
+    }
+
+    @Override public void visit (Around parser) {
+        include_firsts(parser);
+    }
+
+    @Override public void visit (Bounded parser) {
+        include_firsts(parser);
+    }
+
+    @Override public void visit (Choice parser) {
+        include_firsts(parser);
+    }
+
+    @Override public void visit (Collect parser) {
+        include_firsts(parser);
+    }
+
+    @Override public void visit (GuardedRecursion parser) {
+        include_firsts(parser);
+    }
+
+    @Override public void visit (LazyParser parser) {
+        include_firsts(parser);
+    }
+
+    @Override public void visit (LeftExpression parser) {
+        include_firsts(parser);
+    }
+
+    @Override public void visit (LeftFold parser) {
+        include_firsts(parser);
+    }
+
+    @Override public void visit (LeftRecursive parser) {
+        include_firsts(parser);
+    }
+
+    @Override public void visit (Longest parser) {
+        include_firsts(parser);
+    }
+
+    @Override public void visit (Lookahead parser) {
+        include_firsts(parser);
+    }
+
+    @Override public void visit (Memo parser) {
+        include_firsts(parser);
+    }
+
+    @Override public void visit (Not parser) {
+        include_firsts(parser);
+    }
+
+    @Override public void visit (Optional parser) {
+        include_firsts(parser);
+    }
+
+    @Override public void visit (Repeat parser) {
+        include_firsts(parser);
+    }
+
+    @Override public void visit (RightExpression parser) {
+        include_firsts(parser);
+    }
+
+    @Override public void visit (RightFold parser) {
+        include_firsts(parser);
+    }
+
+    @Override public void visit (Sequence parser) {
+        include_firsts(parser);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
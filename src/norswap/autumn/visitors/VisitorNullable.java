@@ -179,8 +179,13 @@ public final class VisitorNullable extends ParserWalker implements ParserVisitor
 
     // ---------------------------------------------------------------------------------------------
 
-    @Override public void visit (Collect parser) {
-        add_if_nullable(parser, parser.child);
+    @Override public void visit (Collect parser)
+    {
+        // succeeds without consuming input if the child fails
+        if (parser.action_on_fail)
+            nullables.add(parser);
+        else
+            add_if_nullable(parser, parser.child);
     }
 
     @Override public void visit (LeftRecursive parser) {
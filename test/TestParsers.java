@@ -1,17 +1,47 @@
+import norswap.autumn.Autumn;
 import norswap.autumn.DSL;
+import norswap.autumn.FrozenGrammar;
+import norswap.autumn.MalformedGrammarError;
+import norswap.autumn.Parse;
+import norswap.autumn.ParseMetrics;
+import norswap.autumn.ParseOptions;
 import norswap.autumn.ParseResult;
+import norswap.autumn.ParseSession;
 import norswap.autumn.ParseState;
+import norswap.autumn.Parser;
+import norswap.autumn.ParserMetrics;
+import norswap.autumn.ParserWalker;
 import norswap.autumn.TestFixture;
+import norswap.autumn.compiler.CompiledParser;
+import norswap.autumn.compiler.DFACompiler;
+import norswap.autumn.compiler.MachineParser;
+import norswap.autumn.compiler.ParserCompiler;
+import norswap.autumn.SideEffect;
+import norswap.autumn.memo.AssociativeMemoCache;
+import norswap.autumn.memo.CompactMemoTable;
+import norswap.autumn.memo.MemoCache;
 import norswap.autumn.memo.MemoEntry;
+import norswap.autumn.memo.MemoPlan;
 import norswap.autumn.memo.MemoTable;
+import norswap.autumn.memo.Memoizer;
+import norswap.autumn.memo.OffHeapMemoTable;
+import norswap.autumn.memo.WindowMemoTable;
 import norswap.autumn.parsers.*;
+import norswap.autumn.visitors.ChoiceDispatchCompiler;
+import norswap.autumn.visitors.CopyVisitor;
+import norswap.autumn.visitors.GrammarOptimizer;
+import norswap.autumn.visitors.GuardCompiler;
+import norswap.utils.NArrays;
 import norswap.utils.Slot;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Random;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 import static org.testng.AssertJUnit.assertEquals;
@@ -97,6 +127,18 @@ public final class TestParsers extends DSL
         fixture.assert_equals(actual, expected, 1, () -> "");
     }
 
+    // ---------------------------------------------------------------------------------------------
+
+    private void assert_same_results (Parser a, Parser b, String... inputs) {
+        fixture.assert_same_results(a, b, null, 1, inputs);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void assert_same_result (String input, ParseResult r1, ParseResult r2) {
+        fixture.assert_same_result(input, r1, r2, 1);
+    }
+
     // ==============================================================================================
     // START TESTS
     // ==============================================================================================
@@ -153,6 +195,36 @@ public final class TestParsers extends DSL
         success("a");
         success("b");
         failure("c");
+
+        rule = set("a\u00e9");
+        success("\u00e9");
+        failure("\u00e8");
+
+        rule = cpred(Character::isLetter);
+        success("a");
+        success("\u00e9");
+        failure("1");
+
+        CharPredicate letter = new CharPredicate("letter", Character::isLetter);
+        CharPredicate vowel = CharPredicate.set("aeiouy\u00e9");
+
+        rule = rule(letter.union(CharPredicate.digit()));
+        success("\u00e9");
+        success("1");
+        failure("_");
+
+        rule = rule(letter.intersect(vowel.negate()));
+        success("b");
+        success("\u00e8");
+        failure("\u00e9");
+        failure("a");
+        failure("1");
+
+        rule = rule(vowel.negate());
+        success("b");
+        success("\u00e8");
+        failure("a");
+        failure("\0");
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -235,6 +307,11 @@ public final class TestParsers extends DSL
         failure("");
         failure("aa", 2);
         prefix("aaaa", 3);
+
+        // character predicates are scanned in a single loop, with the same outcome
+        Parser span = seq(digit.at_least(2), "x").opt().get();
+        Parser loop = seq(seq(digit, empty).at_least(2), "x").opt().get();
+        assert_same_results(span, loop, "", "1", "12", "123x", "12y", "1234");
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -308,6 +385,362 @@ public final class TestParsers extends DSL
 
     // ---------------------------------------------------------------------------------------------
 
+    private rule dispatch_grammar()
+    {
+        rule keyword = choice(word("if"), word("int"), word("else"), word("while"));
+        rule number  = digit.at_least(1).collect().push_string_match();
+        rule unicode = cpred(c -> c > 127).at_least(1);
+        rule silent  = str("#!");
+        silent.get().exclude_errors = true;
+        rule item    = choice(
+            keyword, number, silent, seq(set("+-").opt(), character('e')),
+            unicode, str("(").sep(1, str(",")), str(")"));
+        return choice(item.at_least(1), str("$"), character('!').opt());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void choice_dispatch()
+    {
+        Parser plain = dispatch_grammar().get();
+        Parser compiled = dispatch_grammar().get();
+        new ChoiceDispatchCompiler().compile(compiled);
+        assertEquals(((Choice) compiled).dispatch_compiled(), true);
+
+        assert_same_results(plain, compiled,
+            "", "$", "if", "int 12 else", "while#!", "(((,))", "e+e-e", "éà", "12x", "+", "#",
+            "if else whilst", "\u0000", "int\u00e9 3 $");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void longest_dispatch()
+    {
+        rule keyword = longest(word("if"), word("int"), str("i").at_least(1), word("else"));
+        Parser plain = longest(keyword, dispatch_grammar(), str("in")).get();
+        Parser compiled = longest(keyword, dispatch_grammar(), str("in")).get();
+        new ChoiceDispatchCompiler().compile(compiled);
+        assertEquals(((Longest) compiled).dispatch_compiled(), true);
+
+        assert_same_results(plain, compiled,
+            "", "$", "if", "iii", "in", "int 12 else", "else", "(((,))", "e+e-e", "\u00e9", "#");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void choice_dispatch_maybe()
+    {
+        // maybe() succeeds without consuming input when its child fails: alternatives that start
+        // with it must not be skipped on characters their child can't start with
+        // (dispatch is disabled when recording call stacks)
+        fixture.record_call_stack = false;
+        try {
+            rule = choice(seq(str("a").maybe(), str("b")), str("c"));
+            new ChoiceDispatchCompiler().compile(rule.get());
+            success("ab");
+            success("b");
+            success("c");
+            failure("d", 0);
+
+            rule = longest(seq(str("a").maybe(), str("b")), str("bb"));
+            new ChoiceDispatchCompiler().compile(rule.get());
+            success("ab");
+            success("b");
+            success("bb");
+            failure("d", 0);
+        }
+        finally {
+            fixture.record_call_stack = true;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void guards()
+    {
+        rule recovered = str("x").maybe();
+        Parser plain = seq(dispatch_grammar(), recovered).get();
+        Parser guarded = seq(dispatch_grammar(), recovered).get();
+
+        GuardCompiler compiler = new GuardCompiler();
+        compiler.compile(guarded);
+        assertEquals(true, compiler.compiled > 0);
+        assertEquals(false, guarded.guarded()); // nullable
+        assertEquals(false, recovered.get().guarded());
+
+        assert_same_results(plain, guarded,
+            "", "$", "if", "int 12 else", "while#!", "(((,))", "e+e-e", "\u00e9\u00e0", "12x",
+            "+", "#", "if else whilst", "\u0000", "int\u00e9 3 $", "!x", "ex");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void frozen_grammar()
+    {
+        Parser plain = dispatch_grammar().memo().get();
+        Parser frozen = dispatch_grammar().memo().get();
+        FrozenGrammar grammar = FrozenGrammar.freeze(frozen);
+
+        assertEquals(size(plain), grammar.size());
+        assertEquals(frozen, grammar.parser(0));
+        for (int i = 0; i < grammar.size(); ++i) {
+            Parser parser = grammar.parser(i);
+            assertEquals(i, parser.id());
+            assertEquals(grammar, parser.grammar());
+            List<Parser> children = new ArrayList<>();
+            parser.children().forEach(children::add);
+            assertEquals(children, Arrays.asList(parser.child_array()));
+        }
+
+        assertEquals(-1, plain.id());
+        try {
+            FrozenGrammar.freeze(plain, frozen);
+            throw new AssertionError("expected an error");
+        }
+        catch (Error e) {
+            if (e instanceof AssertionError) throw e;
+        }
+
+        ParseOptions options = ParseOptions.trace(true).get();
+        for (String input: new String[] { "", "int 12 else", "(((,))", "e+e-e", "12x" }) {
+            ParseResult r1 = Autumn.parse(plain, input, options);
+            ParseResult r2 = Autumn.parse(frozen, input, options);
+            assert_same_result(input, r1, r2);
+            assertEquals(r1.parse_metrics.metrics.size(), r2.parse_metrics.metrics.size());
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void well_formedness_cache()
+    {
+        Parser malformed = str("").at_least(0).get();
+        for (int i = 0; i < 2; ++i) {
+            try {
+                Autumn.parse(malformed, "", ParseOptions.get());
+                throw new AssertionError("expected a malformed grammar error");
+            }
+            catch (MalformedGrammarError e) {
+                // expected, every time
+            }
+        }
+
+        Parser parser = str("a").at_least(0).get();
+        for (String input: new String[] { "aa", "", "aab" }) {
+            ParseResult r1 = Autumn.parse(parser, input, ParseOptions.get());
+            ParseResult r2 = Autumn.parse(parser, input,
+                ParseOptions.well_formedness_check(false).get());
+            assert_same_result(input, r1, r2);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void memo_plan()
+    {
+        int[] calls = { 0 };
+        Parser[] terms = new Parser[2];
+        Parser[] roots = new Parser[2];
+        for (int i = 0; i < 2; ++i) {
+            rule term = seq(context(p -> ++ calls[0] > 0), digit.at_least(1))
+                .collect().push_string_match();
+            terms[i] = term.get();
+            terms[i].set_rule("term");
+            roots[i] = choice(seq(term, "+", term), seq(term, "-", term), term).get();
+        }
+
+        ParseOptions trace = ParseOptions.trace(true).get();
+        List<ParseMetrics> runs = new ArrayList<>();
+        for (String input: new String[] { "12", "3-4", "567" })
+            runs.add(Autumn.parse(roots[0], input, trace).parse_metrics);
+
+        ParserMetrics metrics = runs.get(0).get(terms[0]);
+        assertEquals(3, metrics.invocations);
+        assertEquals(2, metrics.reinvocations);
+        assertEquals(2, metrics.reinvocations_by_recency[0]);
+
+        MemoPlan plan = MemoPlan.derive(0.2, 1, runs.toArray(new ParseMetrics[0]));
+        assertEquals(Collections.singletonMap("term", 1), plan.rules());
+        assertEquals("cache 1 term\n", plan.toString());
+
+        plan = MemoPlan.parse("# comment\n\n" + plan);
+        assertEquals(Collections.singletonMap("term", 1), plan.rules());
+        assertEquals(1, plan.apply(roots[0]));
+        assertEquals(Collections.singletonMap("term x", 0), MemoPlan.parse("table term x").rules());
+
+        for (String input: new String[] { "12", "3-4", "567+8", "9*", "" }) {
+            calls[0] = 0;
+            ParseResult r1 = Autumn.parse(roots[0], input, ParseOptions.get());
+            int planned = calls[0];
+            calls[0] = 0;
+            ParseResult r2 = Autumn.parse(roots[1], input, ParseOptions.get());
+            assert_same_result(input, r2, r1);
+            if (input.length() == 2)
+                assertEquals(true, planned < calls[0]);
+        }
+
+        // copies and compiled parsers keep the memoizers
+        List<Function<Parser, Parser>> variants = new ArrayList<>(Arrays.asList(
+            root -> new CopyVisitor().get_copy(root),
+            root -> new GrammarOptimizer().optimize(root),
+            root -> new DFACompiler().compile(root),
+            MachineParser::new,
+            root -> new MachineParser(new GrammarOptimizer().optimize(root))));
+        if (ParserCompiler.available())
+            variants.add(ParserCompiler::compile);
+
+        // the optimizer hoists the term out of the choice, so parse it twice
+        for (int i = 0; i < 2; ++i)
+            roots[i] = seq(rule(roots[i]).ahead(), roots[i]).get();
+
+        for (Function<Parser, Parser> variant: variants) {
+            Parser planned_root = variant.apply(roots[0]);
+            Parser plain_root = variant.apply(roots[1]);
+            for (String input: new String[] { "12", "3-4", "9*", "3-" }) {
+                calls[0] = 0;
+                ParseResult r1 = Autumn.parse(planned_root, input, ParseOptions.get());
+                int planned = calls[0];
+                calls[0] = 0;
+                ParseResult r2 = Autumn.parse(plain_root, input, ParseOptions.get());
+                assert_same_result(input, r2, r1);
+                // the memo cache has a single slot
+                if (input.equals("12"))
+                    assertEquals(true, planned < calls[0]);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void string_choice()
+    {
+        rule = str_choice("a", "ab", "b", "");
+        prefix("ab", 1);
+        success("b");
+        success("");
+        prefix("c", 0);
+
+        rule = str_choice("do", "double", "if").collect().push_string_match();
+        success("do", "do");
+        prefix("double", 2);
+        success("if", "if");
+        failure("i", 0);
+        failure("x", 0);
+
+        rule = longest_str_choice("do", "double", "d").collect().push_string_match();
+        success("double", "double");
+        success("do", "do");
+        success("d", "d");
+        prefix("dob", 2);
+        failure("", 0);
+
+        rule = seq(str_choice("+", "++", "-"), str_choice("+", "=").at_least(1));
+        success("++");
+        success("+++");
+        failure("-", 1);
+        failure("+-", 1);
+
+        // only the matching literals are tried (without call stacks), with the same results
+        String[] strings = { "do", "double", "d", "if", "" };
+        String[] inputs = { "double", "do", "dob", "d", "if", "i", "x", "" };
+        assert_same_results(str_choice(strings).get(), choice((Object[]) strings).get(), inputs);
+        assert_same_results(
+            longest_str_choice(strings).get(), longest((Object[]) strings).get(), inputs);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void cut()
+    {
+        rule = choice(
+            seq(character('a'), cut, character('b')),
+            seq(character('a'), character('c')));
+        success("ab");
+        failure("ac", 1);
+
+        // cut only affects the innermost choice
+        rule = choice(
+            seq(choice(seq(character('a'), cut, character('b')), character('x')), character('c')),
+            str("ac"));
+        success("abc");
+        success("ac");
+        failure("ax", 1);
+
+        // cut in a successful alternative has no effect on the enclosing choice
+        rule = choice(
+            seq(choice(seq(character('a'), cut), character('b')), character('c')),
+            str("ab"));
+        success("ac");
+        success("ab");
+
+        // other alternations don't let the cut escape
+        rule = choice(longest(seq(character('a'), cut, character('b')), str("ax")), str("ac"));
+        success("ac");
+
+        Parser cutter = seq(character('a'), cut, character('b')).get();
+        rule = choice(rule(new AbstractChoice("alt", cutter) {
+            @Override protected boolean doparse (Parse parse) {
+                return cutter.parse(parse);
+            }
+        }), str("ac"));
+        success("ac");
+
+        // results that cut aren't memoized, so that the cut still applies when they are reused
+        rule memo = seq(character('a'), cut).memo();
+        rule = seq(memo.ahead(), choice(seq(memo, character('b')), str("ac")));
+        failure("ac", 1);
+        assert_same_results(rule.get(), new MachineParser(rule.get()), "ab", "ac");
+        if (ParserCompiler.available())
+            assert_same_results(rule.get(), ParserCompiler.compile(rule.get()), "ab", "ac");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void commit()
+    {
+        rule = seq(
+            choice(seq(str("decl"), character(';')), str("declare")).at_least(0),
+            str("end"));
+        success("decl;declareend");
+
+        rule decl = seq(str("decl"), commit, character(';')).push(xs -> "decl");
+        rule = seq(choice(decl, str("declare")).at_least(0), str("end"));
+        success("decl;decl;end");
+        failure("decl;declareend", 9);
+
+        Parser parser = seq(decl.at_least(0), str("end")).get();
+        ParseResult r = Autumn.parse(parser, "decl;decl;end", ParseOptions.get());
+        assertEquals(r.full_match, true);
+        assertEquals(r.value_stack.size(), 2);
+
+        assertEquals(r.commit_violated, false);
+
+        // backtracking past the commit point is flagged, the furthest error is reported as usual
+        parser = seq(str("a").push(xs -> "a"), commit, str("b"), str("c")).get();
+        r = Autumn.parse(parser, "abd", ParseOptions.get());
+        assertEquals(r.success, false);
+        assertEquals(r.commit_violated, true);
+        assertEquals(r.error_position, 2);
+        assertEquals(r.value_stack.size(), 0);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void commit_log()
+    {
+        // the log journal only holds the entries since the last commit
+        int[] capacity = { 0 };
+        rule item = seq(str("x").push(xs -> "x"), commit).collect()
+            .action((p,xs) -> capacity[0] = Math.max(capacity[0], p.log.capacity()));
+
+        String input = String.join("", Collections.nCopies(10_000, "x"));
+        ParseResult r = Autumn.parse(item.at_least(0).get(), input, ParseOptions.get());
+        assertEquals(r.full_match, true);
+        assertEquals(capacity[0] <= 64, true);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     @Test public void longest()
     {
         rule = longest(
@@ -324,6 +757,57 @@ public final class TestParsers extends DSL
 
     // ---------------------------------------------------------------------------------------------
 
+    @Test public void value_stack_log()
+    {
+        // pushes, pops and multi-pops are undone on backtracking, and replayed from deltas
+        rule pair = seq(a, a).push(this::pair_concat);
+        rule = longest(
+            seq(pair, b, empty.collect().action((p,xs) -> p.stack.pop())),
+            seq(pair, a));
+
+        Parser parser = seq(rule, a.opt()).collect().push(Arrays::toString).get();
+
+        ParseResult r = Autumn.parse(parser, "aaa", ParseOptions.get());
+        assertEquals(r.full_match, true);
+        assertEquals(r.value_stack.size(), 1);
+        assertEquals(r.value_stack.peek(), "[(a,a), a]");
+
+        r = Autumn.parse(parser, "aab", ParseOptions.get());
+        assertEquals(r.full_match, true);
+        assertEquals(r.value_stack.size(), 1);
+        assertEquals(r.value_stack.peek(), "[(a,a)]");
+
+        r = Autumn.parse(parser, "aaba", ParseOptions.get());
+        assertEquals(r.full_match, true);
+        assertEquals(r.value_stack.peek(), "[(a,a), a]");
+
+        // memoized deltas replay stack operations
+        rule pmemo = seq(pair, b, empty.collect().action((p,xs) -> p.stack.pop())).memo();
+        parser = choice(seq(pmemo, a), seq(pmemo, b)).collect().push(Arrays::toString).get();
+
+        r = Autumn.parse(parser, "aabb", ParseOptions.get());
+        assertEquals(r.full_match, true);
+        assertEquals(r.value_stack.size(), 1);
+        assertEquals(r.value_stack.peek(), "[(a,a), b]");
+
+        // read access to the applied side effects
+        SideEffect effect = () -> () -> {};
+        List<SideEffect.Applied> applied = new ArrayList<>();
+        parser = seq(pair, empty.collect().action((p,xs) -> {
+            p.log.apply(effect);
+            for (int i = 0; i < p.log.size(); ++i)
+                applied.add(p.log.get(i));
+        })).get();
+
+        Autumn.parse(parser, "aa", ParseOptions.get());
+        assertEquals(applied.isEmpty(), false);
+        for (SideEffect.Applied entry: applied)
+            assertEquals(entry.effect != null && entry.undo != null, true);
+        assertEquals(applied.get(applied.size() - 1).effect, effect);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     @Test public void lookahead()
     {
         rule = seq(character('a').ahead(), character('a'));
@@ -495,34 +979,184 @@ public final class TestParsers extends DSL
 
     // ---------------------------------------------------------------------------------------------
 
-    @Test public void memo_table_implem()
+    /**
+     * Runs {@code n} random lookups in the memoizer returned by {@code supplier}, memoizing a
+     * random result whenever the lookup misses, and checks the lookups against a hash map.
+     * Returns the number of memoized results.
+     */
+    private int random_memoization (Supplier<Memoizer> supplier, boolean match_parser, int n)
     {
+        Memoizer table = supplier.get();
         HashMap<Integer, MemoEntry> map = new HashMap<>();
-        MemoTable table = new MemoTable(false);
-        int N = 1000_000;
+        Parser[] parsers = { a.get(), b.get(), aa.get() };
+        List<SideEffect> delta = Collections.singletonList(() -> () -> {});
         int RANGE = 10_000;
-        int NTOKENS = 100;
         int SPAN = 100;
         Random random = new Random();
 
-        for (int i = 0; i < N; ++i)
+        for (int i = 0; i < n; ++i)
         {
             int pos = random.nextInt(RANGE);
-            MemoEntry e = table.get(null, pos, null);
-            assertEquals(e, map.get(pos));
-
-            if (e == null) {
+            int k = random.nextInt(parsers.length);
+            String ctx = random.nextBoolean() ? null : "ctx";
+            int key = (pos * parsers.length + (match_parser ? k : 0)) * 2 + (ctx == null ? 0 : 1);
+            MemoEntry e = table.get(parsers[k], pos, ctx);
+            MemoEntry expected = map.get(key);
+
+            if (expected == null) {
+                assertEquals(e, null);
+                boolean success = random.nextBoolean();
                 MemoEntry entry = new MemoEntry(
-                    true,
-                    null,
+                    success,
+                    parsers[k],
                     pos,
                     pos + random.nextInt(SPAN),
-                    Collections.emptyList(),
-                    null);
+                    random.nextBoolean() ? delta : Collections.emptyList(),
+                    ctx);
                 table.memoize(entry);
-                map.put(pos, entry);
+                map.put(key, entry);
+            }
+            else {
+                assertEquals(e.parser, expected.parser);
+                assertEquals(e.start_position, expected.start_position);
+                assertEquals(e.end_position, expected.end_position);
+                assertEquals(e.delta, expected.delta);
+                assertEquals(e.ctx, expected.ctx);
             }
         }
+
+        return map.size();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void memo_table_implem()
+    {
+        random_memoization(() -> new MemoTable(false), false, 1000_000);
+        random_memoization(() -> new MemoTable(true), true, 100_000);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void compact_memo_table_implem()
+    {
+        random_memoization(() -> new CompactMemoTable(true), true, 100_000);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void off_heap_memo_table_implem()
+    {
+        OffHeapMemoTable table
+            = new OffHeapMemoTable(100_000, OffHeapMemoTable.Overflow.THROW, true);
+
+        // records are allocated in order, one slab at a time, and the index grows with them
+        long index_bytes = table.allocated_bytes();
+        assertEquals(index_bytes, OffHeapMemoTable.SLAB_SLOTS * 4L);
+        table.memoize(new MemoEntry(true, a.get(), 0, 1, Collections.emptyList(), null));
+        long slab_bytes = table.allocated_bytes() - index_bytes;
+        for (int pos = 1; pos < OffHeapMemoTable.SLAB_SLOTS; ++pos)
+            table.memoize(new MemoEntry(true, a.get(), pos, pos, Collections.emptyList(), null));
+        assertEquals(table.allocated_bytes(), 2 * index_bytes + slab_bytes);
+        table.memoize(new MemoEntry(true, b.get(), 0, 1, Collections.emptyList(), null));
+        assertEquals(table.allocated_bytes(), 2 * index_bytes + 2 * slab_bytes);
+        assertEquals(table.allocated_bytes() < table.max_bytes(), true);
+        assertEquals(table.get(b.get(), 0, null).end_position, 1);
+        for (int pos = 1; pos < OffHeapMemoTable.SLAB_SLOTS; pos += 101)
+            assertEquals(table.get(a.get(), pos, null).end_position, pos);
+
+        // repeated hits reuse the materialized entry
+        assertEquals(table.get(a.get(), 0, null) == table.get(a.get(), 0, null), true);
+
+        table.clear();
+        int size = random_memoization(() -> table, true, 100_000);
+        assertEquals(size, table.size());
+        assertEquals(true, table.allocated_bytes() <= table.max_bytes());
+        table.clear();
+        assertEquals(0, table.size());
+        assertEquals(null, table.get(a.get(), 0, null));
+
+        // overflow policies
+        for (OffHeapMemoTable.Overflow overflow: OffHeapMemoTable.Overflow.values()) {
+            OffHeapMemoTable small = new OffHeapMemoTable(2, overflow, false);
+            for (int pos = 0; pos < 2; ++pos)
+                small.memoize(new MemoEntry(true, null, pos, pos, Collections.emptyList(), null));
+            try {
+                small.memoize(new MemoEntry(true, null, 2, 2, Collections.emptyList(), null));
+                assertEquals(overflow != OffHeapMemoTable.Overflow.THROW, true);
+            }
+            catch (OffHeapMemoTable.MemoOverflowError e) {
+                assertEquals(overflow, OffHeapMemoTable.Overflow.THROW);
+            }
+            boolean cleared = overflow == OffHeapMemoTable.Overflow.CLEAR;
+            assertEquals(cleared, small.get(null, 0, null) == null);
+            assertEquals(cleared, small.get(null, 2, null) != null);
+            assertEquals(cleared ? 1 : 2, small.size());
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void associative_memo_cache_implem()
+    {
+        AssociativeMemoCache cache = new AssociativeMemoCache(10, 4, false);
+        assertEquals(4, cache.num_sets);
+        assertEquals(16, cache.num_slots);
+
+        // single set: least recently used eviction
+        cache = new AssociativeMemoCache(4, 4, false);
+        for (int pos = 0; pos < 4; ++pos)
+            cache.memoize(new MemoEntry(true, null, pos, pos + 1, Collections.emptyList(), null));
+        assertEquals(0, cache.get(null, 0, null).start_position);
+        cache.memoize(new MemoEntry(true, null, 4, 5, Collections.emptyList(), null));
+        assertEquals(null, cache.get(null, 1, null));
+        for (int pos: new int[] { 0, 2, 3, 4 })
+            assertEquals(pos + 1, cache.get(null, pos, null).end_position);
+
+        // consecutive positions fill all the sets
+        cache = new AssociativeMemoCache(4096, true);
+        Parser parser = a.get();
+        for (int pos = 0; pos < 4096; ++pos)
+            cache.memoize(new MemoEntry(false, parser, pos, pos, Collections.emptyList(), null));
+        for (int pos = 0; pos < 4096; ++pos) {
+            assertEquals(false, cache.get(parser, pos, null).succeeded());
+            assertEquals(null, cache.get(b.get(), pos, null));
+        }
+
+        cache.clear();
+        assertEquals(null, cache.get(parser, 0, null));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void window_memo_table_implem()
+    {
+        WindowMemoTable table = new WindowMemoTable(10, false);
+        for (int pos = 0; pos < 100; pos += 3)
+            table.memoize(new MemoEntry(true, null, pos, pos + 1, Collections.emptyList(), null));
+
+        assertEquals(table.watermark(), 99 - 10);
+        assertEquals(table.get(null, 87, null), null);
+        assertEquals(table.get(null, 90, null).end_position, 91);
+        assertEquals(table.get(null, 99, null).end_position, 100);
+        assertEquals(table.get(null, 98, null), null);
+
+        table.commit(95);
+        assertEquals(table.get(null, 93, null), null);
+        assertEquals(table.get(null, 99, null).end_position, 100);
+
+        table.commit(1000);
+        assertEquals(table.get(null, 99, null), null);
+        table.memoize(new MemoEntry(false, null, 5000, 0, Collections.emptyList(), null));
+        assertEquals(table.get(null, 5000, null).succeeded(), false);
+
+        ParseState<Memoizer> memo = new ParseState<>("window", () -> new WindowMemoTable(2, true));
+        rule = choice(
+            seq(a.memo(memo), a.memo(memo), b.memo(memo)),
+            seq(a.memo(memo), a.memo(memo), a.memo(memo)));
+        success("aab");
+        success("aaa");
+        failure("aac", 2);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -549,6 +1183,66 @@ public final class TestParsers extends DSL
 
     // ---------------------------------------------------------------------------------------------
 
+    @Test public void token_cache()
+    {
+        Parser[] roots = new Parser[2];
+        for (int i = 0; i < 2; ++i) {
+            DSL dsl = i == 0 ? new DSL() : new DSL(() -> new MemoCache(8, false));
+            DSL.rule x  = dsl.str("x").collect().push_string_match().token();
+            DSL.rule xx = dsl.str("xx").collect().push_string_match().token();
+            DSL.rule y  = dsl.str("y").collect().push_string_match().token();
+            roots[i] = dsl.choice(
+                dsl.seq(dsl.choice(xx, x).at_least(0), y),
+                dsl.seq(dsl.token_choice(x, xx, y).at_least(0), dsl.str("z")))
+                .get();
+        }
+
+        ParseSession session = new ParseSession(roots[0], ParseOptions.get());
+        for (String input: new String[] { "xxxy", "xxy", "xyxz", "xxxxz", "", "y", "xw", "xxxx" }) {
+            ParseResult r1 = Autumn.parse(roots[0], input, ParseOptions.get());
+            ParseResult r2 = Autumn.parse(roots[1], input, ParseOptions.get());
+            ParseResult r3 = session.parse(input);
+            assert_same_result(input, r2, r1);
+            assert_same_result(input, r2, r3);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void token_first_chars()
+    {
+        Parser[] roots = new Parser[2];
+        for (int i = 0; i < 2; ++i) {
+            DSL dsl = new DSL();
+            DSL.rule[] bases = {
+                dsl.str("if"),
+                dsl.seq(dsl.alpha, dsl.alphanum.at_least(0)),
+                dsl.digit.at_least(1),
+                dsl.str("in"),
+                dsl.set("+-").at_least(1),
+                dsl.cpred(c -> c > 127).at_least(1),
+                dsl.str(" ").at_least(1),
+            };
+            for (int j = 0; j < bases.length; ++j) {
+                int j_ = j;
+                bases[j] = bases[j].collect().push_string_match().push(xs -> j_ + ":" + xs[0]);
+            }
+            roots[i] = i == 0
+                ? dsl.token_choice((Object[]) NArrays.map(bases, new DSL.rule[0], DSL.rule::token))
+                    .at_least(0).get()
+                : dsl.longest((Object[]) bases).at_least(0).get();
+        }
+
+        for (String input: new String[] {
+                "if in12+-x", "iffy 42 ++", "\u00e9\u00e8a1", "a\u00e9", "  if", "", "!", "in!" }) {
+            ParseResult r1 = Autumn.parse(roots[0], input, ParseOptions.get());
+            ParseResult r2 = Autumn.parse(roots[1], input, ParseOptions.get());
+            assert_same_result(input, r2, r1);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     @Test public void left_recursive()
     {
         // simple left-recursion
@@ -951,6 +1645,257 @@ public final class TestParsers extends DSL
 
     // ---------------------------------------------------------------------------------------------
 
+    @Test public void parse_session()
+    {
+        ParseState<Slot<Integer>> ctr = new ParseState<>("counter", () -> new Slot<>(0));
+
+        rule amemo = a.collect().action((p,xs) -> p.log.apply(() -> {
+            ++ ctr.data(p).x;
+            return () -> -- ctr.data(p).x;
+        })).memo();
+
+        Parser parser = choice(seq(amemo, amemo, b), seq(amemo, amemo), amemo).get();
+        ParseSession session = new ParseSession(parser, ParseOptions.get());
+        String[] inputs = { "aa", "a", "aab", "b", "aaa", "", "aab" };
+        ParseResult previous = null;
+        String previous_stack = null;
+
+        for (String input: inputs)
+        {
+            ParseResult r1 = Autumn.parse(parser, input, ParseOptions.get());
+            ParseResult r2 = session.parse(input);
+
+            assert_same_result(input, r1, r2);
+            Slot<Integer> c1 = r1.parse_state("counter"), c2 = r2.parse_state("counter");
+            assertEquals(c1 == null ? null : c1.x, c2 == null ? null : c2.x);
+
+            // the memoizer is reused, and previous results aren't affected by the new parse
+            if (previous != null) {
+                assertEquals(memoizer(previous), memoizer(r2));
+                assertEquals(previous_stack, String.valueOf(previous.value_stack));
+            }
+            previous = r2;
+            previous_stack = String.valueOf(r2.value_stack);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Memoizer memoizer (ParseResult result)
+    {
+        return (Memoizer) result.parse_states.values().stream()
+            .filter(x -> x instanceof Memoizer)
+            .findFirst().orElse(null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void parse_all()
+    {
+        ParseState<Slot<Integer>> ctr = new ParseState<>("counter", () -> new Slot<>(0));
+
+        rule amemo = a.collect().action((p,xs) -> p.log.apply(() -> {
+            ++ ctr.data(p).x;
+            return () -> -- ctr.data(p).x;
+        })).memo();
+
+        Parser parser = choice(seq(amemo, amemo, b), seq(amemo, amemo), amemo).get();
+        List<String> inputs = new ArrayList<>();
+        for (int i = 0; i < 20; ++i)
+            inputs.addAll(Arrays.asList("aa", "a", "aab", "b", "aaa", ""));
+
+        List<ParseResult> results = Autumn.parse_all(parser, inputs, ParseOptions.get());
+        assertEquals(results.size(), inputs.size());
+
+        for (int i = 0; i < inputs.size(); ++i)
+        {
+            ParseResult r1 = Autumn.parse(parser, inputs.get(i), ParseOptions.get());
+            ParseResult r2 = results.get(i);
+            assert_same_result(inputs.get(i), r1, r2);
+
+            // memoizers are reused by the sessions, so they are dropped from the results
+            assertEquals(memoizer(r2), null);
+            Slot<Integer> c1 = r1.parse_state("counter"), c2 = r2.parse_state("counter");
+            assertEquals(c1 == null ? null : c1.x, c2 == null ? null : c2.x);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sets {@link #rule} to a small grammar of let bindings, words and nested lists — exercising
+     * cuts, lookaheads, memoization and stack actions — and returns its parser. Used to test the
+     * alternative parser backends against the interpreted parser, on {@link #backend_inputs}.
+     */
+    private Parser backend_grammar()
+    {
+        rule word = cpred(Character::isLetter).at_least(1).word().collect().push_string_match();
+        rule list = seq(str("("), lazy(() -> this.rule).sep(0, ","), str(")"))
+            .push(xs -> Arrays.toString(xs));
+        rule = choice(
+            seq(str("let"), cut, word, str("="), word),
+            list,
+            seq(word.memo(), str("!").not(), str("?").opt().push(xs -> "?")),
+            seq(word, str("!").ahead(), str("!")));
+        return rule.get();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String[] backend_inputs = {
+        "abc", "abc?", "abc!", "let x = y", "let = y", "(a,(b,c),())", "(a,", "" };
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void compiler()
+    {
+        if (!ParserCompiler.available()) return;
+
+        Parser parser = backend_grammar();
+        CompiledParser compiled = ParserCompiler.compile(parser);
+        assert_same_results(parser, compiled, backend_inputs);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void machine()
+    {
+        Parser parser = backend_grammar();
+        MachineParser machine = new MachineParser(parser);
+        assert_same_results(parser, machine, backend_inputs);
+
+        // deep nesting does not overflow the JVM stack
+        rule = seq(str("("), lazy(() -> this.rule).opt(), str(")"));
+        MachineParser nested = new MachineParser(rule.get());
+        int depth = 100_000;
+        String input = String.join("", Collections.nCopies(depth, "("))
+            + String.join("", Collections.nCopies(depth, ")"));
+        assertEquals(true, Autumn.parse(nested, input, ParseOptions.get()).full_match);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void dfa()
+    {
+        rule line_comment = seq("//", seq(str("\n").not(), any).at_least(0), str("\n").opt());
+        rule multi_comment = seq("/*", seq(str("*/").not(), any).at_least(0), "*/");
+        rule spaces = choice(set(" \t\n"), line_comment, multi_comment).at_least(0);
+        spaces.get().exclude_errors = true;
+
+        rule letter = cpred(Character::isLetter);
+        rule iden = seq(letter, choice(letter, digit, "_").at_least(0), spaces);
+        rule number = seq(
+            digit.at_least(1),
+            seq(".", digit.at_least(1)).opt(),
+            seq(set("eE"), set("+-").opt(), digit.at_least(1)).opt(),
+            spaces);
+        Parser keyword = new StringMatch("if", spaces.get());
+        rule token = choice(keyword, iden, number, "==", "=", "(", ")");
+        rule = seq(spaces, token.at_least(0));
+
+        Parser parser = rule.get();
+        DFACompiler compiler = new DFACompiler();
+        Parser compiled = compiler.compile(parser);
+        assertEquals(true, compiler.compiled > 0);
+
+        assert_same_results(parser, compiled,
+            "", " ", "if", "iff (x == 1.5e+3)", "x = 1.", "1.5e", "a // b\n c",
+            "// eof", "/* a * / b */ c", "/* unterminated *", "x /", "\u00e91 = 2E-7 /**/", "1_");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static int size (Parser parser)
+    {
+        Slot<Integer> size = new Slot<>(0);
+        new ParserWalker() {
+            @Override protected void work (Parser parser, State state) {
+                if (state == State.BEFORE) ++ size.x;
+            }
+        }.walk(parser);
+        return size.x;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void walker_shared_parsers()
+    {
+        // a parser that is visited again must not be left on the walker's path
+        rule pair = seq(str("x"), str("y"));
+        Parser root = seq(pair, pair, pair).get();
+
+        ArrayList<ParserWalker.State> states = new ArrayList<>();
+        new ParserWalker() {
+            @Override protected void work (Parser parser, State state) {
+                if (parser == pair.get())
+                    states.add(state);
+                if (parser == root && state == State.AFTER)
+                    assertEquals(in_path(pair.get()), false);
+            }
+        }.walk(root);
+
+        assertEquals(states, Arrays.asList(ParserWalker.State.BEFORE, ParserWalker.State.AFTER,
+            ParserWalker.State.VISITED, ParserWalker.State.VISITED));
+
+        // hence shared parsers are not mistaken for recursion (and wrapped in lazy parsers)
+        CopyVisitor copier = new CopyVisitor();
+        Parser copy = copier.get_copy(root);
+        Parser pair_copy = copier.get_copy(pair.get());
+        assertEquals(copy.children(), Arrays.asList(pair_copy, pair_copy, pair_copy));
+        assertEquals(pair_copy instanceof Sequence, true);
+
+        // substitutes replace the copy of a specific parser
+        copier = new CopyVisitor();
+        copier.substitute(pair.get(), str("z").get());
+        rule = rule(copier.get_copy(root));
+        success("zzz");
+        failure("xyxyxy");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void optimizer()
+    {
+        rule comment = seq(str("/"), str("*"), seq(str("*/").not(), any).at_least(0), "*/");
+        rule spaces = seq(choice(set(" \t"), comment).at_least(0), empty);
+        spaces.get().exclude_errors = true;
+
+        Slot<Parser> expr = new Slot<>();
+        rule ref = lazy_parser(() -> expr.x);
+        rule iden = seq(alpha, alphanum.at_least(0), spaces).collect().push_string_match();
+        rule number = seq(seq(digit.at_least(1), empty), spaces).collect().push_string_match();
+        rule atom = choice(
+            seq(str("("), spaces, ref, str(")"), spaces),
+            seq(iden, str("("), spaces, ref, str(")"), spaces).push(xs -> "call"),
+            seq(iden, str("["), spaces, ref, str("]"), spaces).push(xs -> "index"),
+            iden,
+            number);
+        rule product = seq(atom, seq(choice(seq("*", spaces), seq("/", spaces)), atom).at_least(0));
+        expr.x = seq(product, seq(choice("+", "-"), spaces, product).at_least(0)).get();
+
+        rule stmt = recursive(self -> choice(
+            seq(str("if"), spaces, cut, ref, ":", spaces, self),
+            seq(ref, ";", spaces)));
+        rule hash = str("#");
+        hash.get().exclude_errors = true;
+        rule = seq(spaces, choice(stmt, hash).at_least(0));
+
+        Parser parser = rule.get();
+        Parser optimized = new GrammarOptimizer().optimize(parser);
+        assertEquals(true, size(optimized) < size(parser));
+
+        assert_same_results(parser, optimized,
+            "", "x;", "f(1 + 2) * g[3];", "if x: if (y): z;", "if x y;", "f(1", "a[", "#a/*c*/;",
+            "1 /* x */ + 2 / 3;", "/* unterminated", "x+;", "iff;", "# # ( ;");
+
+        // common prefixes are only parsed once
+        Parser choice = new GrammarOptimizer().optimize(
+            choice(seq(str("a"), "b"), seq(str("a"), "c")).get());
+        assertEquals(true, choice instanceof Sequence);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Copy-pasted from {@link #memo_table} but modified to use a MemoCache instead of a MemoTable,
      * and one added test.
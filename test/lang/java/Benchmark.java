@@ -50,11 +50,7 @@ public final class Benchmark
 
         long size = 0;
 
-        // Perform well-formed check only once!
-        Autumn.parse(grammar.root, "class Test {}", ParseOptions.get());
-
         ParseOptions options = ParseOptions
-            .well_formedness_check(false)
             .record_call_stack(DO_RECORD)
             .metrics(() -> parse_metrics)
             .trace(DO_TRACE)
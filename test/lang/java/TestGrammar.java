@@ -1,19 +1,38 @@
 package lang.java;
 
+import norswap.autumn.Autumn;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import norswap.autumn.Parser;
 import norswap.autumn.TestFixture;
+import norswap.autumn.compiler.ParserGenerator;
 import norswap.lang.java.Grammar;
 import norswap.lang.java.LexUtils.LexProblem;
 import norswap.lang.java.ast.*;
 import norswap.utils.NArrays;
 import norswap.utils.Pair;
+import org.testng.SkipException;
 import org.testng.annotations.Test;
 
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 import static norswap.lang.java.ast.BasicType.*;
 import static norswap.utils.Vanilla.list;
+import static org.testng.Assert.assertEquals;
 
 public final class TestGrammar extends TestFixture
 {
@@ -611,4 +630,125 @@ public final class TestGrammar extends TestFixture
     }
 
     // ---------------------------------------------------------------------------------------------
-}
\ No newline at end of file
+
+    private static final String[] concurrent_inputs = {
+        "package a.b; import java.util.*; class C<T> { List<T> xs; int f(int x) { return x; } }",
+        "class C { void m() { for (int i = 0; i < 10; ++i) { if (i % 2 == 0) continue; } } }",
+        "interface I extends J { default <T> T id(T x) { return x; } }",
+        "enum E { X(1), Y(2); final int v; E(int v) { this.v = v; } }",
+        "class C { Object o = new Object() { public String toString() { return \"o\"; } }; }",
+        "class C { void m() { x = a ? b : c -> d + e; } }",
+        "class C { int x = ; }",
+        "@interface A { String value() default \"x\"; } class D { @A(\"y\") int z; }",
+    };
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void concurrent_parses() throws Exception
+    {
+        // A single parser graph shared by many threads must yield the same results as sequential
+        // parses (this exercises parse state caches, memoization, tokens and lazy parsers).
+
+        Parser parser = grammar.root.get();
+        ParseOptions options = ParseOptions.get();
+
+        String[] expected = new String[concurrent_inputs.length];
+        for (int i = 0; i < concurrent_inputs.length; ++i)
+            expected[i] = summary(Autumn.parse(parser, concurrent_inputs[i], options));
+
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; ++t) {
+                int offset = t;
+                futures.add(executor.submit(() -> {
+                    for (int rep = 0; rep < 50; ++rep)
+                        for (int i = 0; i < concurrent_inputs.length; ++i) {
+                            int j = (i + offset + rep) % concurrent_inputs.length;
+                            String actual =
+                                summary(Autumn.parse(parser, concurrent_inputs[j], options));
+                            if (!actual.equals(expected[j]))
+                                throw new AssertionError(
+                                    "concurrent parse mismatch on input " + j + ":\n"
+                                    + actual + "\nexpected:\n" + expected[j]);
+                        }
+                }));
+            }
+            for (Future<?> future: futures)
+                future.get();
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static String summary (ParseResult result)
+    {
+        return result.success + " " + result.match_size + " " + result.error_position + " "
+            + result.error_message + " " + result.value_stack;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void parse_all() throws Exception
+    {
+        Parser parser = grammar.root.get();
+        ParseOptions options = ParseOptions.get();
+
+        List<String> inputs = new ArrayList<>();
+        for (int rep = 0; rep < 20; ++rep)
+            inputs.addAll(Arrays.asList(concurrent_inputs));
+
+        List<ParseResult> results = Autumn.parse_all(parser, inputs, options);
+        assertEquals(results.size(), inputs.size());
+        for (int i = 0; i < inputs.size(); ++i)
+            assertEquals(summary(results.get(i)),
+                summary(Autumn.parse(parser, inputs.get(i), options)));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<ParseResult> results2 = Autumn.parse_all(parser, inputs, options, executor);
+            for (int i = 0; i < inputs.size(); ++i)
+                assertEquals(summary(results2.get(i)), summary(results.get(i)));
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void generated_parser() throws Exception
+    {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null)
+            throw new SkipException("no system Java compiler (running on a JRE)");
+
+        Path dir = Files.createTempDirectory("autumn");
+        try {
+            Path file = ParserGenerator.generate(Grammar.class, "root", "GeneratedParser", dir);
+            int status = javac.run(null, null, null, "-nowarn", "-d", dir.toString(),
+                "-classpath", System.getProperty("java.class.path"), file.toString());
+            assertEquals(status, 0);
+
+            try (URLClassLoader loader = new URLClassLoader(new URL[] { dir.toUri().toURL() },
+                    getClass().getClassLoader()))
+            {
+                Class<?> klass = loader.loadClass("norswap.lang.java.GeneratedParser");
+                Parser generated = (Parser) klass.getField("PARSER").get(null);
+                assert_same_results(grammar.root.get(), generated, concurrent_inputs);
+            }
+        }
+        finally {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                for (Path path: (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+                    Files.delete(path);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}